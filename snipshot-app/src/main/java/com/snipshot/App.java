@@ -3,11 +3,13 @@ package com.snipshot;
 import javafx.application.Application;
 import javafx.stage.Stage;
 import com.snipshot.controller.MainController;
+import com.snipshot.metrics.Metrics;
 
 public class App extends Application {
     
     @Override
     public void start(Stage primaryStage) {
+        Metrics.registerMBean();
         MainController mainController = new MainController();
         mainController.showMainView();
     }
@@ -0,0 +1,41 @@
+package com.snipshot.controller;
+
+import com.snipshot.model.ProjectFile;
+import javafx.concurrent.Task;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Rewrites a project file without the tiles that later saves replaced. The
+ * copy is renamed over the original once complete; the result is the
+ * project as stored in the new file.
+ */
+public class CompactTask extends Task<ProjectFile> {
+    private final ProjectFile project;
+
+    public CompactTask(ProjectFile project) {
+        this.project = project;
+        updateTitle("Compacting " + project.getPath().getFileName());
+    }
+
+    public ProjectFile getProject() {
+        return project;
+    }
+
+    @Override
+    protected ProjectFile call() throws Exception {
+        Path target = project.getPath();
+        Path temp = SaveTask.createTempFile(target);
+        try {
+            ProjectFile compacted = project.compact(temp);
+            if (isCancelled()) {
+                return null;
+            }
+            compacted.moveTo(target, SaveTask::moveIntoPlace);
+            return compacted;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
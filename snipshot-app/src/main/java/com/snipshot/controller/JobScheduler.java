@@ -0,0 +1,171 @@
+package com.snipshot.controller;
+
+import com.snipshot.metrics.Histogram;
+import com.snipshot.metrics.Metrics;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs long image operations off the FX thread, each on a virtual thread of
+ * its own. Jobs are usually JavaFX {@code Task}s, so their progress, message
+ * and state bind straight to controls and {@code cancel()} stops them; any
+ * other {@link RunnableFuture} works as well.
+ *
+ * No more jobs run at once than there are processors, since they are mostly
+ * CPU bound. Waiting jobs start in priority order: background jobs always
+ * leave a slot free for interactive ones, and idle jobs only start when
+ * nothing else runs. Jobs of one lane run one after another in the order
+ * they were submitted. A job submitted with {@link #submitLatest} cancels
+ * the one before it under the same key; if that one is already running it
+ * must check for cancellation before publishing, which a Task's onSucceeded
+ * handler does by itself.
+ */
+public final class JobScheduler {
+    public enum Priority {
+        INTERACTIVE, // the user is waiting for it, e.g. tiles coming into view
+        BACKGROUND, // asked for, but editing goes on meanwhile, e.g. saving
+        IDLE // nobody waits for it, e.g. thumbnails and compaction
+    }
+
+    private static final JobScheduler DEFAULT = new JobScheduler(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final Histogram WAIT_TIME = Metrics.histogram("job.wait", Metrics.NANOS);
+
+    private final int maxRunning;
+    private final ThreadFactory threads = Thread.ofVirtual().name("snipshot-job-", 0).factory();
+    // Not synchronized, a virtual thread blocking on a monitor would pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Job> queue = new PriorityQueue<>();
+    private final Map<String, ArrayDeque<Job>> lanes = new HashMap<>(); // busy lanes and the jobs waiting in them
+    private final Map<Object, RunnableFuture<?>> latest = new HashMap<>();
+    private int running;
+    private long sequence;
+
+    private static final class Job implements Comparable<Job> {
+        final Priority priority;
+        final long sequence;
+        final String lane;
+        final Object key;
+        final RunnableFuture<?> work;
+        final long submitted = System.nanoTime();
+
+        Job(Priority priority, long sequence, String lane, Object key, RunnableFuture<?> work) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.lane = lane;
+            this.key = key;
+            this.work = work;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int order = priority.compareTo(other.priority);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public JobScheduler(int maxRunning) {
+        this.maxRunning = Math.max(2, maxRunning);
+    }
+
+    // The scheduler all of the editor's background work shares
+    public static JobScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    public <T extends RunnableFuture<?>> T submit(Priority priority, T job) {
+        return enqueue(priority, null, null, job);
+    }
+
+    // Runs the job once the jobs submitted to the lane before it are done
+    public <T extends RunnableFuture<?>> T submitSerial(Priority priority, String lane, T job) {
+        return enqueue(priority, lane, null, job);
+    }
+
+    // Cancels the job last submitted under key, if it is not done yet
+    public <T extends RunnableFuture<?>> T submitLatest(Priority priority, Object key, T job) {
+        return enqueue(priority, null, key, job);
+    }
+
+    private <T extends RunnableFuture<?>> T enqueue(Priority priority, String lane, Object key, T work) {
+        lock.lock();
+        try {
+            if (key != null) {
+                RunnableFuture<?> superseded = latest.put(key, work);
+                if (superseded != null) {
+                    superseded.cancel(false); // interrupting would close the channels a job reads
+                }
+            }
+            Job job = new Job(priority, sequence++, lane, key, work);
+            ArrayDeque<Job> waiting = lane == null ? null : lanes.get(lane);
+            if (waiting != null) {
+                waiting.add(job);
+            } else {
+                if (lane != null) {
+                    lanes.put(lane, new ArrayDeque<>());
+                }
+                queue.add(job);
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+        return work;
+    }
+
+    // Starts waiting jobs while there is room for them, called with the lock held
+    private void dispatch() {
+        while (!queue.isEmpty() && canStart(queue.peek().priority)) {
+            Job job = queue.poll();
+            running++;
+            threads.newThread(() -> run(job)).start();
+        }
+    }
+
+    private boolean canStart(Priority priority) {
+        switch (priority) {
+            case INTERACTIVE:
+                return running < maxRunning;
+            case BACKGROUND:
+                return running < maxRunning - 1;
+            default:
+                return running == 0;
+        }
+    }
+
+    private void run(Job job) {
+        try {
+            if (!job.work.isDone()) {
+                WAIT_TIME.recordSince(job.submitted);
+                job.work.run();
+            }
+        } finally {
+            finished(job);
+        }
+    }
+
+    private void finished(Job job) {
+        lock.lock();
+        try {
+            running--;
+            if (job.key != null) {
+                latest.remove(job.key, job.work);
+            }
+            if (job.lane != null) {
+                Job next = lanes.get(job.lane).poll();
+                if (next != null) {
+                    queue.add(next);
+                } else {
+                    lanes.remove(job.lane);
+                }
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
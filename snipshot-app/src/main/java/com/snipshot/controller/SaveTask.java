@@ -0,0 +1,229 @@
+package com.snipshot.controller;
+
+import com.snipshot.metrics.Histogram;
+import com.snipshot.metrics.Metrics;
+import com.snipshot.model.ProjectFile;
+import com.snipshot.raster.Compositor;
+import com.snipshot.raster.PngEncoder;
+import com.snipshot.raster.RasterImages;
+import com.snipshot.raster.TiledPixelStore;
+import javafx.concurrent.Task;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+/**
+ * Flattens and writes an image off the FX application thread. The layers are
+ * read through a forked {@link Compositor}, so editing can go on while the
+ * task runs. The image is written to a temporary file next to the target and
+ * renamed over it once complete; a cancelled or failed save leaves the
+ * target untouched. PNGs go through the parallel {@link PngEncoder}, other
+ * formats through ImageIO, and projects keep their layers as a
+ * {@link ProjectFile}.
+ */
+public class SaveTask extends Task<File> {
+    private static final Histogram ENCODE_TIME = Metrics.histogram("encode", Metrics.NANOS);
+    // This thread only; the PNG encoder's workers allocate their strips themselves
+    private static final Histogram ENCODE_ALLOCATED = Metrics.histogram("encode.allocated", Metrics.BYTES);
+
+    private final Compositor fork;
+    private final ProjectFile project;
+    private final File target;
+    private final String format;
+    private final PngEncoder pngEncoder = new PngEncoder();
+    private volatile long encodeNanos = -1;
+
+    public SaveTask(Compositor fork, File target, String format) {
+        this(fork, null, target, format);
+    }
+
+    public SaveTask(ProjectFile project, File target) {
+        this(null, project, target, ProjectFile.EXTENSION);
+    }
+
+    private SaveTask(Compositor fork, ProjectFile project, File target, String format) {
+        this.fork = fork;
+        this.project = project;
+        this.target = target;
+        this.format = format;
+        updateTitle("Saving " + target.getName());
+    }
+
+    // Null when saving a project
+    public Compositor getFork() {
+        return fork;
+    }
+
+    // Null when saving a flattened image
+    public ProjectFile getProject() {
+        return project;
+    }
+
+    // Time spent encoding and writing the file, -1 until it is written
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    // Settings for PNG files, chosen per save
+    public void setPngOptions(int compressionLevel, PngEncoder.Filter filter) {
+        pngEncoder.setCompressionLevel(compressionLevel);
+        pngEncoder.setFilter(filter);
+    }
+
+    @Override
+    protected File call() throws Exception {
+        if (project != null) {
+            long start = System.nanoTime();
+            File written = writeProject();
+            encodeNanos = System.nanoTime() - start;
+            return written;
+        }
+        updateMessage("Flattening layers");
+        updateProgress(0, 1);
+        TiledPixelStore flattened = fork.composite();
+        if (isCancelled()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        File written = format.equals("png") ? writePng(flattened) : writeImage(flattened);
+        if (written != null) {
+            encodeNanos = System.nanoTime() - start;
+            ENCODE_TIME.record(encodeNanos);
+            Metrics.recordAllocatedSince(ENCODE_ALLOCATED, allocated);
+        }
+        return written;
+    }
+
+    private File writeImage(TiledPixelStore flattened) throws IOException {
+        BufferedImage image = RasterImages.toBufferedImage(flattened, format.equals("jpg"));
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No writer for " + format);
+        }
+        ImageWriter writer = writers.next();
+        Path temp = createTempFile();
+        try {
+            updateMessage("Writing " + target.getName());
+            updateProgress(0.2, 1);
+            writer.addIIOWriteProgressListener(new ProgressListener());
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+                writer.setOutput(out);
+                writer.write(image);
+            }
+            if (isCancelled()) {
+                return null;
+            }
+            moveIntoPlace(temp, target.toPath());
+            updateProgress(1, 1);
+            return target;
+        } finally {
+            writer.dispose();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private File writePng(TiledPixelStore flattened) throws IOException {
+        Path temp = createTempFile();
+        try {
+            updateMessage("Writing " + target.getName());
+            updateProgress(0.2, 1);
+            pngEncoder.setProgressListener(done -> updateProgress(0.2 + 0.8 * done, 1));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                pngEncoder.write(flattened, out);
+            }
+            if (isCancelled()) {
+                return null;
+            }
+            moveIntoPlace(temp, target.toPath());
+            return target;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private File writeProject() throws IOException {
+        updateMessage("Writing " + target.getName());
+        // Saving over the project's own file only appends what changed
+        if (project.canAppendTo(target.toPath())) {
+            project.append(target.toPath(), done -> updateProgress(done, 1));
+            return target;
+        }
+        Path temp = createTempFile();
+        try {
+            project.write(temp, done -> updateProgress(done, 1));
+            if (isCancelled()) {
+                return null;
+            }
+            project.moveTo(target.toPath(), SaveTask::moveIntoPlace);
+            return target;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path createTempFile() throws IOException {
+        return createTempFile(target.toPath());
+    }
+
+    // Temporary file next to target, so it can be renamed over it
+    static Path createTempFile(Path target) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        return Files.createTempFile(dir, "." + target.getFileName() + ".", ".tmp");
+    }
+
+    static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Maps the writer's progress onto the task and aborts it on cancel
+    private class ProgressListener implements IIOWriteProgressListener {
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            updateProgress(0.2 + 0.8 * percentageDone / 100, 1);
+            if (isCancelled()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageWriter source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void writeAborted(ImageWriter source) {
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.snipshot.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A change to the layer stack: create, duplicate, merge or delete.
+ */
+@Name("com.snipshot.Layer")
+@Label("Layer Operation")
+@Category({"SnipSHOT", "Layers"})
+@StackTrace(false)
+public class LayerEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Layer Count")
+    public int layerCount;
+}
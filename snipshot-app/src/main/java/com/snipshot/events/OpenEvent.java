@@ -0,0 +1,35 @@
+package com.snipshot.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Opening an image or project, up to the point where it can be edited.
+ * Streamed images and projects decode their tiles later.
+ */
+@Name("com.snipshot.Open")
+@Label("Open")
+@Category({"SnipSHOT", "Files"})
+@StackTrace(false)
+public class OpenEvent extends jdk.jfr.Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Mode")
+    @Description("decoded, streamed or project")
+    public String mode;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+}
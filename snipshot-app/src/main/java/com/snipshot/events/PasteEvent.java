@@ -0,0 +1,27 @@
+package com.snipshot.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Drawing a pasted image onto its layer once its transform is applied.
+ */
+@Name("com.snipshot.Paste")
+@Label("Paste")
+@Category({"SnipSHOT", "Painting"})
+@StackTrace(false)
+public class PasteEvent extends jdk.jfr.Event {
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Filter")
+    public String filter;
+
+    @Label("Transformed")
+    public boolean transformed;
+}
@@ -0,0 +1,35 @@
+package com.snipshot.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A save, from choosing the file to the file being in place. Most of it
+ * runs in the background while editing goes on.
+ */
+@Name("com.snipshot.Save")
+@Label("Save")
+@Category({"SnipSHOT", "Files"})
+@StackTrace(false)
+public class SaveEvent extends jdk.jfr.Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Format")
+    public String format;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Encode Time")
+    @Timespan(Timespan.MILLISECONDS)
+    public long encodeMillis;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,30 @@
+package com.snipshot.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One pencil, brush or eraser stroke, from press to release.
+ */
+@Name("com.snipshot.Stroke")
+@Label("Stroke")
+@Category({"SnipSHOT", "Painting"})
+@StackTrace(false)
+public class StrokeEvent extends jdk.jfr.Event {
+    @Label("Tool")
+    public String tool;
+
+    @Label("Radius")
+    public double radius;
+
+    @Label("Samples")
+    @Description("Pointer samples the stroke was drawn through")
+    public int samples;
+
+    @Label("Dabs")
+    @Description("Brush dabs stamped, none for hard brushes that sweep their shape")
+    public int dabs;
+}
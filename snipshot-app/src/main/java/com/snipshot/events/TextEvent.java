@@ -0,0 +1,24 @@
+package com.snipshot.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Drawing committed text onto a layer.
+ */
+@Name("com.snipshot.Text")
+@Label("Text")
+@Category({"SnipSHOT", "Painting"})
+@StackTrace(false)
+public class TextEvent extends jdk.jfr.Event {
+    @Label("Characters")
+    public int length;
+
+    @Label("Font")
+    public String font;
+
+    @Label("Font Size")
+    public double fontSize;
+}
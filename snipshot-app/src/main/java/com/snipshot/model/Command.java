@@ -0,0 +1,15 @@
+package com.snipshot.model;
+
+/**
+ * One reversible step of an edit recorded in the {@link History}.
+ */
+public interface Command {
+    void undo();
+
+    void redo();
+
+    // Approximate bytes kept in memory by this step
+    default long getSizeInBytes() {
+        return 0;
+    }
+}
@@ -0,0 +1,267 @@
+package com.snipshot.model;
+
+import com.snipshot.raster.TiledPixelStore;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+
+/**
+ * Undo/redo history. Pixel edits only store the tiles they touched, compressed,
+ * and once the history grows past its memory budget the oldest entries are
+ * moved to a temp file.
+ *
+ * An edit is recorded between {@link #begin(String)} and {@link #commit()};
+ * nested begin/commit pairs join the outermost edit.
+ */
+public class History {
+    public static final int DEFAULT_MAX_STEPS = 500;
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static class Entry {
+        final String name;
+        final List<Command> steps = new ArrayList<>();
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        long getSizeInBytes() {
+            long size = 0;
+            for (Command step : steps) {
+                size += step.getSizeInBytes();
+            }
+            return size;
+        }
+    }
+
+    private final Deque<Entry> undoStack = new ArrayDeque<>();
+    private final Deque<Entry> redoStack = new ArrayDeque<>();
+    private final BooleanProperty canUndo = new SimpleBooleanProperty(false);
+    private final BooleanProperty canRedo = new SimpleBooleanProperty(false);
+    private int maxSteps;
+    private long memoryBudget;
+    private long memoryUsed;
+    private Entry pending;
+    private int depth;
+    private HistorySpillFile spillFile;
+
+    public History() {
+        this(DEFAULT_MAX_STEPS, DEFAULT_MEMORY_BUDGET);
+    }
+
+    public History(int maxSteps, long memoryBudget) {
+        this.maxSteps = maxSteps;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public void begin(String name) {
+        if (depth++ == 0) {
+            pending = new Entry(name);
+        }
+    }
+
+    // Starts recording the tiles the current edit changes on this layer
+    public void track(Layer layer) {
+        if (pending == null || !(layer.getPixels() instanceof TiledPixelStore)) {
+            return;
+        }
+        TiledPixelStore store = (TiledPixelStore) layer.getPixels();
+        for (Command step : pending.steps) {
+            if (step instanceof PixelEdit && ((PixelEdit) step).getStore() == store) {
+                return;
+            }
+        }
+        PixelEdit edit = new PixelEdit(store);
+        edit.startTracking();
+        pending.steps.add(edit);
+    }
+
+    // Adds a step that has already been applied to the current edit
+    public void record(Command step) {
+        if (pending != null) {
+            pending.steps.add(step);
+        }
+    }
+
+    public void commit() {
+        if (depth == 0 || --depth > 0) {
+            return;
+        }
+        Entry entry = pending;
+        pending = null;
+        entry.steps.removeIf(step -> {
+            if (step instanceof PixelEdit) {
+                PixelEdit edit = (PixelEdit) step;
+                edit.finish();
+                return edit.isEmpty();
+            }
+            return false;
+        });
+        if (entry.steps.isEmpty()) {
+            return;
+        }
+        for (Entry dropped : redoStack) {
+            drop(dropped);
+        }
+        redoStack.clear();
+        undoStack.addLast(entry);
+        memoryUsed += entry.getSizeInBytes();
+        enforceLimits();
+        updateProperties();
+    }
+
+    public void undo() {
+        finishPending();
+        Entry entry = undoStack.pollLast();
+        if (entry != null) {
+            for (int i = entry.steps.size() - 1; i >= 0; i--) {
+                entry.steps.get(i).undo();
+            }
+            redoStack.addLast(entry);
+        }
+        updateProperties();
+    }
+
+    public void redo() {
+        finishPending();
+        Entry entry = redoStack.pollLast();
+        if (entry != null) {
+            for (Command step : entry.steps) {
+                step.redo();
+            }
+            undoStack.addLast(entry);
+        }
+        updateProperties();
+    }
+
+    public void clear() {
+        finishPending();
+        undoStack.clear();
+        redoStack.clear();
+        memoryUsed = 0;
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+        updateProperties();
+    }
+
+    public String getUndoName() {
+        Entry entry = undoStack.peekLast();
+        return entry == null ? null : entry.name;
+    }
+
+    public String getRedoName() {
+        Entry entry = redoStack.peekLast();
+        return entry == null ? null : entry.name;
+    }
+
+    public ReadOnlyBooleanProperty canUndoProperty() {
+        return canUndo;
+    }
+
+    public ReadOnlyBooleanProperty canRedoProperty() {
+        return canRedo;
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        enforceLimits();
+    }
+
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    public void setMaxSteps(int maxSteps) {
+        this.maxSteps = Math.max(1, maxSteps);
+        enforceLimits();
+        updateProperties();
+    }
+
+    // Closes an edit left open, e.g. by a drag that never got its release event
+    private void finishPending() {
+        if (depth > 0) {
+            depth = 1;
+            commit();
+        }
+    }
+
+    private void enforceLimits() {
+        while (undoStack.size() + redoStack.size() > maxSteps && !undoStack.isEmpty()) {
+            drop(undoStack.pollFirst());
+        }
+        if (memoryUsed <= memoryBudget) {
+            return;
+        }
+        // Oldest undo entries go to disk first, the most recent stays in memory
+        Entry newest = undoStack.peekLast();
+        Iterator<Entry> it = undoStack.iterator();
+        while (it.hasNext() && memoryUsed > memoryBudget) {
+            Entry entry = it.next();
+            if (entry == newest) {
+                break;
+            }
+            spill(entry);
+            if (entry.getSizeInBytes() > 0) {
+                // What is left can't go to disk, e.g. the layers a layer change keeps, or there is no
+                // spill file, so the entry has to go, and every older one with it as undo can't skip it
+                Entry dropped;
+                do {
+                    dropped = undoStack.pollFirst();
+                    drop(dropped);
+                } while (dropped != entry);
+                it = undoStack.iterator();
+            }
+        }
+    }
+
+    // Moves the entry's pixel edits to the spill file; all of an edit goes, or none of it
+    private void spill(Entry entry) {
+        try {
+            if (spillFile == null) {
+                spillFile = new HistorySpillFile();
+            }
+            for (Command step : entry.steps) {
+                if (step instanceof PixelEdit) {
+                    memoryUsed -= ((PixelEdit) step).spill(spillFile);
+                }
+            }
+        } catch (IOException e) {
+            // Whatever is still in memory is dropped by the caller
+        }
+    }
+
+    // Accounts for an entry leaving the history and frees its part of the spill file
+    private void drop(Entry entry) {
+        memoryUsed -= entry.getSizeInBytes();
+        for (Command step : entry.steps) {
+            if (step instanceof PixelEdit) {
+                try {
+                    ((PixelEdit) step).discard();
+                } catch (IOException e) {
+                    // The range stays taken until clear() deletes the file
+                }
+            }
+        }
+    }
+
+    private void updateProperties() {
+        canUndo.set(!undoStack.isEmpty());
+        canRedo.set(!redoStack.isEmpty());
+    }
+}
@@ -0,0 +1,104 @@
+package com.snipshot.model;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Temp file that holds history entries pushed out of memory. Ranges freed by
+ * entries the history dropped are written over by later ones, and the file
+ * is cut back whenever its end is free, so it stays about as large as the
+ * entries it still holds.
+ */
+class HistorySpillFile {
+    private final Path path;
+    private final RandomAccessFile file;
+    private final TreeMap<Long, Long> free = new TreeMap<>(); // offset to length, never adjacent
+    private long length;
+
+    HistorySpillFile() throws IOException {
+        path = Files.createTempFile("snipshot-history", ".bin");
+        path.toFile().deleteOnExit();
+        file = new RandomAccessFile(path.toFile(), "rw");
+    }
+
+    // Writes the chunks back to back and returns the offset of the first one
+    synchronized long append(byte[]... chunks) throws IOException {
+        long size = 0;
+        for (byte[] chunk : chunks) {
+            size += chunk.length;
+        }
+        long offset = allocate(size);
+        try {
+            file.seek(offset);
+            for (byte[] chunk : chunks) {
+                file.write(chunk);
+            }
+        } catch (IOException e) {
+            free(offset, size);
+            throw e;
+        }
+        return offset;
+    }
+
+    synchronized byte[] read(long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        file.seek(offset);
+        file.readFully(data);
+        return data;
+    }
+
+    // Gives back a range an append returned, once nothing will read it again
+    synchronized void free(long offset, long size) throws IOException {
+        if (size <= 0) {
+            return;
+        }
+        Map.Entry<Long, Long> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            free.remove(before.getKey());
+            offset = before.getKey();
+            size += before.getValue();
+        }
+        Long after = free.get(offset + size);
+        if (after != null) {
+            free.remove(offset + size);
+            size += after;
+        }
+        if (offset + size == length) {
+            length = offset;
+            file.setLength(length);
+        } else {
+            free.put(offset, size);
+        }
+    }
+
+    // First free range the size fits in, else the end of the file
+    private long allocate(long size) {
+        for (Map.Entry<Long, Long> range : free.entrySet()) {
+            long offset = range.getKey();
+            long available = range.getValue();
+            if (available >= size) {
+                free.remove(offset);
+                if (available > size) {
+                    free.put(offset + size, available - size);
+                }
+                return offset;
+            }
+        }
+        long offset = length;
+        length += size;
+        return offset;
+    }
+
+    synchronized void delete() {
+        try {
+            file.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Left for deleteOnExit
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.snipshot.model;
+
+import com.snipshot.raster.BlendOp;
+import com.snipshot.raster.Compositor;
+import com.snipshot.raster.PixelStore;
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.Surface;
+import com.snipshot.raster.TiledPixelStore;
+import javafx.beans.property.*;
+import javafx.scene.effect.BlendMode;
+import javafx.scene.layout.Pane;
+
+public class Layer implements Compositor.Source, Surface {
+    private final PixelStore pixels;
+    private final RasterGraphics graphics;
+    private Pane canvas; // created on demand, only receives the tools' mouse events
+    private StringProperty name;
+    private DoubleProperty opacity;
+    private BooleanProperty visible;
+    private ObjectProperty<BlendMode> blendMode;
+    private boolean locked;
+
+    public Layer(String name, double width, double height) {
+        this(name, new TiledPixelStore((int) Math.ceil(width), (int) Math.ceil(height)));
+    }
+
+    public Layer(String name, PixelStore pixels) {
+        this.name = new SimpleStringProperty(name);
+        this.opacity = new SimpleDoubleProperty(1.0); // 1.0 = 100% opacity
+        this.visible = new SimpleBooleanProperty(true);
+        this.blendMode = new SimpleObjectProperty<>(BlendMode.SRC_OVER);
+        this.pixels = pixels;
+        this.graphics = new RasterGraphics(pixels);
+        this.locked = false;
+    }
+
+    /**
+     * Copy of this layer that shares its pixel tiles. A shared tile is only
+     * copied once either layer draws on it, so duplicating costs a reference
+     * per tile rather than the layer's memory.
+     */
+    public Layer duplicate(String name) {
+        Layer copy = new Layer(name, pixels.snapshot());
+        copy.setOpacity(getOpacity());
+        copy.setVisible(isVisible());
+        copy.setBlendMode(getBlendMode());
+        return copy;
+    }
+
+    @Override
+    public PixelStore getPixels() {
+        return pixels;
+    }
+
+    @Override
+    public RasterGraphics getGraphics() {
+        return graphics;
+    }
+
+    // Document-sized hit area for the tools; the pixels are drawn by the viewport renderer
+    public Pane getCanvas() {
+        if (canvas == null) {
+            canvas = new Pane();
+            canvas.setPrefSize(pixels.getWidth(), pixels.getHeight());
+            canvas.setMinSize(pixels.getWidth(), pixels.getHeight());
+            canvas.setMaxSize(pixels.getWidth(), pixels.getHeight());
+            canvas.resize(pixels.getWidth(), pixels.getHeight());
+            canvas.setPickOnBounds(true);
+            canvas.visibleProperty().bind(visible);
+        }
+        return canvas;
+    }
+
+    public String getName() {
+        return name.get();
+    }
+
+    public StringProperty nameProperty() {
+        return name;
+    }
+
+    @Override
+    public double getOpacity() {
+        return opacity.get();
+    }
+
+    public void setOpacity(double value) {
+        opacity.set(value);
+    }
+
+    public DoubleProperty opacityProperty() {
+        return opacity;
+    }
+
+    @Override
+    public boolean isVisible() {
+        return visible.get();
+    }
+
+    public void setVisible(boolean value) {
+        visible.set(value);
+    }
+
+    public BooleanProperty visibleProperty() {
+        return visible;
+    }
+
+    public BlendMode getBlendMode() {
+        return blendMode.get();
+    }
+
+    public void setBlendMode(BlendMode mode) {
+        blendMode.set(mode);
+    }
+
+    public ObjectProperty<BlendMode> blendModeProperty() {
+        return blendMode;
+    }
+
+    @Override
+    public BlendOp getBlendOp() {
+        BlendMode mode = getBlendMode();
+        return mode == null ? BlendOp.SRC_OVER : BlendOp.valueOf(mode.name());
+    }
+
+    public boolean isLocked() {
+        return locked;
+    }
+
+    public void setLocked(boolean locked) {
+        this.locked = locked;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+} 
\ No newline at end of file
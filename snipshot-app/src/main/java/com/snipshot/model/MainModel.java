@@ -0,0 +1,188 @@
+package com.snipshot.model;
+
+import com.snipshot.events.PasteEvent;
+import com.snipshot.events.StrokeEvent;
+import com.snipshot.events.TextEvent;
+import com.snipshot.paint.BrushShape;
+import com.snipshot.paint.PaintEngine;
+import com.snipshot.paint.StrokeTool;
+import com.snipshot.raster.Resampler;
+import com.snipshot.raster.SelectionMask;
+import com.snipshot.raster.TiledPixelStore;
+import com.snipshot.util.PixelUtil;
+import java.awt.geom.AffineTransform;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+
+/**
+ * The open document's state and the tools' settings. The painting itself is
+ * done by the core's {@link PaintEngine}; this only converts JavaFX values
+ * for it.
+ */
+public class MainModel {
+    private Color currentColor = Color.BLACK;
+    private boolean isSaved = true;
+    private long revision; // counts edits, so a save can tell if it is still current
+    private final History history = new History();
+    private final PaintEngine paint = new PaintEngine();
+    private StrokeEvent strokeEvent;
+    
+    /**
+     * Starts a pencil, brush or eraser stroke. Samples added while dragging
+     * are only queued; {@link #flushStroke} draws them as one smoothed path,
+     * so the view can call it once per frame however fast events arrive.
+     */
+    public void beginStroke(Layer layer, StrokeTool tool, double x, double y) {
+        strokeEvent = new StrokeEvent();
+        strokeEvent.begin();
+        strokeEvent.tool = tool.name();
+        strokeEvent.radius = tool == StrokeTool.BRUSH ? paint.getBrushRadius()
+            : tool == StrokeTool.ERASER ? paint.getEraserRadius() : 1;
+        paint.beginStroke(layer, tool, x, y);
+    }
+
+    public void continueStroke(double x, double y) {
+        paint.continueStroke(x, y);
+    }
+
+    // Draws the samples queued since the last flush; false if nothing was drawn
+    public boolean flushStroke() {
+        return paint.flushStroke();
+    }
+
+    // Draws what is left of the stroke, including its last segment
+    public boolean endStroke() {
+        boolean drawn = paint.endStroke();
+        if (strokeEvent != null) {
+            strokeEvent.samples = paint.getStrokeSamples();
+            strokeEvent.dabs = paint.getStrokeDabs();
+            strokeEvent.commit();
+            strokeEvent = null;
+        }
+        return drawn;
+    }
+
+    // Erases the selected pixels of a layer, as the eraser would
+    public void eraseSelection(Layer layer, SelectionMask selection) {
+        paint.eraseSelection(layer, selection);
+    }
+    
+    public void drawRectangle(Layer layer, double x, double y, double width, double height, boolean filled) {
+        paint.drawRectangle(layer, x, y, width, height, filled);
+    }
+    
+    public void drawText(Layer layer, String text, String fontFamily, double fontSize, Color color, double x, double y) {
+        TextEvent event = new TextEvent();
+        event.begin();
+        paint.drawText(layer, text, new java.awt.Font(fontFamily, java.awt.Font.PLAIN, (int) Math.round(fontSize)),
+                       PixelUtil.toArgb(color), x, y);
+        event.length = text.length();
+        event.font = fontFamily;
+        event.fontSize = fontSize;
+        event.commit();
+    }
+    
+    public void drawImage(Layer layer, Image image, double x, double y) {
+        layer.getGraphics().drawImage(PixelUtil.readPixels(image),
+            (int) image.getWidth(), (int) image.getHeight(),
+            (int) Math.round(x), (int) Math.round(y));
+    }
+    
+    // Draws an image held in tiles, placed by a transform from its own pixels to the layer's
+    public void drawImage(Layer layer, TiledPixelStore image, AffineTransform transform, Resampler.Filter filter) {
+        PasteEvent event = new PasteEvent();
+        event.begin();
+        layer.getGraphics().drawImage(image, transform, filter);
+        event.width = image.getWidth();
+        event.height = image.getHeight();
+        event.filter = filter.name();
+        event.transformed = transform.getType() != AffineTransform.TYPE_IDENTITY
+            && transform.getType() != AffineTransform.TYPE_TRANSLATION;
+        event.commit();
+    }
+    
+    public void setBrushRadius(double radius) {
+        paint.setBrushRadius(radius);
+    }
+    
+    public double getBrushRadius() {
+        return paint.getBrushRadius();
+    }
+    
+    public void setCurrentColor(Color color) {
+        this.currentColor = color;
+        paint.setColor(PixelUtil.toArgb(color));
+    }
+    
+    public Color getCurrentColor() {
+        return currentColor;
+    }
+
+    public double getBrushHardness() {
+        return paint.getBrushHardness();
+    }
+
+    public void setBrushHardness(double hardness) {
+        paint.setBrushHardness(hardness);
+    }
+
+    public double getBrushSpacing() {
+        return paint.getBrushSpacing();
+    }
+
+    // Applies to the brush and eraser alike
+    public void setBrushSpacing(double spacing) {
+        paint.setBrushSpacing(spacing);
+    }
+
+    public BrushShape getBrushShape() {
+        return paint.getBrushShape();
+    }
+
+    public void setBrushShape(BrushShape shape) {
+        paint.setBrushShape(shape);
+    }
+
+    public double getEraserRadius() {
+        return paint.getEraserRadius();
+    }
+
+    public void setEraserRadius(double radius) {
+        paint.setEraserRadius(radius);
+    }
+
+    public BrushShape getEraserShape() {
+        return paint.getEraserShape();
+    }
+
+    public void setEraserShape(BrushShape shape) {
+        paint.setEraserShape(shape);
+    }
+
+    public double getEraserHardness() {
+        return paint.getEraserHardness();
+    }
+
+    public void setEraserHardness(double hardness) {
+        paint.setEraserHardness(hardness);
+    }
+
+    public void setSaved(boolean saved) {
+        if (!saved) {
+            revision++;
+        }
+        this.isSaved = saved;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public boolean isSaved() {
+        return isSaved;
+    }
+
+    public History getHistory() {
+        return history;
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,168 @@
+package com.snipshot.model;
+
+import com.snipshot.raster.TileData;
+import com.snipshot.raster.TiledPixelStore;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Records the tiles of one layer that an edit touched, before and after the
+ * edit, so undo and redo only cost as much as the changed tiles.
+ */
+class PixelEdit implements Command, TiledPixelStore.TileListener {
+    private final TiledPixelStore store;
+    private final BitSet captured = new BitSet();
+    private final List<TileRecord> tiles = new ArrayList<>();
+    private HistorySpillFile spillFile;
+    private boolean tracking;
+
+    private static class TileRecord {
+        final int tileX;
+        final int tileY;
+        TileData before;
+        TileData after;
+        long spillOffset = -1; // position of before/after in the spill file
+        int beforeLength;
+        int afterLength;
+
+        TileRecord(int tileX, int tileY, TileData before) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.before = before;
+        }
+    }
+
+    PixelEdit(TiledPixelStore store) {
+        this.store = store;
+    }
+
+    TiledPixelStore getStore() {
+        return store;
+    }
+
+    void startTracking() {
+        tracking = true;
+        store.addTileListener(this);
+    }
+
+    // Stops listening and captures the final state of every touched tile
+    void finish() {
+        if (!tracking) {
+            return;
+        }
+        tracking = false;
+        store.removeTileListener(this);
+        for (TileRecord record : tiles) {
+            record.after = store.captureTile(record.tileX, record.tileY);
+        }
+    }
+
+    boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    @Override
+    public void tileChanging(TiledPixelStore source, int tileX, int tileY) {
+        int index = tileY * store.getTilesX() + tileX;
+        if (!captured.get(index)) {
+            captured.set(index);
+            tiles.add(new TileRecord(tileX, tileY, store.captureTile(tileX, tileY)));
+        }
+    }
+
+    @Override
+    public void undo() {
+        for (TileRecord record : tiles) {
+            store.restoreTile(record.tileX, record.tileY, load(record, true));
+        }
+    }
+
+    @Override
+    public void redo() {
+        for (TileRecord record : tiles) {
+            store.restoreTile(record.tileX, record.tileY, load(record, false));
+        }
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = 0;
+        for (TileRecord record : tiles) {
+            if (record.before != null) {
+                size += record.before.getSizeInBytes();
+            }
+            if (record.after != null) {
+                size += record.after.getSizeInBytes();
+            }
+        }
+        return size;
+    }
+
+    // Moves the tile payloads to the spill file, returns the bytes released. If a
+    // write fails, the ranges already written are freed and nothing is released.
+    long spill(HistorySpillFile file) throws IOException {
+        List<TileRecord> written = new ArrayList<>();
+        try {
+            for (TileRecord record : tiles) {
+                if (record.spillOffset >= 0 || record.after == null) {
+                    continue;
+                }
+                byte[] before = record.before.toBytes();
+                byte[] after = record.after.toBytes();
+                record.spillOffset = file.append(before, after);
+                record.beforeLength = before.length;
+                record.afterLength = after.length;
+                written.add(record);
+            }
+        } catch (IOException e) {
+            for (TileRecord record : written) {
+                try {
+                    file.free(record.spillOffset, record.beforeLength + record.afterLength);
+                } catch (IOException ignored) {
+                    // The range stays taken until the history deletes the file
+                }
+                record.spillOffset = -1;
+            }
+            throw e;
+        }
+        long released = 0;
+        for (TileRecord record : written) {
+            released += record.before.getSizeInBytes() + record.after.getSizeInBytes();
+            record.before = null;
+            record.after = null;
+        }
+        if (!written.isEmpty()) {
+            spillFile = file;
+        }
+        return released;
+    }
+
+    // Frees what was spilled once the history dropped this edit
+    void discard() throws IOException {
+        if (spillFile == null) {
+            return;
+        }
+        for (TileRecord record : tiles) {
+            if (record.spillOffset >= 0) {
+                spillFile.free(record.spillOffset, record.beforeLength + record.afterLength);
+                record.spillOffset = -1;
+            }
+        }
+        spillFile = null;
+    }
+
+    private TileData load(TileRecord record, boolean before) {
+        if (record.spillOffset < 0) {
+            return before ? record.before : record.after;
+        }
+        try {
+            long offset = before ? record.spillOffset : record.spillOffset + record.beforeLength;
+            int length = before ? record.beforeLength : record.afterLength;
+            return TileData.fromBytes(spillFile.read(offset, length));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read history from disk", e);
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package com.snipshot.model;
+
+import com.snipshot.raster.PixelStore;
+import com.snipshot.raster.TileData;
+import com.snipshot.raster.TiledPixelStore;
+import javafx.scene.effect.BlendMode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleConsumer;
+
+/**
+ * The layered {@code .snip} project format. A fixed header points to an
+ * index holding every layer's properties and the location of each of its
+ * tiles; the compressed tiles follow. Uniform tiles live in the index
+ * itself. Opening reads only the index and keeps the file open, the tiles
+ * are decoded the first time a layer needs them. Saving over that file
+ * switches the layers over to the new one, see {@link #moveTo}.
+ *
+ * Saving again to the same file is log-structured: only the tiles changed
+ * since the last save are appended, followed by a new index, and the header
+ * is pointed at that index last. Until then the file still reads as the
+ * previous save. {@link #compact} rewrites a file that is mostly dead tiles.
+ *
+ * <pre>
+ * header: int magic "SNIP", int version, int width, int height,
+ *         long index offset, int index length, long file id,
+ *         padded to 64 bytes
+ * index:  int layer count, then per layer from the top:
+ *         UTF name, double opacity, boolean visible, UTF blend mode,
+ *         boolean locked, per tile: long offset (-1 if uniform),
+ *         int length (color if uniform)
+ * tiles:  {@link TileData#toBytes()} of every tile that is not uniform
+ * </pre>
+ */
+public class ProjectFile {
+    public static final String EXTENSION = "snip";
+
+    private static final int MAGIC = 0x534E4950;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final long COMPACT_MIN_DEAD_BYTES = 16L << 20;
+
+    private final int width;
+    private final int height;
+    private final List<Entry> entries; // top layer first
+    private ProjectFile previous; // last save of the same layers, until this one is written
+    private OpenFile open; // the file the layers were read from, shared by later saves of them
+    private Path path;
+    private long fileId;
+    private long fileLength;
+    private long liveBytes;
+
+    private ProjectFile(int width, int height, List<Entry> entries) {
+        this.width = width;
+        this.height = height;
+        this.entries = entries;
+    }
+
+    /**
+     * Snapshot of the layers, ordered top first, for writing on another
+     * thread. Call on the FX thread, then release or abandon when done.
+     * With the project last opened or saved, only tiles changed since then
+     * are written when saving to the same file.
+     */
+    public static ProjectFile capture(int width, int height, List<Layer> layers, ProjectFile previous) {
+        List<Entry> entries = new ArrayList<>(layers.size());
+        for (Layer layer : layers) {
+            Entry entry = new Entry(layer.getName(), layer.getOpacity(), layer.isVisible(),
+                                    layer.getBlendMode(), layer.isLocked());
+            if (layer.getPixels() instanceof TiledPixelStore) {
+                entry.source = (TiledPixelStore) layer.getPixels();
+                entry.pixels = entry.source.snapshot();
+                entry.changed = entry.source.takeChangedTiles();
+                entry.base = previous == null ? null : previous.tableFor(entry.source);
+            } else {
+                entry.pixels = tiled(layer.getPixels());
+            }
+            entries.add(entry);
+        }
+        ProjectFile project = new ProjectFile(width, height, entries);
+        project.previous = previous;
+        project.open = previous == null ? null : previous.open;
+        if (project.open != null) {
+            for (Entry entry : entries) {
+                if (entry.changed != null) {
+                    project.open.markChanged(entry.source, entry.changed);
+                }
+            }
+        }
+        return project;
+    }
+
+    public static ProjectFile read(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return read(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static ProjectFile read(Path path, FileChannel channel) throws IOException {
+        long length = channel.size();
+        if (length < HEADER_SIZE) {
+            throw new IOException("Not a SnipSHOT project: " + path);
+        }
+        ByteBuffer header = readFully(channel, HEADER_SIZE, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a SnipSHOT project: " + path);
+        }
+        if (header.getInt(4) > VERSION) {
+            throw new IOException("Project was saved by a newer version: " + path);
+        }
+        int width = header.getInt(8);
+        int height = header.getInt(12);
+        long indexOffset = header.getLong(16);
+        int indexLength = header.getInt(24);
+        if (indexOffset < HEADER_SIZE || indexLength < 0 || indexOffset + indexLength > length) {
+            throw new IOException("Corrupt project index: " + path);
+        }
+        byte[] indexBytes = readFully(channel, indexLength, indexOffset).array();
+        DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBytes));
+
+        OpenFile open = new OpenFile(path, channel);
+        int tilesX = (width + TiledPixelStore.TILE_SIZE - 1) / TiledPixelStore.TILE_SIZE;
+        int tilesY = (height + TiledPixelStore.TILE_SIZE - 1) / TiledPixelStore.TILE_SIZE;
+        int layerCount = index.readInt();
+        List<Entry> entries = new ArrayList<>(layerCount);
+        for (int i = 0; i < layerCount; i++) {
+            Entry entry = new Entry(index.readUTF(), index.readDouble(), index.readBoolean(),
+                                    BlendMode.valueOf(index.readUTF()), index.readBoolean());
+            TileTable table = new TileTable(tilesX * tilesY);
+            for (int t = 0; t < table.offsets.length; t++) {
+                table.offsets[t] = index.readLong();
+                table.values[t] = index.readInt();
+                if (table.offsets[t] >= 0 && table.offsets[t] + table.values[t] > length) {
+                    throw new IOException("Corrupt tile entry in layer " + entry.name);
+                }
+            }
+            entry.table = table;
+            FileTiles tiles = new FileTiles(open, tilesX, table);
+            entry.source = new TiledPixelStore(width, height, tiles);
+            entry.pixels = entry.source;
+            tiles.store = entry.source;
+            open.layers.add(tiles);
+            entries.add(entry);
+        }
+        ProjectFile project = new ProjectFile(width, height, entries);
+        project.path = path;
+        project.open = open;
+        project.fileId = header.getLong(28);
+        project.fileLength = length;
+        project.liveBytes = project.countLiveBytes(indexLength);
+        return project;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // The file this project was read from or written to, null before that
+    public Path getPath() {
+        return path;
+    }
+
+    // New layers for the project, top first, sharing its pixels
+    public List<Layer> createLayers() {
+        List<Layer> layers = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            Layer layer = new Layer(entry.name, entry.pixels);
+            layer.setOpacity(entry.opacity);
+            layer.setVisible(entry.visible);
+            layer.setBlendMode(entry.blendMode);
+            layer.setLocked(entry.locked);
+            layers.add(layer);
+        }
+        return layers;
+    }
+
+    // True if a save to target can append to the file the previous project was saved in
+    public boolean canAppendTo(Path target) throws IOException {
+        if (previous == null || previous.path == null || !Files.exists(target)
+                || !Files.isSameFile(previous.path, target) || Files.size(target) != previous.fileLength) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, HEADER_SIZE, 0);
+            return header.getInt(0) == MAGIC && header.getLong(28) == previous.fileId
+                && header.getInt(8) == width && header.getInt(12) == height;
+        }
+    }
+
+    /**
+     * Writes the whole project to a new file, with the index right after
+     * the header. Tiles are compressed in parallel one layer at a time.
+     */
+    public void write(Path file, DoubleConsumer progress) throws IOException {
+        // The index has a fixed size for a given set of layers, so the tiles can go right after it
+        int indexLength = writeIndex().length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long end = writeTiles(channel, HEADER_SIZE + indexLength, false, progress);
+            byte[] index = writeIndex();
+            writeFully(channel, ByteBuffer.wrap(index), HEADER_SIZE);
+            fileId = ThreadLocalRandom.current().nextLong();
+            writeFully(channel, header(HEADER_SIZE, index.length), 0);
+            channel.force(false);
+            written(file, end, index.length);
+        }
+    }
+
+    // Appends the changed tiles and a new index to the previous save, see canAppendTo
+    public void append(Path file, DoubleConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long end = writeTiles(channel, previous.fileLength, true, progress);
+            byte[] index = writeIndex();
+            writeFully(channel, ByteBuffer.wrap(index), end);
+            channel.force(false);
+            // Only now does the file switch over to the new index
+            fileId = previous.fileId;
+            writeFully(channel, header(end, index.length), 0);
+            channel.force(false);
+            written(file, end + index.length, index.length);
+        }
+    }
+
+    /**
+     * Moves the file this project was just written to over target. When the
+     * layers still load tiles from the file there, it is closed for the move,
+     * as an open file can't be replaced everywhere, and they load from the
+     * new one afterwards; tiles it holds other contents for are read into
+     * memory first.
+     */
+    public void moveTo(Path target, FileMove move) throws IOException {
+        if (open != null && open.isAt(target)) {
+            open.replace(this, target, move);
+        } else {
+            move.move(path, target);
+        }
+        path = target;
+    }
+
+    // Lets go of the file the layers were read from, once the document is closed and no save of it runs
+    public void close() throws IOException {
+        if (open != null) {
+            open.close();
+        }
+    }
+
+    // True once more than half the file, and at least 16 MB, is tiles no index refers to
+    public boolean needsCompaction() {
+        long dead = fileLength - liveBytes;
+        return path != null && dead >= COMPACT_MIN_DEAD_BYTES && dead > liveBytes;
+    }
+
+    /**
+     * Copies the live tiles of this project's file into a new file and
+     * returns the project as stored there. Layers are not touched, so this
+     * can run in the background between saves.
+     */
+    public ProjectFile compact(Path file) throws IOException {
+        List<Entry> copies = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            Entry copy = new Entry(entry.name, entry.opacity, entry.visible, entry.blendMode, entry.locked);
+            copy.source = entry.source;
+            copy.table = new TileTable(entry.table.offsets.length);
+            copies.add(copy);
+        }
+        ProjectFile compacted = new ProjectFile(width, height, copies);
+        compacted.open = open;
+        int indexLength = compacted.writeIndex().length;
+        long position = HEADER_SIZE + indexLength;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < entries.size(); i++) {
+                TileTable from = entries.get(i).table;
+                TileTable to = copies.get(i).table;
+                for (int t = 0; t < from.offsets.length; t++) {
+                    to.values[t] = from.values[t];
+                    if (from.offsets[t] < 0) {
+                        to.offsets[t] = -1;
+                        continue;
+                    }
+                    writeFully(out, readFully(in, from.values[t], from.offsets[t]), position);
+                    to.offsets[t] = position;
+                    position += from.values[t];
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Compaction interrupted");
+                }
+            }
+            byte[] index = compacted.writeIndex();
+            writeFully(out, ByteBuffer.wrap(index), HEADER_SIZE);
+            compacted.fileId = ThreadLocalRandom.current().nextLong();
+            writeFully(out, compacted.header(HEADER_SIZE, index.length), 0);
+            out.force(false);
+            compacted.written(file, position, index.length);
+        }
+        return compacted;
+    }
+
+    // Gives up the snapshot taken by capture, after a successful save
+    public void release() {
+        for (Entry entry : entries) {
+            if (entry.pixels != null && entry.pixels != entry.source) {
+                entry.pixels.release();
+            }
+        }
+    }
+
+    // Releases after a failed save, the changes are still unsaved
+    public void abandon() {
+        for (Entry entry : entries) {
+            if (entry.source != null && entry.changed != null) {
+                entry.source.markTilesChanged(entry.changed);
+            }
+        }
+        release();
+    }
+
+    // Writes every tile, or only the changed ones when appending; returns the end position
+    private long writeTiles(FileChannel channel, long position, boolean appending, DoubleConsumer progress)
+            throws IOException {
+        for (int i = 0; i < entries.size(); i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Project save interrupted");
+            }
+            Entry entry = entries.get(i);
+            TiledPixelStore pixels = entry.pixels;
+            int tilesX = pixels.getTilesX();
+            int tileCount = tilesX * pixels.getTilesY();
+            TileTable table;
+            BitSet toWrite;
+            if (appending && entry.base != null) {
+                table = entry.base.copy();
+                toWrite = entry.changed;
+            } else {
+                table = new TileTable(tileCount);
+                toWrite = new BitSet(tileCount);
+                toWrite.set(0, tileCount);
+            }
+            TileData[] tiles = new TileData[tileCount];
+            toWrite.stream().parallel().forEach(t -> tiles[t] = pixels.captureTile(t % tilesX, t / tilesX));
+            for (int t = toWrite.nextSetBit(0); t >= 0; t = toWrite.nextSetBit(t + 1)) {
+                if (tiles[t].isUniform()) {
+                    table.offsets[t] = -1;
+                    table.values[t] = tiles[t].getColor();
+                    continue;
+                }
+                byte[] bytes = tiles[t].toBytes();
+                writeFully(channel, ByteBuffer.wrap(bytes), position);
+                table.offsets[t] = position;
+                table.values[t] = bytes.length;
+                position += bytes.length;
+            }
+            entry.table = table;
+            progress.accept((double) (i + 1) / entries.size());
+        }
+        return position;
+    }
+
+    private void written(Path file, long length, int indexLength) {
+        path = file;
+        fileLength = length;
+        liveBytes = countLiveBytes(indexLength);
+        previous = null;
+        for (Entry entry : entries) {
+            entry.base = null;
+        }
+    }
+
+    private long countLiveBytes(int indexLength) {
+        long bytes = HEADER_SIZE + indexLength;
+        for (Entry entry : entries) {
+            for (int t = 0; t < entry.table.offsets.length; t++) {
+                if (entry.table.offsets[t] >= 0) {
+                    bytes += entry.table.values[t];
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private TileTable tableFor(TiledPixelStore source) {
+        for (Entry entry : entries) {
+            if (entry.source == source) {
+                return entry.table;
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer header(long indexOffset, int indexLength) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+              .putLong(indexOffset).putInt(indexLength).putLong(fileId);
+        header.clear();
+        return header;
+    }
+
+    // Tiles not written yet are stored as empty, which keeps the length the same
+    private byte[] writeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(bytes);
+        int tileCount = ((width + TiledPixelStore.TILE_SIZE - 1) / TiledPixelStore.TILE_SIZE)
+            * ((height + TiledPixelStore.TILE_SIZE - 1) / TiledPixelStore.TILE_SIZE);
+        index.writeInt(entries.size());
+        for (Entry entry : entries) {
+            index.writeUTF(entry.name);
+            index.writeDouble(entry.opacity);
+            index.writeBoolean(entry.visible);
+            index.writeUTF((entry.blendMode == null ? BlendMode.SRC_OVER : entry.blendMode).name());
+            index.writeBoolean(entry.locked);
+            for (int t = 0; t < tileCount; t++) {
+                index.writeLong(entry.table == null ? -1 : entry.table.offsets[t]);
+                index.writeInt(entry.table == null ? 0 : entry.table.values[t]);
+            }
+        }
+        index.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int length, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of project file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static TiledPixelStore tiled(PixelStore pixels) {
+        int width = pixels.getWidth();
+        int height = pixels.getHeight();
+        TiledPixelStore copy = new TiledPixelStore(width, height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            pixels.readPixels(0, y, width, 1, row, 0, width);
+            copy.writePixels(0, y, width, 1, row, 0, width);
+        }
+        return copy;
+    }
+
+    private static final class Entry {
+        final String name;
+        final double opacity;
+        final boolean visible;
+        final BlendMode blendMode;
+        final boolean locked;
+        TiledPixelStore source; // the layer's own store, null if it is not tiled
+        TiledPixelStore pixels; // what gets written, a snapshot of source
+        BitSet changed; // tiles of source changed since the previous save
+        TileTable base; // where the previous save put this layer's tiles
+        TileTable table; // where this project's tiles are in its file
+
+        Entry(String name, double opacity, boolean visible, BlendMode blendMode, boolean locked) {
+            this.name = name;
+            this.opacity = opacity;
+            this.visible = visible;
+            this.blendMode = blendMode;
+            this.locked = locked;
+        }
+    }
+
+    // Per tile: file offset and blob length, or -1 and the uniform color
+    private static final class TileTable {
+        final long[] offsets;
+        final int[] values;
+
+        TileTable(int tileCount) {
+            this.offsets = new long[tileCount];
+            this.values = new int[tileCount];
+        }
+
+        TileTable copy() {
+            TileTable copy = new TileTable(offsets.length);
+            System.arraycopy(offsets, 0, copy.offsets, 0, offsets.length);
+            System.arraycopy(values, 0, copy.values, 0, values.length);
+            return copy;
+        }
+    }
+
+    /**
+     * Renames a file over another, e.g. atomically where the file system can.
+     */
+    public interface FileMove {
+        void move(Path source, Path target) throws IOException;
+    }
+
+    // The file read() opened; its layers, evicted tiles included, load through it for as long as they live
+    private static final class OpenFile {
+        final List<FileTiles> layers = new ArrayList<>();
+        private Path path;
+        private FileChannel channel; // null once closed
+
+        OpenFile(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        synchronized byte[] read(long offset, int length) throws IOException {
+            if (channel == null) {
+                throw new IOException("Project file is closed: " + path);
+            }
+            return readFully(channel, length, offset).array();
+        }
+
+        // Tiles of the store a save found modified; the file no longer tells what they were before
+        synchronized void markChanged(TiledPixelStore store, BitSet tiles) {
+            for (FileTiles layer : layers) {
+                if (layer.store == store) {
+                    layer.changed.or(tiles);
+                }
+            }
+        }
+
+        synchronized boolean isAt(Path target) {
+            try {
+                return channel != null && Files.isSameFile(path, target);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Moves the written project over this file. Tiles still as they were
+         * read are in the new file too, so layers it has load those from there;
+         * the rest, and every tile of layers it does not have, are read first.
+         */
+        synchronized void replace(ProjectFile written, Path target, FileMove move) throws IOException {
+            TileTable[] tables = new TileTable[layers.size()];
+            for (int i = 0; i < layers.size(); i++) {
+                FileTiles layer = layers.get(i);
+                tables[i] = written.tableFor(layer.store);
+                for (int t = 0; t < layer.table.offsets.length; t++) {
+                    if (layer.table.offsets[t] >= 0 && layer.kept[t] == null
+                            && (tables[i] == null || layer.changed.get(t))) {
+                        layer.kept[t] = read(layer.table.offsets[t], layer.table.values[t]);
+                    }
+                }
+            }
+            channel.close();
+            channel = null;
+            try {
+                move.move(written.path, target);
+            } catch (IOException | RuntimeException e) {
+                // The old file is still in place
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                throw e;
+            }
+            path = target;
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            for (int i = 0; i < layers.size(); i++) {
+                FileTiles layer = layers.get(i);
+                if (tables[i] == null) {
+                    continue;
+                }
+                for (int t = 0; t < layer.table.offsets.length; t++) {
+                    if (!layer.changed.get(t)) {
+                        layer.table.offsets[t] = tables[i].offsets[t];
+                        layer.table.values[t] = tables[i].values[t];
+                        layer.kept[t] = null;
+                    }
+                }
+            }
+        }
+
+        synchronized void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    // Decodes a layer's tiles from the open file, or from memory once the file no longer has them
+    private static final class FileTiles implements TiledPixelStore.TileLoader {
+        final OpenFile file;
+        final int tilesX;
+        final TileTable table; // a copy, where the tiles were when read; guarded by file
+        final byte[][] kept; // guarded by file
+        final BitSet changed = new BitSet(); // guarded by file
+        TiledPixelStore store;
+
+        FileTiles(OpenFile file, int tilesX, TileTable table) {
+            this.file = file;
+            this.tilesX = tilesX;
+            this.table = table.copy();
+            this.kept = new byte[table.offsets.length][];
+        }
+
+        @Override
+        public TileData load(int tileX, int tileY) {
+            int index = tileY * tilesX + tileX;
+            byte[] bytes;
+            synchronized (file) {
+                if (kept[index] != null) {
+                    bytes = kept[index];
+                } else if (table.offsets[index] < 0) {
+                    return TileData.uniform(table.values[index]);
+                } else {
+                    try {
+                        bytes = file.read(table.offsets[index], table.values[index]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+            return TileData.fromBytes(bytes);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.snipshot.util;
+
+import com.snipshot.raster.TiledPixelStore;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+public class PixelUtil {
+
+    // Straight (non-premultiplied) ARGB for a JavaFX color
+    public static int toArgb(Color color) {
+        int a = (int) Math.round(color.getOpacity() * 255);
+        int r = (int) Math.round(color.getRed() * 255);
+        int g = (int) Math.round(color.getGreen() * 255);
+        int b = (int) Math.round(color.getBlue() * 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // Premultiplied ARGB pixels of a JavaFX image
+    public static int[] readPixels(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int[] pixels = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height,
+            PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+        return pixels;
+    }
+
+    /**
+     * Image decoded into tiles a band of tile rows at a time, so it is never
+     * held as one array; tiles of a single color are collapsed afterwards.
+     */
+    public static TiledPixelStore readTiles(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        TiledPixelStore store = new TiledPixelStore(width, height);
+        int bandRows = Math.min(height, TiledPixelStore.TILE_SIZE);
+        int[] band = new int[width * bandRows];
+        for (int y = 0; y < height; y += bandRows) {
+            int rows = Math.min(bandRows, height - y);
+            image.getPixelReader().getPixels(0, y, width, rows, PixelFormat.getIntArgbPreInstance(), band, 0, width);
+            store.writePixels(0, y, width, rows, band, 0, width);
+        }
+        store.compact();
+        return store;
+    }
+
+    // JavaFX image of premultiplied ARGB pixels
+    public static WritableImage toImage(int[] pixels, int width, int height) {
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height,
+            PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+        return image;
+    }
+}
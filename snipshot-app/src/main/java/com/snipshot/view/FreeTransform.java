@@ -0,0 +1,238 @@
+package com.snipshot.view;
+
+import com.snipshot.raster.Resampler;
+import com.snipshot.raster.TiledPixelStore;
+import com.snipshot.util.PixelUtil;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import javafx.beans.InvalidationListener;
+import javafx.scene.Cursor;
+import javafx.scene.Group;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.Polygon;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.transform.Rotate;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
+
+/**
+ * Moves, scales and rotates a pasted image over the document before it is
+ * drawn. While dragging only a small proxy of the image is shown, scaled by
+ * the scene graph; the full image stays in its tiles until the transform is
+ * applied. Moves snap to whole pixels so an unscaled paste is never
+ * resampled. Corner handles scale (Shift keeps the aspect ratio), the handle
+ * above the top edge rotates (Shift snaps to 15 degrees).
+ */
+public class FreeTransform {
+    private static final int PROXY_SIZE = 512; // longest side of the preview, in pixels
+    private static final double HANDLE_SIZE = 8; // on screen, whatever the zoom
+    private static final double ROTATE_OFFSET = 24;
+    private static final double SNAP_ANGLE = 15;
+
+    private final Pane container;
+    private final TiledPixelStore source;
+    private final int width;
+    private final int height;
+    private final Group image = new Group();
+    private final Polygon outline = new Polygon();
+    private final Rectangle[] corners = new Rectangle[4];
+    private final Line stem = new Line();
+    private final Circle rotateHandle = new Circle();
+    private final Translate position = new Translate();
+    private final Rotate rotation = new Rotate();
+    private final Scale scaling = new Scale();
+    private final InvalidationListener zoomListener = obs -> layout();
+    private double centerX, centerY; // document coordinates of the image centre
+    private double scaleX = 1, scaleY = 1;
+    private double angle; // degrees, clockwise
+    private double dragX, dragY, dragCenterX, dragCenterY;
+    private boolean handlesVisible = true;
+    private Runnable onApply;
+
+    public FreeTransform(Pane container, TiledPixelStore source, double centerX, double centerY) {
+        this.container = container;
+        this.source = source;
+        this.width = source.getWidth();
+        this.height = source.getHeight();
+        this.centerX = centerX;
+        this.centerY = centerY;
+
+        ImageView view = new ImageView(createProxy());
+        view.setFitWidth(width);
+        view.setFitHeight(height);
+        view.setSmooth(true);
+        image.getChildren().add(view);
+        image.getTransforms().addAll(position, rotation, scaling, new Translate(-width / 2.0, -height / 2.0));
+        image.setCursor(Cursor.MOVE);
+        image.setOnMousePressed(this::startDrag);
+        image.setOnMouseDragged(e -> {
+            Point2D.Double p = toDocument(e);
+            this.centerX = Math.round(dragCenterX + p.x - dragX - width / 2.0) + width / 2.0;
+            this.centerY = Math.round(dragCenterY + p.y - dragY - height / 2.0) + height / 2.0;
+            layout();
+        });
+        image.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2 && onApply != null) {
+                onApply.run();
+            }
+        });
+
+        outline.setFill(Color.TRANSPARENT);
+        outline.setStroke(Color.BLUE);
+        outline.getStrokeDashArray().addAll(5d);
+        outline.setMouseTransparent(true);
+        stem.setStroke(Color.BLUE);
+        stem.setMouseTransparent(true);
+        rotateHandle.setFill(Color.WHITE);
+        rotateHandle.setStroke(Color.BLUE);
+        rotateHandle.setCursor(Cursor.HAND);
+        rotateHandle.setOnMouseDragged(this::rotate);
+        container.getChildren().addAll(image, outline, stem, rotateHandle);
+        for (int i = 0; i < corners.length; i++) {
+            Rectangle corner = new Rectangle();
+            corner.setFill(Color.WHITE);
+            corner.setStroke(Color.BLUE);
+            corner.setCursor(Cursor.CROSSHAIR);
+            corner.setOnMouseDragged(this::scale);
+            corners[i] = corner;
+            container.getChildren().add(corner);
+        }
+        container.localToSceneTransformProperty().addListener(zoomListener);
+        layout();
+    }
+
+    public void setOnApply(Runnable onApply) {
+        this.onApply = onApply;
+    }
+
+    public TiledPixelStore getSource() {
+        return source;
+    }
+
+    // From image pixels to document pixels
+    public AffineTransform getTransform() {
+        AffineTransform transform = AffineTransform.getTranslateInstance(centerX, centerY);
+        transform.rotate(Math.toRadians(angle));
+        transform.scale(scaleX, scaleY);
+        transform.translate(-width / 2.0, -height / 2.0);
+        return transform;
+    }
+
+    public boolean isHandlesVisible() {
+        return handlesVisible;
+    }
+
+    // Without handles the image can still be moved, but not scaled or rotated
+    public void setHandlesVisible(boolean visible) {
+        handlesVisible = visible;
+        stem.setVisible(visible);
+        rotateHandle.setVisible(visible);
+        for (Rectangle corner : corners) {
+            corner.setVisible(visible);
+        }
+    }
+
+    public void dispose() {
+        container.localToSceneTransformProperty().removeListener(zoomListener);
+        container.getChildren().removeAll(image, outline, stem, rotateHandle);
+        container.getChildren().removeAll(corners);
+    }
+
+    // A small copy to preview with, filtered once so the scene graph only has to stretch it
+    private Image createProxy() {
+        double factor = Math.min(1, PROXY_SIZE / (double) Math.max(width, height));
+        int proxyWidth = Math.max(1, (int) Math.round(width * factor));
+        int proxyHeight = Math.max(1, (int) Math.round(height * factor));
+        return PixelUtil.toImage(Resampler.shrink(source, proxyWidth, proxyHeight), proxyWidth, proxyHeight);
+    }
+
+    private void startDrag(MouseEvent e) {
+        Point2D.Double p = toDocument(e);
+        dragX = p.x;
+        dragY = p.y;
+        dragCenterX = centerX;
+        dragCenterY = centerY;
+        e.consume();
+    }
+
+    // Moves the dragged corner to the pointer, the opposite corner mirrors it around the centre
+    private void scale(MouseEvent e) {
+        Point2D.Double p = toDocument(e);
+        double radians = Math.toRadians(angle);
+        double dx = p.x - centerX;
+        double dy = p.y - centerY;
+        double localX = dx * Math.cos(radians) + dy * Math.sin(radians);
+        double localY = -dx * Math.sin(radians) + dy * Math.cos(radians);
+        double sx = Math.abs(localX) / (width / 2.0);
+        double sy = Math.abs(localY) / (height / 2.0);
+        if (e.isShiftDown()) {
+            sx = sy = Math.max(sx, sy);
+        }
+        scaleX = Math.max(1.0 / width, sx);
+        scaleY = Math.max(1.0 / height, sy);
+        layout();
+        e.consume();
+    }
+
+    private void rotate(MouseEvent e) {
+        Point2D.Double p = toDocument(e);
+        double degrees = Math.toDegrees(Math.atan2(p.y - centerY, p.x - centerX)) + 90;
+        if (e.isShiftDown()) {
+            degrees = Math.round(degrees / SNAP_ANGLE) * SNAP_ANGLE;
+        }
+        angle = degrees;
+        layout();
+        e.consume();
+    }
+
+    private Point2D.Double toDocument(MouseEvent e) {
+        javafx.geometry.Point2D p = container.sceneToLocal(e.getSceneX(), e.getSceneY());
+        return new Point2D.Double(p.getX(), p.getY());
+    }
+
+    private void layout() {
+        position.setX(centerX);
+        position.setY(centerY);
+        rotation.setAngle(angle);
+        scaling.setX(scaleX);
+        scaling.setY(scaleY);
+
+        AffineTransform transform = getTransform();
+        double[] points = { 0, 0, width, 0, width, height, 0, height, width / 2.0, 0 };
+        transform.transform(points, 0, points, 0, points.length / 2);
+        outline.getPoints().setAll(points[0], points[1], points[2], points[3],
+                                   points[4], points[5], points[6], points[7]);
+
+        // Handles keep their size on screen
+        double zoom = container.getLocalToSceneTransform().getMxx();
+        if (zoom <= 0) {
+            zoom = 1;
+        }
+        double size = HANDLE_SIZE / zoom;
+        for (int i = 0; i < corners.length; i++) {
+            corners[i].setX(points[i * 2] - size / 2);
+            corners[i].setY(points[i * 2 + 1] - size / 2);
+            corners[i].setWidth(size);
+            corners[i].setHeight(size);
+            corners[i].setStrokeWidth(1 / zoom);
+        }
+        double radians = Math.toRadians(angle);
+        double offset = ROTATE_OFFSET / zoom;
+        stem.setStartX(points[8]);
+        stem.setStartY(points[9]);
+        stem.setEndX(points[8] + Math.sin(radians) * offset);
+        stem.setEndY(points[9] - Math.cos(radians) * offset);
+        stem.setStrokeWidth(1 / zoom);
+        rotateHandle.setCenterX(stem.getEndX());
+        rotateHandle.setCenterY(stem.getEndY());
+        rotateHandle.setRadius(size / 2);
+        rotateHandle.setStrokeWidth(1 / zoom);
+        outline.setStrokeWidth(1 / zoom);
+    }
+}
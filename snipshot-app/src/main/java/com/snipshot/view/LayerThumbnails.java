@@ -0,0 +1,168 @@
+package com.snipshot.view;
+
+import com.snipshot.controller.JobScheduler;
+import com.snipshot.model.Layer;
+import com.snipshot.raster.PixelStore;
+import com.snipshot.raster.Rect;
+import com.snipshot.raster.TiledPixelStore;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.util.Duration;
+
+/**
+ * Small previews of the layers for the layers list. Changes to a layer are
+ * gathered for a moment, then only the thumbnail pixels under them are
+ * resampled in an idle job from a snapshot of the layer, so painting never
+ * waits for them and the old thumbnail stays up meanwhile. An update that
+ * has not started yet is merged into the next one rather than run.
+ * Tiles a streamed layer has not loaded yet are left out rather than
+ * decoded for the thumbnail's sake.
+ */
+public class LayerThumbnails {
+    public static final int SIZE = 40;
+    private static final Duration THROTTLE = Duration.millis(250); // at most one update per layer this often
+    private static final int SAMPLES = 4; // per axis and thumbnail pixel
+
+    private final Map<Layer, Thumbnail> thumbnails = new HashMap<>();
+
+    private static class Thumbnail {
+        final Layer layer;
+        final double scale; // layer pixels per thumbnail pixel
+        final WritableImage image;
+        final PauseTransition pause = new PauseTransition(THROTTLE);
+        final Consumer<Rect> listener = this::changed;
+        Rect dirty; // layer pixels changed since the last update was queued
+        Task<int[]> job; // the last update queued
+        Rect jobTarget;
+        boolean disposed;
+
+        Thumbnail(Layer layer) {
+            this.layer = layer;
+            PixelStore pixels = layer.getPixels();
+            scale = Math.max(pixels.getWidth(), pixels.getHeight()) / (double) SIZE;
+            image = new WritableImage(Math.max(1, (int) Math.round(pixels.getWidth() / scale)),
+                                      Math.max(1, (int) Math.round(pixels.getHeight() / scale)));
+            pause.setOnFinished(e -> update());
+            pixels.addChangeListener(listener);
+            changed(pixels.getBounds());
+        }
+
+        void changed(Rect region) {
+            if (!Platform.isFxApplicationThread()) {
+                Platform.runLater(() -> changed(region));
+                return;
+            }
+            dirty = Rect.union(dirty, region);
+            if (!disposed && pause.getStatus() != PauseTransition.Status.RUNNING) {
+                pause.playFromStart();
+            }
+        }
+
+        private void update() {
+            if (disposed || dirty == null) {
+                return;
+            }
+            Rect target = Rect.covering(dirty.x / scale, dirty.y / scale, dirty.getMaxX() / scale, dirty.getMaxY() / scale)
+                .intersect(new Rect(0, 0, (int) image.getWidth(), (int) image.getHeight()));
+            dirty = null;
+            if (target.isEmpty()) {
+                return;
+            }
+            // The update queued before is cancelled by this one, so this one redoes its pixels as well
+            if (job != null && !job.isDone()) {
+                target = Rect.union(target, jobTarget);
+            }
+            Rect region = target;
+            PixelStore snapshot = layer.getPixels().snapshot();
+            AtomicBoolean claimed = new AtomicBoolean(); // whoever claims the snapshot releases it
+            Task<int[]> task = new Task<>() {
+                @Override
+                protected int[] call() {
+                    if (!claimed.compareAndSet(false, true)) {
+                        return null;
+                    }
+                    try {
+                        return sample(snapshot, region, scale);
+                    } finally {
+                        snapshot.release();
+                    }
+                }
+            };
+            task.setOnSucceeded(e -> {
+                if (!disposed && task.getValue() != null) {
+                    image.getPixelWriter().setPixels(region.x, region.y, region.width, region.height,
+                        PixelFormat.getIntArgbPreInstance(), task.getValue(), 0, region.width);
+                }
+            });
+            task.setOnCancelled(e -> {
+                if (claimed.compareAndSet(false, true)) {
+                    snapshot.release();
+                }
+            });
+            job = task;
+            jobTarget = region;
+            JobScheduler.getDefault().submitLatest(JobScheduler.Priority.IDLE, this, task);
+        }
+
+        void dispose() {
+            disposed = true;
+            pause.stop();
+            layer.getPixels().removeChangeListener(listener);
+        }
+    }
+
+    public Image get(Layer layer) {
+        return thumbnails.computeIfAbsent(layer, Thumbnail::new).image;
+    }
+
+    // Stops updating thumbnails of layers that are gone
+    public void retainAll(Collection<Layer> layers) {
+        for (Layer layer : new HashSet<>(thumbnails.keySet())) {
+            if (!layers.contains(layer)) {
+                thumbnails.remove(layer).dispose();
+            }
+        }
+    }
+
+    // Averages a grid of samples under each thumbnail pixel, premultiplied
+    private static int[] sample(PixelStore pixels, Rect target, double scale) {
+        TiledPixelStore tiled = pixels instanceof TiledPixelStore ? (TiledPixelStore) pixels : null;
+        int[] result = new int[target.width * target.height];
+        for (int y = 0; y < target.height; y++) {
+            for (int x = 0; x < target.width; x++) {
+                int a = 0, r = 0, g = 0, b = 0, count = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    int py = Math.min(pixels.getHeight() - 1, (int) ((target.y + y + (sy + 0.5) / SAMPLES) * scale));
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        int px = Math.min(pixels.getWidth() - 1, (int) ((target.x + x + (sx + 0.5) / SAMPLES) * scale));
+                        if (tiled != null && !tiled.isTileLoaded(px / TiledPixelStore.TILE_SIZE, py / TiledPixelStore.TILE_SIZE)) {
+                            continue;
+                        }
+                        int argb = pixels.getPixel(px, py);
+                        a += argb >>> 24;
+                        r += (argb >> 16) & 0xFF;
+                        g += (argb >> 8) & 0xFF;
+                        b += argb & 0xFF;
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    int half = count / 2;
+                    result[y * target.width + x] = ((a + half) / count) << 24 | ((r + half) / count) << 16
+                        | ((g + half) / count) << 8 | (b + half) / count;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,1770 @@
+package com.snipshot.view;
+
+import javafx.application.Platform;
+import javafx.geometry.Orientation;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.control.*;
+import javafx.scene.layout.*;
+import javafx.stage.Stage;
+import javafx.scene.paint.Color;
+import javafx.scene.image.Image;
+import java.util.Optional;
+import javafx.stage.FileChooser;
+import javafx.stage.FileChooser.ExtensionFilter;
+import java.io.File;
+import java.io.IOException;
+import com.snipshot.model.Layer;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Slider;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.InvalidationListener;
+import javafx.collections.ListChangeListener;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.geometry.Bounds;
+import javafx.geometry.Point2D;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.Cursor;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.layout.HBox;
+import javafx.scene.effect.BlendMode;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
+import javafx.scene.image.ImageView;
+import com.snipshot.util.ToolButton;
+import javafx.scene.shape.Polygon;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.Shape;
+import javafx.scene.layout.AnchorPane;
+import com.snipshot.model.MainModel;
+import javafx.scene.input.Dragboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.TransferMode;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.TextArea;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import com.snipshot.util.AlertUtil;
+import com.snipshot.util.PixelUtil;
+import com.snipshot.events.LayerEvent;
+import com.snipshot.events.OpenEvent;
+import com.snipshot.events.SaveEvent;
+import com.snipshot.model.Command;
+import com.snipshot.model.History;
+import com.snipshot.model.ProjectFile;
+import com.snipshot.paint.BrushShape;
+import com.snipshot.paint.StrokeTool;
+import com.snipshot.raster.Compositor;
+import com.snipshot.raster.ImageTileLoader;
+import com.snipshot.raster.PngEncoder;
+import com.snipshot.raster.Rect;
+import com.snipshot.raster.Resampler;
+import com.snipshot.raster.SelectionMask;
+import com.snipshot.raster.TiledPixelStore;
+import com.snipshot.controller.CompactTask;
+import com.snipshot.controller.JobScheduler;
+import com.snipshot.controller.SaveTask;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+
+public class MainView {
+    private static final long STREAMED_IMAGE_PIXELS = 4096L * 4096; // larger images are decoded as they are viewed
+    private static final int PREVIEW_SIZE = 2048;
+    private static final double ZOOM_STEP = 1.25;
+    private static final String SAVE_LANE = "save"; // saves and compactions write one file at a time
+    private Stage stage;
+    private BorderPane mainLayout;
+    private Canvas canvas;
+    private ToolBar topToolBar;
+    private ToolBar leftToolBar;
+    private VBox rightPanel;
+    private ListView<Layer> layersList;
+    private VBox propertiesContent;
+    private AnchorPane canvasContainer;
+    private ScrollPane scrollPane;
+    private ViewportRenderer renderer;
+    private final MetricsHud metricsHud = new MetricsHud();
+    private final LayerThumbnails thumbnails = new LayerThumbnails();
+    private Layer selectedLayer;
+    private boolean isDrawing = false;
+    private double lastX, lastY;
+    private Button pencilTool;
+    private Button brushTool;
+    private Button rectangleTool;
+    private boolean isRectangleMode = false;
+    private Rectangle previewRect;
+    private boolean isBrushMode = false;
+    private double brushRadius = 5.0;
+    private MainModel model;
+    private Button currentTool;
+    private Button textTool;
+    private boolean isTextMode = false;
+    private Rectangle textPreviewRect;
+    private boolean isRectangleFilled = true;
+    private FreeTransform pasteTransform; // pasted image waiting to be placed
+    private Layer pasteLayer;
+    private Resampler.Filter pasteFilter = Resampler.Filter.LANCZOS;
+    private VBox pasteOptions;
+    private Button eraserTool;
+    private boolean isEraserMode = false;
+    private Button selectTool;
+    private boolean isSelectMode = false;
+    private boolean isLassoSelect = false;
+    private SelectionMask selection;
+    private Shape selectionOutline; // Rectangle or Polygon, in document coordinates
+    private Compositor compositor;
+    private final JobScheduler jobs = JobScheduler.getDefault();
+    private SaveTask saveTask;
+    private ProjectFile currentProject; // last opened or saved, for incremental saves
+    private ImageTileLoader streamedImage; // decodes the tiles of a streamed image
+    private HBox saveStatus;
+    private ProgressBar saveProgress;
+    private Label saveMessage;
+    private PngOptionsDialog.PngOptions pngOptions = new PngOptionsDialog.PngOptions(6, PngEncoder.Filter.NONE);
+    
+    public MainView() {
+        model = new MainModel();
+        stage = new Stage();
+        setupLayout();
+        setupMenuBar();
+        setupToolbars();
+        setupCanvas();
+        setupRightPanel();
+        
+        Scene scene = new Scene(mainLayout, 1200, 800);
+        scene.getStylesheets().add(getClass().getResource("/styles/dark-theme.css").toExternalForm());
+        
+        // Add the application icon
+        Image icon = new Image(getClass().getResourceAsStream("/images/logo.png"));
+        stage.getIcons().add(icon);
+        
+        // Add window close request handler
+        stage.setOnCloseRequest(event -> {
+            if (!model.isSaved()) {
+                Optional<ButtonType> result = AlertUtil.showSaveConfirmationAlert();
+                if (result.isPresent()) {
+                    if (result.get() == ButtonType.OK) {
+                        event.consume(); // Close once the save has finished
+                        saveImage(stage::close);
+                    } else if (result.get() == ButtonType.CANCEL) {
+                        event.consume(); // Prevent closing if user cancels
+                    }
+                } else {
+                    event.consume(); // Prevent closing if dialog was closed without selection
+                }
+            }
+        });
+        
+        // Add keyboard shortcuts for undo, redo and transform mode
+        scene.setOnKeyPressed(event -> {
+            if (event.isControlDown() && event.getCode() == KeyCode.Z) {
+                undo();
+            } else if (event.isControlDown() && event.getCode() == KeyCode.Y) {
+                redo();
+            } else if (event.isControlDown() && event.getCode() == KeyCode.T) {
+                if (pasteTransform != null) {
+                    pasteTransform.setHandlesVisible(!pasteTransform.isHandlesVisible());
+                }
+            } else if (pasteTransform != null && event.getCode() == KeyCode.ENTER) {
+                applyPaste();
+            } else if (pasteTransform != null && event.getCode() == KeyCode.ESCAPE) {
+                cancelPaste();
+            }
+        });
+        
+        stage.setScene(scene);
+        stage.setTitle("Snipshot");
+    }
+
+    private void setupLayout() {
+        mainLayout = new BorderPane();
+        mainLayout.setStyle("-fx-background-color: #2b2b2b;");
+    }
+
+    private void setupMenuBar() {
+        MenuBar menuBar = new MenuBar();
+        
+        // File Menu
+        Menu fileMenu = new Menu("File");
+        MenuItem newItem = new MenuItem("New");
+        MenuItem openItem = new MenuItem("Open");
+        MenuItem saveItem = new MenuItem("Save");
+        MenuItem exitItem = new MenuItem("Exit");
+        
+        fileMenu.getItems().addAll(
+            newItem, openItem, saveItem,
+            new SeparatorMenuItem(),
+            exitItem
+        );
+
+        // Edit Menu
+        Menu editMenu = new Menu("Edit");
+        editMenu.getItems().addAll(
+            new MenuItem("Undo"),
+            new MenuItem("Redo"),
+            new SeparatorMenuItem(),
+            new MenuItem("Cut"),
+            new MenuItem("Copy"),
+            new MenuItem("Paste")
+        );
+
+        menuBar.getMenus().addAll(fileMenu, editMenu);
+        mainLayout.setTop(menuBar);
+
+        exitItem.setOnAction(e -> {
+            if (!model.isSaved()) {
+                Optional<ButtonType> result = AlertUtil.showSaveConfirmationAlert();
+                if (result.isPresent()) {
+                    if (result.get() == ButtonType.OK) {
+                        saveImage(stage::close);
+                    } else if (result.get() == ButtonType.CANCEL) {
+                        stage.close();
+                    }
+                }
+            } else {
+                stage.close();
+            }
+        });
+    }
+
+    private void setupToolbars() {
+        topToolBar = new ToolBar();
+        Button newBtn = new Button("New");
+        Button openBtn = new Button("Open");
+        Button saveBtn = new Button("Save");
+        
+        // Create Edit menu button with dropdown
+        MenuButton editBtn = new MenuButton("Edit");
+        MenuItem undoBtn = new MenuItem("Undo");
+        MenuItem redoBtn = new MenuItem("Redo");
+        MenuItem cutBtn = new MenuItem("Cut");
+        MenuItem copyBtn = new MenuItem("Copy");
+        MenuItem pasteBtn = new MenuItem("Paste");
+        
+        // Add action handlers
+        undoBtn.setOnAction(e -> undo());
+        redoBtn.setOnAction(e -> redo());
+        undoBtn.disableProperty().bind(model.getHistory().canUndoProperty().not());
+        redoBtn.disableProperty().bind(model.getHistory().canRedoProperty().not());
+        
+        cutBtn.setOnAction(e -> cutSelection());
+        copyBtn.setOnAction(e -> copySelection());
+        cutBtn.setAccelerator(new KeyCodeCombination(KeyCode.X, KeyCombination.SHORTCUT_DOWN));
+        copyBtn.setAccelerator(new KeyCodeCombination(KeyCode.C, KeyCombination.SHORTCUT_DOWN));
+        
+        pasteBtn.setOnAction(e -> {
+            if (selectedLayer != null && !selectedLayer.isLocked()) {
+                Clipboard clipboard = Clipboard.getSystemClipboard();
+                
+                // Check for image content
+                if (clipboard.hasImage()) {
+                    startPaste(selectedLayer, PixelUtil.readTiles(clipboard.getImage()));
+                }
+                // Check for text content
+                else if (clipboard.hasString()) {
+                    String text = clipboard.getString();
+                    Layer layer = selectedLayer;
+                    Pane canvas = layer.getCanvas();
+                    
+                    // Create a text box at the center of the canvas
+                    double x = canvas.getWidth() / 2;
+                    double y = canvas.getHeight() / 2;
+                    
+                    // Create preview rectangle for text box
+                    textPreviewRect = new Rectangle(
+                        x + canvas.getLayoutX(),
+                        y + canvas.getLayoutY(),
+                        200, 100  // Default size for text box
+                    );
+                    textPreviewRect.setFill(Color.TRANSPARENT);
+                    textPreviewRect.setStroke(Color.BLUE);
+                    textPreviewRect.getStrokeDashArray().addAll(5d);
+                    canvasContainer.getChildren().add(textPreviewRect);
+                    
+                    // Show text input dialog with pre-filled text
+                    showTextInputDialog(layer, x, y, 200, 100, text);
+                    canvasContainer.getChildren().remove(textPreviewRect);
+                    textPreviewRect = null;
+                }
+            }
+        });
+        
+        editBtn.getItems().addAll(undoBtn, redoBtn, new SeparatorMenuItem(), cutBtn, copyBtn, pasteBtn);
+        
+        // View menu button, zooming about the middle of the viewport
+        MenuButton viewBtn = new MenuButton("View");
+        MenuItem zoomInBtn = new MenuItem("Zoom In");
+        MenuItem zoomOutBtn = new MenuItem("Zoom Out");
+        MenuItem fitBtn = new MenuItem("Fit to Screen");
+        zoomInBtn.setAccelerator(new KeyCodeCombination(KeyCode.EQUALS, KeyCombination.SHORTCUT_DOWN));
+        zoomOutBtn.setAccelerator(new KeyCodeCombination(KeyCode.MINUS, KeyCombination.SHORTCUT_DOWN));
+        fitBtn.setAccelerator(new KeyCodeCombination(KeyCode.DIGIT0, KeyCombination.SHORTCUT_DOWN));
+        zoomInBtn.setOnAction(e -> zoomAt(ZOOM_STEP, scrollPane.getViewportBounds().getWidth() / 2,
+                                          scrollPane.getViewportBounds().getHeight() / 2));
+        zoomOutBtn.setOnAction(e -> zoomAt(1 / ZOOM_STEP, scrollPane.getViewportBounds().getWidth() / 2,
+                                           scrollPane.getViewportBounds().getHeight() / 2));
+        fitBtn.setOnAction(e -> zoomToFit());
+        CheckMenuItem hudBtn = new CheckMenuItem("Performance HUD");
+        hudBtn.setAccelerator(new KeyCodeCombination(KeyCode.F3));
+        metricsHud.visibleProperty().bind(hudBtn.selectedProperty());
+        viewBtn.getItems().addAll(zoomInBtn, zoomOutBtn, fitBtn, new SeparatorMenuItem(), hudBtn);
+        
+        ColorPicker colorPicker = new ColorPicker(Color.BLACK);
+        
+        newBtn.setOnAction(e -> createNewImage());
+        openBtn.setOnAction(e -> openImage());
+        saveBtn.setOnAction(e -> saveImage(null));
+        
+        // Progress of a running save, hidden otherwise
+        saveProgress = new ProgressBar(0);
+        saveProgress.setPrefWidth(120);
+        saveMessage = new Label();
+        Button cancelSaveBtn = new Button("Cancel");
+        cancelSaveBtn.setOnAction(e -> {
+            if (saveTask != null) {
+                saveTask.cancel();
+            }
+        });
+        saveStatus = new HBox(5, saveMessage, saveProgress, cancelSaveBtn);
+        saveStatus.setAlignment(Pos.CENTER_LEFT);
+        saveStatus.setVisible(false);
+        saveStatus.managedProperty().bind(saveStatus.visibleProperty());
+        
+        topToolBar.getItems().addAll(
+            newBtn, openBtn, saveBtn,
+            editBtn, viewBtn,
+            new Separator(),
+            colorPicker,
+            saveStatus
+        );
+        
+        VBox topContainer = new VBox(topToolBar);
+        mainLayout.setTop(topContainer);
+
+        // Left Toolbar
+        leftToolBar = new ToolBar();
+        leftToolBar.setOrientation(Orientation.VERTICAL);
+
+        pencilTool = ToolButton.createWithImage("/images/pencil.png", 16);
+        brushTool = ToolButton.createWithImage("/images/brush.png", 16);
+        eraserTool = ToolButton.createWithImage("/images/eraser.png", 16);
+        selectTool = ToolButton.createWithImage("/images/select.png", 16);
+        textTool = ToolButton.createWithImage("/images/text.png", 16);
+        rectangleTool = ToolButton.createWithImage("/images/rectangle.png", 16);
+        
+        selectTool.setOnAction(e -> enableSelectMode());
+        pencilTool.setOnAction(e -> enableDrawingMode());
+        rectangleTool.setOnAction(e -> enableRectangleMode());
+        brushTool.setOnAction(e -> enableBrushMode());
+        textTool.setOnAction(e -> enableTextMode());
+        eraserTool.setOnAction(e -> enableEraserMode());
+        
+        leftToolBar.getItems().addAll(
+            selectTool, pencilTool, brushTool, eraserTool, textTool, rectangleTool
+        );
+        
+        mainLayout.setLeft(leftToolBar);
+
+        // Update color picker listener
+        colorPicker.setOnAction(e -> model.setCurrentColor(colorPicker.getValue()));
+    }
+
+    private void setupCanvas() {
+        canvasContainer = new AnchorPane();
+        canvasContainer.setStyle("-fx-background: #3c3f41;");
+        
+        // The layers are drawn flattened, the container above only takes the tools' input
+        renderer = new ViewportRenderer(canvasContainer);
+        // Drag samples are queued by the tools and drawn once per frame
+        renderer.setOnPulse(() -> {
+            if (model.flushStroke()) {
+                model.setSaved(false);
+            }
+        });
+        scrollPane = new ScrollPane(renderer);
+        scrollPane.setPannable(true);
+        scrollPane.setStyle("-fx-background: #3c3f41;");
+        
+        InvalidationListener updateViewport = obs -> updateViewport();
+        scrollPane.hvalueProperty().addListener(updateViewport);
+        scrollPane.vvalueProperty().addListener(updateViewport);
+        scrollPane.viewportBoundsProperty().addListener(updateViewport);
+        renderer.layoutBoundsProperty().addListener(updateViewport);
+        
+        // Ctrl+wheel zooms around the mouse
+        scrollPane.addEventFilter(ScrollEvent.SCROLL, e -> {
+            if (e.isShortcutDown() && e.getDeltaY() != 0) {
+                Bounds view = scrollPane.getViewportBounds();
+                Point2D point = scrollPane.sceneToLocal(e.getSceneX(), e.getSceneY());
+                zoomAt(e.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP,
+                       Math.min(point.getX(), view.getWidth()), Math.min(point.getY(), view.getHeight()));
+                e.consume();
+            }
+        });
+        
+        // The HUD floats over the viewport's corner, outside the zoomed content
+        StackPane.setAlignment(metricsHud, Pos.TOP_LEFT);
+        StackPane.setMargin(metricsHud, new Insets(8));
+        mainLayout.setCenter(new StackPane(scrollPane, metricsHud));
+    }
+
+    private void updateViewport() {
+        Bounds view = scrollPane.getViewportBounds();
+        Bounds content = renderer.getLayoutBounds();
+        double x = Math.max(0, content.getWidth() - view.getWidth()) * scrollPane.getHvalue();
+        double y = Math.max(0, content.getHeight() - view.getHeight()) * scrollPane.getVvalue();
+        renderer.setViewport(Rect.covering(x, y, x + view.getWidth(), y + view.getHeight()));
+    }
+
+    // Changes the zoom keeping the document point under (viewX, viewY) of the viewport in place
+    private void zoomAt(double factor, double viewX, double viewY) {
+        Bounds view = scrollPane.getViewportBounds();
+        Bounds content = renderer.getLayoutBounds();
+        double oldZoom = renderer.getZoom();
+        double docX = (Math.max(0, content.getWidth() - view.getWidth()) * scrollPane.getHvalue() + viewX) / oldZoom;
+        double docY = (Math.max(0, content.getHeight() - view.getHeight()) * scrollPane.getVvalue() + viewY) / oldZoom;
+        renderer.setZoom(oldZoom * factor);
+        scrollPane.layout();
+        content = renderer.getLayoutBounds();
+        double zoom = renderer.getZoom();
+        double rangeX = content.getWidth() - view.getWidth();
+        double rangeY = content.getHeight() - view.getHeight();
+        scrollPane.setHvalue(rangeX > 0 ? Math.max(0, Math.min(1, (docX * zoom - viewX) / rangeX)) : 0);
+        scrollPane.setVvalue(rangeY > 0 ? Math.max(0, Math.min(1, (docY * zoom - viewY) / rangeY)) : 0);
+    }
+
+    private void zoomToFit() {
+        Bounds view = scrollPane.getViewportBounds();
+        if (renderer.getDocumentWidth() == 0 || renderer.getDocumentHeight() == 0) {
+            return;
+        }
+        renderer.setZoom(Math.min(1, Math.min(view.getWidth() / renderer.getDocumentWidth(),
+                                              view.getHeight() / renderer.getDocumentHeight())));
+    }
+
+    private void setupRightPanel() {
+        rightPanel = new VBox(10);
+        rightPanel.setStyle("-fx-background-color: #3c3f41; -fx-padding: 10;");
+        rightPanel.setPrefWidth(250);
+
+        // Layers Panel
+        TitledPane layersPane = new TitledPane();
+        layersPane.setText("Layers");
+        VBox layersContent = new VBox(5);
+        layersList = new ListView<>();
+        setupLayersContextMenu();
+        
+        // The renderer flattens whatever the list holds
+        layersList.getItems().addListener((ListChangeListener<Layer>) change -> {
+            if (compositor != null) {
+                layerCompositor();
+            }
+            thumbnails.retainAll(layersList.getItems());
+        });
+        
+        // Add layer selection listener
+        layersList.getSelectionModel().selectedItemProperty().addListener(
+            (observable, oldValue, newValue) -> {
+                selectedLayer = newValue;
+                updatePropertiesPanel();
+                updateLayerSelection(oldValue, newValue);
+            }
+        );
+        
+        layersContent.getChildren().add(layersList);
+        layersPane.setContent(layersContent);
+
+        // Properties Panel
+        TitledPane propertiesPane = new TitledPane();
+        propertiesPane.setText("Properties");
+        propertiesContent = new VBox(5);
+        propertiesPane.setContent(propertiesContent);
+
+        rightPanel.getChildren().addAll(layersPane, propertiesPane);
+        mainLayout.setRight(rightPanel);
+    }
+
+    private void setupLayersContextMenu() {
+        ContextMenu contextMenu = new ContextMenu();
+        MenuItem newLayerItem = new MenuItem("New Layer");
+        MenuItem duplicateLayer = new MenuItem("Duplicate Layer");
+        MenuItem deleteLayer = new MenuItem("Delete Layer");
+        MenuItem mergeDown = new MenuItem("Merge Down");
+        
+        newLayerItem.setOnAction(e -> layerOperation("create", this::createNewLayer));
+        duplicateLayer.setOnAction(e -> layerOperation("duplicate", this::duplicateSelectedLayer));
+        deleteLayer.setOnAction(e -> layerOperation("delete", this::deleteSelectedLayer));
+        mergeDown.setOnAction(e -> layerOperation("merge", this::mergeLayerDown));
+        
+        contextMenu.getItems().addAll(
+            newLayerItem,
+            duplicateLayer,
+            deleteLayer,
+            new SeparatorMenuItem(),
+            mergeDown
+        );
+        
+        layersList.setContextMenu(contextMenu);
+    }
+
+    // Runs a layer operation picked from the menu as one flight recorder event
+    private void layerOperation(String operation, Runnable action) {
+        LayerEvent event = new LayerEvent();
+        event.begin();
+        action.run();
+        event.operation = operation;
+        event.layerCount = layersList.getItems().size();
+        event.commit();
+    }
+
+    private void setupLayerDragAndDrop() {
+        layersList.setCellFactory(lv -> new ListCell<Layer>() {
+            private final ImageView thumbnail = new ImageView();
+            private final StackPane thumbnailBox = new StackPane(thumbnail);
+
+            {
+                thumbnailBox.setMinSize(LayerThumbnails.SIZE, LayerThumbnails.SIZE);
+                thumbnailBox.setMaxSize(LayerThumbnails.SIZE, LayerThumbnails.SIZE);
+                thumbnailBox.setStyle("-fx-background-color: #2b2b2b;");
+            }
+
+            @Override
+            protected void updateItem(Layer item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty) {
+                    setText(null);
+                    setGraphic(null);
+                    thumbnail.setImage(null);
+                } else {
+                    setText(item.getName());
+                    thumbnail.setImage(thumbnails.get(item));
+                    setGraphic(thumbnailBox);
+                }
+            }
+        });
+
+        layersList.setOnDragDetected(event -> {
+            if (selectedLayer != null) {
+                Dragboard db = layersList.startDragAndDrop(TransferMode.MOVE);
+                ClipboardContent content = new ClipboardContent();
+                content.putString(selectedLayer.getName());
+                db.setContent(content);
+                event.consume();
+            }
+        });
+
+        layersList.setOnDragOver(event -> {
+            if (event.getDragboard().hasString()) {
+                event.acceptTransferModes(TransferMode.MOVE);
+            }
+            event.consume();
+        });
+
+        layersList.setOnDragDropped(event -> {
+            Dragboard db = event.getDragboard();
+            boolean success = false;
+            
+            if (db.hasString()) {
+                Layer draggedLayer = selectedLayer;
+                int draggedIndex = layersList.getItems().indexOf(draggedLayer);
+                int dropIndex = layersList.getItems().indexOf(
+                    layersList.getItems().get(layersList.getItems().size() - 1)
+                );
+                
+                if (draggedIndex != dropIndex) {
+                    // Remove from old position
+                    layersList.getItems().remove(draggedIndex);
+                    canvasContainer.getChildren().remove(draggedLayer.getCanvas());
+                    
+                    // Add to new position
+                    layersList.getItems().add(dropIndex, draggedLayer);
+                    canvasContainer.getChildren().add(dropIndex, draggedLayer.getCanvas());
+                    
+                    success = true;
+                }
+            }
+            
+            event.setDropCompleted(success);
+            event.consume();
+        });
+    }
+
+    private void createNewLayer() {
+        if (canvasContainer != null && !canvasContainer.getChildren().isEmpty()) {
+            List<Layer> before = new ArrayList<>(layersList.getItems());
+            Layer newLayer = new Layer("Layer " + (layersList.getItems().size() + 1),
+                    canvasContainer.getWidth(), canvasContainer.getHeight());
+            
+            // Add to top of list and canvas container
+            layersList.getItems().add(0, newLayer);
+            canvasContainer.getChildren().add(0, newLayer.getCanvas());
+            
+            // Set the position of the canvas
+            AnchorPane.setLeftAnchor(newLayer.getCanvas(), 0.0);
+            AnchorPane.setTopAnchor(newLayer.getCanvas(), 0.0);
+            
+            layersList.getSelectionModel().select(newLayer);
+            recordLayerChange("New Layer", before);
+        }
+    }
+
+    private void updatePropertiesPanel() {
+        propertiesContent.getChildren().clear();
+        
+        if (selectedLayer != null) {
+            // Opacity control
+            Label opacityLabel = new Label("Opacity:");
+            Slider opacitySlider = new Slider(0, 1, selectedLayer.getOpacity());
+            opacitySlider.setShowTickLabels(true);
+            opacitySlider.setShowTickMarks(true);
+            
+            // Blend mode control
+            Label blendLabel = new Label("Blend Mode:");
+            ComboBox<BlendMode> blendModeBox = new ComboBox<>();
+            blendModeBox.getItems().addAll(BlendMode.values());
+            blendModeBox.setValue(selectedLayer.getBlendMode());
+            
+            // Visibility toggle
+            CheckBox visibilityCheck = new CheckBox("Visible");
+            visibilityCheck.setSelected(selectedLayer.isVisible());
+            
+            // Lock layer toggle
+            CheckBox lockCheck = new CheckBox("Lock Layer");
+            lockCheck.setSelected(selectedLayer.isLocked());
+            
+            // Bind controls to layer properties
+            opacitySlider.valueProperty().bindBidirectional(selectedLayer.opacityProperty());
+            blendModeBox.valueProperty().bindBidirectional(selectedLayer.blendModeProperty());
+            visibilityCheck.selectedProperty().bindBidirectional(selectedLayer.visibleProperty());
+            lockCheck.selectedProperty().addListener((obs, old, newValue) -> 
+                selectedLayer.setLocked(newValue));
+            
+            propertiesContent.getChildren().addAll(
+                opacityLabel, opacitySlider,
+                blendLabel, blendModeBox,
+                new Separator(),
+                visibilityCheck,
+                lockCheck
+            );
+        }
+    }
+
+    private void duplicateSelectedLayer() {
+        if (selectedLayer != null) {
+            List<Layer> before = new ArrayList<>(layersList.getItems());
+            Layer duplicate = selectedLayer.duplicate(selectedLayer.getName() + " copy");
+            
+            // Insert after selected layer
+            int index = layersList.getItems().indexOf(selectedLayer);
+            layersList.getItems().add(index, duplicate);
+            canvasContainer.getChildren().add(index, duplicate.getCanvas());
+            layersList.getSelectionModel().select(duplicate);
+            recordLayerChange("Duplicate Layer", before);
+        }
+    }
+
+    private void deleteSelectedLayer() {
+        if (selectedLayer != null && !selectedLayer.isLocked() && layersList.getItems().size() > 1) {
+            List<Layer> before = new ArrayList<>(layersList.getItems());
+            int index = layersList.getItems().indexOf(selectedLayer);
+            layersList.getItems().remove(selectedLayer);
+            canvasContainer.getChildren().remove(selectedLayer.getCanvas());
+            layersList.getSelectionModel().select(
+                index < layersList.getItems().size() ? index : index - 1
+            );
+            recordLayerChange("Delete Layer", before);
+        }
+    }
+
+    // Records a change to the layer stack as one undoable step
+    private void recordLayerChange(String name, List<Layer> before) {
+        List<Layer> after = new ArrayList<>(layersList.getItems());
+        // Layers on only one side of the change are kept alive by the history alone once undone or redone
+        long retained = 0;
+        for (Layer layer : before) {
+            if (!after.contains(layer)) {
+                retained += layer.getPixels().getAllocatedBytes();
+            }
+        }
+        for (Layer layer : after) {
+            if (!before.contains(layer)) {
+                retained += layer.getPixels().getAllocatedBytes();
+            }
+        }
+        long size = retained;
+        History history = model.getHistory();
+        history.begin(name);
+        history.record(new Command() {
+            @Override
+            public void undo() {
+                showLayers(before);
+            }
+
+            @Override
+            public void redo() {
+                showLayers(after);
+            }
+
+            @Override
+            public long getSizeInBytes() {
+                return size;
+            }
+        });
+        history.commit();
+    }
+
+    private void showLayers(List<Layer> layers) {
+        Layer selected = selectedLayer;
+        for (Layer layer : layersList.getItems()) {
+            canvasContainer.getChildren().remove(layer.getCanvas());
+        }
+        layersList.getItems().setAll(layers);
+        for (int i = 0; i < layers.size(); i++) {
+            Pane layerCanvas = layers.get(i).getCanvas();
+            canvasContainer.getChildren().add(i, layerCanvas);
+            AnchorPane.setLeftAnchor(layerCanvas, 0.0);
+            AnchorPane.setTopAnchor(layerCanvas, 0.0);
+        }
+        if (layers.contains(selected)) {
+            layersList.getSelectionModel().select(selected);
+        } else if (!layers.isEmpty()) {
+            layersList.getSelectionModel().select(0);
+        }
+    }
+
+    private void undo() {
+        if (model.getHistory().canUndoProperty().get()) {
+            model.getHistory().undo();
+            model.setSaved(false);
+        }
+    }
+
+    private void redo() {
+        if (model.getHistory().canRedoProperty().get()) {
+            model.getHistory().redo();
+            model.setSaved(false);
+        }
+    }
+
+    private void mergeLayerDown() {
+        if (selectedLayer != null && !selectedLayer.isLocked()) {
+            int index = layersList.getItems().indexOf(selectedLayer);
+            if (index < layersList.getItems().size() - 1) {
+                Layer lowerLayer = layersList.getItems().get(index + 1);
+                History history = model.getHistory();
+                history.begin("Merge Down");
+                history.track(lowerLayer);
+                
+                // Composite the upper layer's pixels into the lower one
+                Compositor.compositeInto(lowerLayer.getPixels(), selectedLayer);
+                
+                // Remove upper layer
+                deleteSelectedLayer();
+                history.commit();
+            }
+        }
+    }
+
+    private void createNewImage() {
+        if (!model.isSaved()) {
+            Optional<ButtonType> result = AlertUtil.showSaveConfirmationAlert();
+            if (result.isPresent()) {
+                if (result.get() == ButtonType.OK) {
+                    saveImage(this::createNewImage);
+                    return;
+                } else if (result.get() == ButtonType.CANCEL) {
+                    return;
+                }
+            }
+        }
+        
+        NewImageDialog dialog = new NewImageDialog(stage);
+        Optional<NewImageDialog.ImageProperties> result = dialog.showAndWait();
+        
+        result.ifPresent(props -> {
+            canvasContainer.getChildren().clear();
+            layersList.getItems().clear();
+            resetCompositor(props.width, props.height);
+            closeDocumentFiles();
+            
+            Layer backgroundLayer = new Layer("Background", props.width, props.height);
+            backgroundLayer.getPixels().fill(0, 0, props.width, props.height, PixelUtil.toArgb(Color.WHITE));
+            
+            layersList.getItems().add(backgroundLayer);
+            canvasContainer.getChildren().add(backgroundLayer.getCanvas());
+            layersList.getSelectionModel().select(backgroundLayer);
+            
+            model.getHistory().clear();
+            model.setSaved(false);
+        });
+    }
+
+    private void openImage() {
+        if (!model.isSaved()) {
+            Optional<ButtonType> result = AlertUtil.showSaveConfirmationAlert();
+            if (result.isPresent()) {
+                if (result.get() == ButtonType.OK) {
+                    saveImage(this::openImage);
+                    return;
+                } else if (result.get() == ButtonType.CANCEL) {
+                    return;
+                }
+            }
+        }
+        
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Open Image");
+        fileChooser.getExtensionFilters().addAll(
+            new ExtensionFilter("Image Files", "*.png", "*.jpg", "*.jpeg", "*.gif", "*.bmp"),
+            new ExtensionFilter("SnipSHOT projects (*.snip)", "*." + ProjectFile.EXTENSION),
+            new ExtensionFilter("All Files", "*.*")
+        );
+        
+        File file = fileChooser.showOpenDialog(stage);
+        if (file != null && file.getName().toLowerCase().endsWith("." + ProjectFile.EXTENSION)) {
+            openProject(file);
+        } else if (file != null) {
+            OpenEvent event = new OpenEvent();
+            event.begin();
+            try {
+                ImageTileLoader loader = ImageTileLoader.open(file);
+                if ((long) loader.getWidth() * loader.getHeight() > STREAMED_IMAGE_PIXELS) {
+                    openStreamedImage(loader);
+                    commitOpen(event, file, "streamed", loader.getWidth(), loader.getHeight());
+                    return;
+                }
+                loader.close();
+            } catch (IOException e) {
+                // Not an ImageIO format, JavaFX may still read it
+            }
+            // Decoded and drawn into its layer off the FX thread, the document is swapped once it is ready
+            Task<Layer> decode = new Task<>() {
+                @Override
+                protected Layer call() throws Exception {
+                    Image image = new Image(file.toURI().toString());
+                    if (image.isError()) {
+                        throw image.getException();
+                    }
+                    Layer layer = new Layer("Background", image.getWidth(), image.getHeight());
+                    model.drawImage(layer, image, 0, 0);
+                    return layer;
+                }
+            };
+            decode.setOnSucceeded(e -> {
+                Layer backgroundLayer = decode.getValue();
+                int width = backgroundLayer.getPixels().getWidth();
+                int height = backgroundLayer.getPixels().getHeight();
+                canvasContainer.getChildren().clear();
+                layersList.getItems().clear();
+                resetCompositor(width, height);
+                closeDocumentFiles();
+                
+                layersList.getItems().add(backgroundLayer);
+                canvasContainer.getChildren().add(backgroundLayer.getCanvas());
+                layersList.getSelectionModel().select(backgroundLayer);
+                
+                model.getHistory().clear();
+                model.setSaved(true);
+                commitOpen(event, file, "decoded", width, height);
+            });
+            decode.setOnFailed(e -> {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("Error");
+                alert.setHeaderText("Could not load image");
+                alert.setContentText("Failed to load the selected image file.");
+                alert.showAndWait();
+            });
+            jobs.submit(JobScheduler.Priority.INTERACTIVE, decode);
+        }
+    }
+
+    // Shows a downscaled preview first, full-resolution tiles are decoded as they scroll into view
+    private void openStreamedImage(ImageTileLoader loader) {
+        canvasContainer.getChildren().clear();
+        layersList.getItems().clear();
+        resetCompositor(loader.getWidth(), loader.getHeight());
+        closeDocumentFiles();
+        streamedImage = loader;
+        
+        Layer backgroundLayer = new Layer("Background", loader.createStore());
+        layersList.getItems().add(backgroundLayer);
+        canvasContainer.getChildren().add(backgroundLayer.getCanvas());
+        layersList.getSelectionModel().select(backgroundLayer);
+        
+        model.getHistory().clear();
+        model.setSaved(true);
+        zoomToFit();
+        
+        Task<Image> preview = new Task<>() {
+            @Override
+            protected Image call() throws Exception {
+                return SwingFXUtils.toFXImage(loader.readPreview(PREVIEW_SIZE), null);
+            }
+        };
+        Compositor document = compositor;
+        preview.setOnSucceeded(e -> {
+            if (compositor == document) {
+                renderer.setPreview(preview.getValue());
+            }
+        });
+        jobs.submit(JobScheduler.Priority.BACKGROUND, preview);
+    }
+
+    // Only the index is read here, layer tiles are decoded when first shown or edited
+    private void openProject(File file) {
+        OpenEvent event = new OpenEvent();
+        event.begin();
+        try {
+            ProjectFile project = ProjectFile.read(file.toPath());
+            canvasContainer.getChildren().clear();
+            layersList.getItems().clear();
+            resetCompositor(project.getWidth(), project.getHeight());
+            showLayers(project.createLayers());
+            closeDocumentFiles();
+            currentProject = project;
+            
+            model.getHistory().clear();
+            model.setSaved(true);
+            commitOpen(event, file, "project", project.getWidth(), project.getHeight());
+        } catch (Exception e) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error");
+            alert.setHeaderText("Could not open project");
+            alert.setContentText("Failed to load the selected project file.");
+            alert.showAndWait();
+        }
+    }
+
+    // Closes the files the replaced document's layers loaded from, once saves still reading them are done
+    private void closeDocumentFiles() {
+        ProjectFile project = currentProject;
+        ImageTileLoader image = streamedImage;
+        currentProject = null;
+        streamedImage = null;
+        if (project != null || image != null) {
+            jobs.submitSerial(JobScheduler.Priority.BACKGROUND, SAVE_LANE, new FutureTask<Void>(() -> {
+                if (project != null) {
+                    project.close();
+                }
+                if (image != null) {
+                    image.close();
+                }
+                return null;
+            }));
+        }
+    }
+
+    private static void commitOpen(OpenEvent event, File file, String mode, int width, int height) {
+        event.path = file.getPath();
+        event.mode = mode;
+        event.bytes = file.length();
+        event.width = width;
+        event.height = height;
+        event.commit();
+    }
+
+    private void updateLayerSelection(Layer oldLayer, Layer newLayer) {
+        if (oldLayer != null) {
+            oldLayer.getCanvas().setMouseTransparent(true);
+        }
+        if (newLayer != null) {
+            newLayer.getCanvas().setMouseTransparent(false);
+        }
+    }
+
+    private void enableSelectMode() {
+        // Reset other modes
+        isDrawing = false;
+        isRectangleMode = false;
+        isBrushMode = false;
+        isTextMode = false;
+        isEraserMode = false;
+        isSelectMode = true;
+
+        // Reset other tools' styles
+        if (currentTool != null) {
+            ToolButton.setActive(currentTool, false);
+        }
+        currentTool = selectTool;
+        ToolButton.setActive(selectTool, true);
+
+        // Set cursor
+        canvasContainer.setCursor(Cursor.CROSSHAIR);
+
+        updateSelectProperties();
+
+        if (selectedLayer != null) {
+            Layer layer = selectedLayer;
+            Pane canvas = layer.getCanvas();
+
+            canvas.setOnMousePressed(e -> {
+                if (isSelectMode) {
+                    clearSelection();
+                    lastX = e.getX();
+                    lastY = e.getY();
+                    selectionOutline = isLassoSelect ? new Polygon(lastX, lastY) : new Rectangle(lastX, lastY, 0, 0);
+                    selectionOutline.setFill(Color.TRANSPARENT);
+                    selectionOutline.setStroke(Color.BLUE);
+                    selectionOutline.getStrokeDashArray().addAll(5d);
+                    selectionOutline.setMouseTransparent(true);
+                    canvasContainer.getChildren().add(selectionOutline);
+                }
+            });
+
+            canvas.setOnMouseDragged(e -> {
+                if (isSelectMode && selectionOutline != null) {
+                    if (selectionOutline instanceof Polygon) {
+                        ((Polygon) selectionOutline).getPoints().addAll(e.getX(), e.getY());
+                    } else {
+                        Rectangle rect = (Rectangle) selectionOutline;
+                        rect.setX(Math.round(Math.min(lastX, e.getX())));
+                        rect.setY(Math.round(Math.min(lastY, e.getY())));
+                        rect.setWidth(Math.round(Math.max(lastX, e.getX())) - rect.getX());
+                        rect.setHeight(Math.round(Math.max(lastY, e.getY())) - rect.getY());
+                    }
+                }
+            });
+
+            canvas.setOnMouseReleased(e -> {
+                if (isSelectMode && selectionOutline != null) {
+                    Rect document = layer.getPixels().getBounds();
+                    SelectionMask mask;
+                    if (selectionOutline instanceof Polygon) {
+                        List<Double> points = ((Polygon) selectionOutline).getPoints();
+                        int count = points.size() / 2;
+                        double[] xs = new double[count];
+                        double[] ys = new double[count];
+                        for (int i = 0; i < count; i++) {
+                            xs[i] = points.get(i * 2);
+                            ys[i] = points.get(i * 2 + 1);
+                        }
+                        mask = SelectionMask.polygon(xs, ys, count, document);
+                    } else {
+                        Rectangle rect = (Rectangle) selectionOutline;
+                        mask = SelectionMask.rectangle(new Rect((int) rect.getX(), (int) rect.getY(),
+                            (int) rect.getWidth(), (int) rect.getHeight()), document);
+                    }
+                    if (mask.isEmpty()) {
+                        clearSelection();
+                    } else {
+                        selection = mask;
+                    }
+                }
+            });
+        }
+    }
+
+    private void updateSelectProperties() {
+        propertiesContent.getChildren().clear();
+
+        if (isSelectMode) {
+            Label shapeLabel = new Label("Selection:");
+            ToggleGroup shapeGroup = new ToggleGroup();
+            RadioButton rectangleOption = new RadioButton("Rectangle");
+            RadioButton lassoOption = new RadioButton("Lasso");
+            rectangleOption.setToggleGroup(shapeGroup);
+            lassoOption.setToggleGroup(shapeGroup);
+            (isLassoSelect ? lassoOption : rectangleOption).setSelected(true);
+            lassoOption.selectedProperty().addListener((obs, oldVal, newVal) -> isLassoSelect = newVal);
+
+            propertiesContent.getChildren().addAll(shapeLabel, rectangleOption, lassoOption);
+        }
+    }
+
+    private void clearSelection() {
+        if (selectionOutline != null) {
+            canvasContainer.getChildren().remove(selectionOutline);
+            selectionOutline = null;
+        }
+        selection = null;
+    }
+
+    // Puts the selected part of the current layer on the clipboard, reading only the tiles under it
+    private void copySelection() {
+        if (selection == null || selectedLayer == null) {
+            return;
+        }
+        Rect bounds = selection.getBounds();
+        ClipboardContent content = new ClipboardContent();
+        content.putImage(PixelUtil.toImage(selection.read(selectedLayer.getPixels()), bounds.width, bounds.height));
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    private void cutSelection() {
+        if (selection == null || selectedLayer == null || selectedLayer.isLocked()) {
+            return;
+        }
+        copySelection();
+        History history = model.getHistory();
+        history.begin("Cut");
+        history.track(selectedLayer);
+        model.eraseSelection(selectedLayer, selection);
+        history.commit();
+        model.setSaved(false);
+    }
+
+    /**
+     * Shows a pasted image over the document, to be moved, scaled and rotated
+     * before it is drawn. It starts on the tile grid nearest the centre, so
+     * placed as is its tiles end up shared with the layer rather than copied.
+     */
+    private void startPaste(Layer layer, TiledPixelStore image) {
+        cancelPaste();
+        Rect document = layer.getPixels().getBounds();
+        int size = TiledPixelStore.TILE_SIZE;
+        int x = (int) Math.round((document.width - image.getWidth()) / 2.0 / size) * size;
+        int y = (int) Math.round((document.height - image.getHeight()) / 2.0 / size) * size;
+        pasteLayer = layer;
+        pasteTransform = new FreeTransform(canvasContainer, image, x + image.getWidth() / 2.0,
+                                           y + image.getHeight() / 2.0);
+        pasteTransform.setOnApply(this::applyPaste);
+
+        Label filterLabel = new Label("Resampling:");
+        ComboBox<Resampler.Filter> filterBox = new ComboBox<>();
+        filterBox.getItems().addAll(Resampler.Filter.values());
+        filterBox.setValue(pasteFilter);
+        filterBox.setCellFactory(lv -> new ListCell<Resampler.Filter>() {
+            @Override
+            protected void updateItem(Resampler.Filter item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? "" : item.getDisplayName());
+            }
+        });
+        filterBox.setButtonCell(filterBox.getCellFactory().call(null));
+        filterBox.valueProperty().addListener((obs, oldVal, newVal) -> pasteFilter = newVal);
+        Button applyButton = new Button("Apply");
+        Button cancelButton = new Button("Cancel");
+        applyButton.setOnAction(e -> applyPaste());
+        cancelButton.setOnAction(e -> cancelPaste());
+        pasteOptions = new VBox(5, new Separator(), filterLabel, filterBox, new HBox(5, applyButton, cancelButton));
+        propertiesContent.getChildren().add(pasteOptions);
+    }
+
+    // Draws the full image once, at the transform it was left at
+    private void applyPaste() {
+        if (pasteTransform == null) {
+            return;
+        }
+        FreeTransform paste = pasteTransform;
+        History history = model.getHistory();
+        history.begin("Paste");
+        history.track(pasteLayer);
+        model.drawImage(pasteLayer, paste.getSource(), paste.getTransform(), pasteFilter);
+        history.commit();
+        model.setSaved(false);
+        cancelPaste();
+    }
+
+    private void cancelPaste() {
+        if (pasteTransform != null) {
+            pasteTransform.dispose();
+            pasteTransform.getSource().release(); // tiles the layer took stay alive there
+            pasteTransform = null;
+            pasteLayer = null;
+        }
+        if (pasteOptions != null) {
+            propertiesContent.getChildren().remove(pasteOptions);
+            pasteOptions = null;
+        }
+    }
+
+    private void enableDrawingMode() {
+        // Reset other modes
+        isDrawing = false;
+        isRectangleMode = false;
+        isBrushMode = false;
+        
+        // Reset other tools' styles
+        if (currentTool != null) {
+            ToolButton.setActive(currentTool, false);
+        }
+        currentTool = pencilTool;
+        ToolButton.setActive(pencilTool, true);
+        
+        // Set cursor
+        canvasContainer.setCursor(Cursor.CROSSHAIR);
+        
+        if (selectedLayer != null) {
+            Layer layer = selectedLayer;
+            Pane canvas = layer.getCanvas();
+            
+            canvas.setOnMousePressed(e -> {
+                if (!selectedLayer.isLocked()) {
+                    isDrawing = true;
+                    model.getHistory().begin("Pencil");
+                    model.getHistory().track(layer);
+                    model.beginStroke(layer, StrokeTool.PENCIL, e.getX(), e.getY());
+                }
+            });
+            
+            canvas.setOnMouseDragged(e -> {
+                if (isDrawing && !selectedLayer.isLocked()) {
+                    model.continueStroke(e.getX(), e.getY());
+                }
+            });
+            
+            canvas.setOnMouseReleased(e -> {
+                if (isDrawing) {
+                    endStroke();
+                }
+                isDrawing = false;
+            });
+        }
+    }
+
+    private void enableRectangleMode() {
+        // Reset other modes
+        isDrawing = false;
+        isRectangleMode = true;
+        isBrushMode = false;
+        
+        // Reset other tools' styles
+        if (currentTool != null) {
+            ToolButton.setActive(currentTool, false);
+        }
+        currentTool = rectangleTool;
+        ToolButton.setActive(rectangleTool, true);
+        
+        // Set cursor
+        canvasContainer.setCursor(Cursor.CROSSHAIR);
+        
+        // Update properties panel
+        updateRectangleProperties();
+        
+        if (selectedLayer != null && !selectedLayer.isLocked()) {
+            Layer layer = selectedLayer;
+            Pane canvas = layer.getCanvas();
+            
+            canvas.setOnMousePressed(e -> {
+                if (isRectangleMode) {
+                    lastX = e.getX();
+                    lastY = e.getY();
+                    
+                    // Create preview rectangle with correct positioning
+                    previewRect = new Rectangle(
+                        lastX + canvas.getLayoutX(),
+                        lastY + canvas.getLayoutY(),
+                        0, 0
+                    );
+                    previewRect.setFill(isRectangleFilled ? model.getCurrentColor() : Color.TRANSPARENT);
+                    previewRect.setStroke(model.getCurrentColor());
+                    previewRect.getStrokeDashArray().addAll(5d);
+                    canvasContainer.getChildren().add(previewRect);
+                }
+            });
+            
+            canvas.setOnMouseDragged(e -> {
+                if (isRectangleMode && previewRect != null) {
+                    double width = e.getX() - lastX;
+                    double height = e.getY() - lastY;
+                    
+                    // Update preview rectangle with offset
+                    previewRect.setX((width > 0 ? lastX : e.getX()) + canvas.getLayoutX());
+                    previewRect.setY((height > 0 ? lastY : e.getY()) + canvas.getLayoutY());
+                    previewRect.setWidth(Math.abs(width));
+                    previewRect.setHeight(Math.abs(height));
+                }
+            });
+            
+            canvas.setOnMouseReleased(e -> {
+                if (isRectangleMode && previewRect != null) {
+                    model.getHistory().begin("Rectangle");
+                    model.getHistory().track(layer);
+                    model.drawRectangle(layer, lastX, lastY, 
+                                      previewRect.getWidth(), previewRect.getHeight(),
+                                      isRectangleFilled);
+                    model.getHistory().commit();
+                    model.setSaved(false);
+                    
+                    canvasContainer.getChildren().remove(previewRect);
+                    previewRect = null;
+                }
+            });
+        }
+    }
+
+    private void updateRectangleProperties() {
+        propertiesContent.getChildren().clear();
+        
+        if (isRectangleMode) {
+            CheckBox fillCheck = new CheckBox("Fill Rectangle");
+            fillCheck.setSelected(isRectangleFilled);
+            fillCheck.selectedProperty().addListener((obs, oldVal, newVal) -> {
+                isRectangleFilled = newVal;
+                if (previewRect != null) {
+                    previewRect.setFill(isRectangleFilled ? model.getCurrentColor() : Color.TRANSPARENT);
+                }
+            });
+            
+            propertiesContent.getChildren().addAll(fillCheck);
+        }
+    }
+
+    private void enableBrushMode() {
+        // Reset other modes
+        isDrawing = false;
+        isRectangleMode = false;
+        isBrushMode = true;
+        
+        // Reset other tools' styles
+        if (currentTool != null) {
+            ToolButton.setActive(currentTool, false);
+        }
+        currentTool = brushTool;
+        ToolButton.setActive(brushTool, true);
+        
+        // Set cursor
+        canvasContainer.setCursor(Cursor.CROSSHAIR);
+        
+        if (selectedLayer != null) {
+            Layer layer = selectedLayer;
+            Pane canvas = layer.getCanvas();
+            
+            canvas.setOnMousePressed(e -> {
+                if (isBrushMode && !selectedLayer.isLocked()) {
+                    model.getHistory().begin("Brush");
+                    model.getHistory().track(layer);
+                    model.beginStroke(layer, StrokeTool.BRUSH, e.getX(), e.getY());
+                    model.setSaved(false);
+                }
+            });
+            
+            canvas.setOnMouseDragged(e -> {
+                if (isBrushMode && !selectedLayer.isLocked()) {
+                    model.continueStroke(e.getX(), e.getY());
+                }
+            });
+            
+            canvas.setOnMouseReleased(e -> {
+                if (isBrushMode) {
+                    endStroke();
+                }
+            });
+            
+            updateBrushProperties();
+        }
+    }
+
+    private void updateBrushProperties() {
+        propertiesContent.getChildren().clear();
+        
+        if (isBrushMode) {
+            // Brush size control
+            Label sizeLabel = new Label("Brush Size:");
+            Slider sizeSlider = new Slider(1, 50, model.getBrushRadius());
+            sizeSlider.setShowTickLabels(true);
+            sizeSlider.setShowTickMarks(true);
+            
+            // Brush hardness control
+            Label hardnessLabel = new Label("Brush Hardness:");
+            Slider hardnessSlider = new Slider(0, 1, model.getBrushHardness());
+            hardnessSlider.setShowTickLabels(true);
+            hardnessSlider.setShowTickMarks(true);
+            
+            // Spacing of soft dabs, shared with the eraser
+            Label spacingLabel = new Label("Dab Spacing (%):");
+            Slider spacingSlider = new Slider(1, 100, model.getBrushSpacing() * 100);
+            spacingSlider.setShowTickLabels(true);
+            spacingSlider.setShowTickMarks(true);
+            
+            // Brush shape selector
+            Label shapeLabel = new Label("Brush Shape:");
+            ComboBox<BrushShape> shapeBox = new ComboBox<>();
+            shapeBox.getItems().addAll(BrushShape.values());
+            shapeBox.setValue(model.getBrushShape());
+            shapeBox.setCellFactory(lv -> new ListCell<BrushShape>() {
+                @Override
+                protected void updateItem(BrushShape item, boolean empty) {
+                    super.updateItem(item, empty);
+                    setText(empty ? "" : item.getDisplayName());
+                }
+            });
+            
+            // Add listeners
+            sizeSlider.valueProperty().addListener((obs, oldVal, newVal) -> 
+                model.setBrushRadius(newVal.doubleValue()));
+            
+            hardnessSlider.valueProperty().addListener((obs, oldVal, newVal) -> 
+                model.setBrushHardness(newVal.doubleValue()));
+            
+            spacingSlider.valueProperty().addListener((obs, oldVal, newVal) -> 
+                model.setBrushSpacing(newVal.doubleValue() / 100));
+            
+            shapeBox.valueProperty().addListener((obs, oldVal, newVal) -> 
+                model.setBrushShape(newVal));
+            
+            propertiesContent.getChildren().addAll(
+                sizeLabel, sizeSlider,
+                new Separator(),
+                hardnessLabel, hardnessSlider,
+                spacingLabel, spacingSlider,
+                new Separator(),
+                shapeLabel, shapeBox
+            );
+        }
+    }
+
+    /**
+     * Asks for a file and saves the flattened image in the background. The
+     * layers are snapshotted here, so the user can keep editing; onSaved
+     * runs on the FX thread once the file is in place.
+     */
+    private void saveImage(Runnable onSaved) {
+        if (saveTask != null || compositor == null) {
+            return;
+        }
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Save Image");
+        fileChooser.getExtensionFilters().addAll(
+            new ExtensionFilter("PNG files (*.png)", "*.png"),
+            new ExtensionFilter("JPEG files (*.jpg)", "*.jpg"),
+            new ExtensionFilter("SnipSHOT projects (*.snip)", "*." + ProjectFile.EXTENSION)
+        );
+        
+        File file = fileChooser.showSaveDialog(stage);
+        if (file != null) {
+            String fileName = file.getName().toLowerCase();
+            String format = fileName.endsWith(".png") ? "png"
+                : fileName.endsWith("." + ProjectFile.EXTENSION) ? ProjectFile.EXTENSION : "jpg";
+            long revision = model.getRevision();
+            if (format.equals("png")) {
+                Optional<PngOptionsDialog.PngOptions> options = new PngOptionsDialog(stage, pngOptions).showAndWait();
+                if (!options.isPresent()) {
+                    return;
+                }
+                pngOptions = options.get();
+            }
+            
+            Compositor owner = layerCompositor();
+            SaveTask task;
+            if (format.equals(ProjectFile.EXTENSION)) {
+                TiledPixelStore document = owner.getResult();
+                task = new SaveTask(ProjectFile.capture(document.getWidth(), document.getHeight(),
+                                                        layersList.getItems(), currentProject), file);
+            } else {
+                // Only the tiles changed since the last flatten are recomposited
+                task = new SaveTask(owner.fork(), file, format);
+                task.setPngOptions(pngOptions.compressionLevel, pngOptions.filter);
+            }
+            
+            SaveEvent event = new SaveEvent();
+            event.begin();
+            event.path = file.getPath();
+            event.format = format;
+            saveTask = task;
+            saveMessage.textProperty().bind(task.messageProperty());
+            saveProgress.progressProperty().bind(task.progressProperty());
+            saveStatus.setVisible(true);
+            // A cancelled task reports at once, so wait for the worker to let go of the fork
+            jobs.submitSerial(JobScheduler.Priority.BACKGROUND, SAVE_LANE, new FutureTask<Void>(() -> {
+                task.run();
+                Platform.runLater(() -> finishSave(owner, task, revision, onSaved, event));
+            }, null));
+        }
+    }
+
+    private void finishSave(Compositor owner, SaveTask task, long revision, Runnable onSaved, SaveEvent event) {
+        boolean succeeded = task.getState() == Worker.State.SUCCEEDED;
+        event.succeeded = succeeded;
+        event.bytes = succeeded ? new File(event.path).length() : 0;
+        event.encodeMillis = task.getEncodeNanos() < 0 ? 0 : task.getEncodeNanos() / 1_000_000;
+        event.commit();
+        if (task.getFork() != null) {
+            owner.join(task.getFork(), succeeded);
+        } else if (succeeded) {
+            task.getProject().release();
+            currentProject = task.getProject();
+            if (currentProject.needsCompaction()) {
+                compactProject(currentProject);
+            }
+        } else {
+            task.getProject().abandon();
+        }
+        saveTask = null;
+        saveMessage.textProperty().unbind();
+        saveProgress.progressProperty().unbind();
+        saveStatus.setVisible(false);
+        
+        if (succeeded) {
+            // Edits made while saving still need saving
+            if (model.getRevision() == revision) {
+                model.setSaved(true);
+            }
+            if (onSaved != null) {
+                onSaved.run();
+            }
+        } else if (task.getState() == Worker.State.FAILED) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error");
+            alert.setHeaderText("Could not save image");
+            alert.setContentText("Failed to save the image file.");
+            alert.showAndWait();
+        }
+    }
+
+    // Rewrites the project file when nothing else runs, in the save lane so no save runs meanwhile
+    private void compactProject(ProjectFile project) {
+        CompactTask task = new CompactTask(project);
+        task.setOnSucceeded(e -> {
+            // A save since then has its own file already
+            if (currentProject == project && task.getValue() != null) {
+                currentProject = task.getValue();
+            }
+        });
+        jobs.submitSerial(JobScheduler.Priority.IDLE, SAVE_LANE, task);
+    }
+
+    // Draws the rest of the current stroke and records it as one step
+    private void endStroke() {
+        if (model.endStroke()) {
+            model.setSaved(false);
+        }
+        model.getHistory().commit();
+    }
+
+    private void resetCompositor(int width, int height) {
+        clearSelection();
+        if (compositor != null) {
+            compositor.dispose();
+        }
+        compositor = new Compositor(width, height);
+        renderer.setCompositor(compositor);
+        renderer.setZoom(1);
+    }
+
+    // Compositor over the current layers, the list holds the top layer first
+    private Compositor layerCompositor() {
+        if (compositor == null) {
+            throw new IllegalStateException("No image to flatten");
+        }
+        List<Layer> bottomToTop = new ArrayList<>(layersList.getItems());
+        Collections.reverse(bottomToTop);
+        compositor.setSources(bottomToTop);
+        return compositor;
+    }
+
+    private void enableTextMode() {
+        // Reset other modes
+        isDrawing = false;
+        isRectangleMode = false;
+        isBrushMode = false;
+        isTextMode = true;
+        
+        // Reset other tools' styles
+        if (currentTool != null) {
+            ToolButton.setActive(currentTool, false);
+        }
+        currentTool = textTool;
+        ToolButton.setActive(textTool, true);
+        
+        // Set cursor
+        canvasContainer.setCursor(Cursor.TEXT);
+        
+        if (selectedLayer != null && !selectedLayer.isLocked()) {
+            Layer layer = selectedLayer;
+            Pane canvas = layer.getCanvas();
+            
+            canvas.setOnMousePressed(e -> {
+                if (isTextMode) {
+                    lastX = e.getX();
+                    lastY = e.getY();
+                    
+                    // Create preview rectangle
+                    textPreviewRect = new Rectangle(
+                        lastX + canvas.getLayoutX(),
+                        lastY + canvas.getLayoutY(),
+                        0, 0
+                    );
+                    textPreviewRect.setFill(Color.TRANSPARENT);
+                    textPreviewRect.setStroke(Color.BLUE);
+                    textPreviewRect.getStrokeDashArray().addAll(5d);
+                    canvasContainer.getChildren().add(textPreviewRect);
+                }
+            });
+            
+            canvas.setOnMouseDragged(e -> {
+                if (isTextMode && textPreviewRect != null) {
+                    double width = e.getX() - lastX;
+                    double height = e.getY() - lastY;
+                    
+                    // Update preview rectangle
+                    textPreviewRect.setX((width > 0 ? lastX : e.getX()) + canvas.getLayoutX());
+                    textPreviewRect.setY((height > 0 ? lastY : e.getY()) + canvas.getLayoutY());
+                    textPreviewRect.setWidth(Math.abs(width));
+                    textPreviewRect.setHeight(Math.abs(height));
+                }
+            });
+            
+            canvas.setOnMouseReleased(e -> {
+                if (isTextMode && textPreviewRect != null) {
+                    showTextInputDialog(layer, lastX, lastY, 
+                                     textPreviewRect.getWidth(), 
+                                     textPreviewRect.getHeight());
+                    canvasContainer.getChildren().remove(textPreviewRect);
+                    textPreviewRect = null;
+                }
+            });
+        }
+    }
+    
+    private void showTextInputDialog(Layer layer, double x, double y, double width, double height) {
+        showTextInputDialog(layer, x, y, width, height, "");
+    }
+    
+    private void showTextInputDialog(Layer layer, double x, double y, double width, double height, String initialText) {
+        Dialog<String> dialog = new Dialog<>();
+        dialog.setTitle("Enter Text");
+        dialog.setHeaderText("Type your text below:");
+        
+        // Create text area for input
+        TextArea textArea = new TextArea(initialText);
+        textArea.setPrefRowCount(3);
+        textArea.setWrapText(true);
+        
+        // Create font controls
+        ComboBox<String> fontFamilyBox = new ComboBox<>();
+        fontFamilyBox.getItems().addAll("Arial", "Times New Roman", "Courier New");
+        fontFamilyBox.setValue("Arial");
+        
+        ComboBox<Integer> fontSizeBox = new ComboBox<>();
+        fontSizeBox.getItems().addAll(8, 10, 12, 14, 16, 18, 20, 24, 28, 32, 36, 40, 48, 56, 64, 72);
+        fontSizeBox.setValue(16);
+        
+        ColorPicker colorPicker = new ColorPicker(model.getCurrentColor());
+        
+        // Layout controls
+        VBox content = new VBox(10);
+        content.getChildren().addAll(
+            new Label("Font:"), fontFamilyBox,
+            new Label("Size:"), fontSizeBox,
+            new Label("Color:"), colorPicker,
+            new Label("Text:"), textArea
+        );
+        
+        dialog.getDialogPane().setContent(content);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        
+        dialog.setResultConverter(buttonType -> {
+            if (buttonType == ButtonType.OK) {
+                return textArea.getText();
+            }
+            return null;
+        });
+        
+        Optional<String> result = dialog.showAndWait();
+        result.ifPresent(text -> {
+            if (!text.isEmpty()) {
+                model.getHistory().begin("Text");
+                model.getHistory().track(layer);
+                model.drawText(layer, text, fontFamilyBox.getValue(), fontSizeBox.getValue(),
+                               colorPicker.getValue(), x, y + fontSizeBox.getValue());
+                model.getHistory().commit();
+                model.setSaved(false);
+            }
+        });
+    }
+
+    private void enableEraserMode() {
+        // Reset other modes
+        isDrawing = false;
+        isRectangleMode = false;
+        isBrushMode = false;
+        isTextMode = false;
+        isEraserMode = true;
+
+        // Reset other tools' styles
+        if (currentTool != null) {
+            ToolButton.setActive(currentTool, false);
+        }
+        currentTool = eraserTool;
+        ToolButton.setActive(eraserTool, true);
+
+        // Set cursor
+        canvasContainer.setCursor(Cursor.CROSSHAIR);
+
+        if (selectedLayer != null) {
+            Layer layer = selectedLayer;
+            Pane canvas = layer.getCanvas();
+
+            canvas.setOnMousePressed(e -> {
+                if (isEraserMode && !selectedLayer.isLocked()) {
+                    model.getHistory().begin("Eraser");
+                    model.getHistory().track(layer);
+                    model.beginStroke(layer, StrokeTool.ERASER, e.getX(), e.getY());
+                    model.setSaved(false);
+                }
+            });
+
+            canvas.setOnMouseDragged(e -> {
+                if (isEraserMode && !selectedLayer.isLocked()) {
+                    model.continueStroke(e.getX(), e.getY());
+                }
+            });
+
+            canvas.setOnMouseReleased(e -> {
+                if (isEraserMode) {
+                    endStroke();
+                }
+            });
+
+            updateEraserProperties();
+        }
+    }
+
+    private void updateEraserProperties() {
+        propertiesContent.getChildren().clear();
+
+        if (isEraserMode) {
+            // Eraser size control
+            Label sizeLabel = new Label("Eraser Size:");
+            Slider sizeSlider = new Slider(1, 50, model.getEraserRadius());
+            sizeSlider.setShowTickLabels(true);
+            sizeSlider.setShowTickMarks(true);
+
+            // Eraser hardness control
+            Label hardnessLabel = new Label("Eraser Hardness:");
+            Slider hardnessSlider = new Slider(0, 1, model.getEraserHardness());
+            hardnessSlider.setShowTickLabels(true);
+            hardnessSlider.setShowTickMarks(true);
+
+            Label spacingLabel = new Label("Dab Spacing (%):");
+            Slider spacingSlider = new Slider(1, 100, model.getBrushSpacing() * 100);
+            spacingSlider.setShowTickLabels(true);
+            spacingSlider.setShowTickMarks(true);
+
+            // Add listeners
+            sizeSlider.valueProperty().addListener((obs, oldVal, newVal) -> 
+                model.setEraserRadius(newVal.doubleValue()));
+
+            hardnessSlider.valueProperty().addListener((obs, oldVal, newVal) -> 
+                model.setEraserHardness(newVal.doubleValue()));
+
+            spacingSlider.valueProperty().addListener((obs, oldVal, newVal) -> 
+                model.setBrushSpacing(newVal.doubleValue() / 100));
+
+            propertiesContent.getChildren().addAll(
+                sizeLabel, sizeSlider,
+                new Separator(),
+                hardnessLabel, hardnessSlider,
+                spacingLabel, spacingSlider
+            );
+        }
+    }
+
+    public void show() {
+        stage.show();
+    }
+
+    Stage getStage() {
+        return stage;
+    }
+} 
\ No newline at end of file
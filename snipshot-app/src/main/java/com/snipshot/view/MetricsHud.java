@@ -0,0 +1,66 @@
+package com.snipshot.view;
+
+import com.snipshot.metrics.Counter;
+import com.snipshot.metrics.Histogram;
+import com.snipshot.metrics.Metrics;
+import java.util.Map;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.util.Duration;
+
+/**
+ * Overlay listing the {@link Metrics} as median, 99th percentile and worst
+ * case. It only reads the metrics while it is shown, so a hidden HUD costs
+ * nothing.
+ */
+public class MetricsHud extends Label {
+    private static final Duration REFRESH = Duration.millis(250);
+
+    private final Timeline refresh = new Timeline(new KeyFrame(REFRESH, e -> update()));
+
+    public MetricsHud() {
+        setMouseTransparent(true);
+        setPadding(new Insets(6, 8, 6, 8));
+        setStyle("-fx-font-family: monospace; -fx-font-size: 11px; -fx-text-fill: #e0e0e0;"
+                 + " -fx-background-color: rgba(0, 0, 0, 0.65); -fx-background-radius: 4;");
+        refresh.setCycleCount(Timeline.INDEFINITE);
+        setVisible(false);
+        visibleProperty().addListener((obs, was, visible) -> {
+            if (visible) {
+                update();
+                refresh.play();
+            } else {
+                refresh.stop();
+            }
+        });
+    }
+
+    private void update() {
+        StringBuilder text = new StringBuilder(String.format("%-17s %7s %9s %9s %9s", "", "count", "p50", "p99", "max"));
+        for (Map.Entry<String, Histogram> entry : Metrics.getHistograms().entrySet()) {
+            Histogram.Snapshot snapshot = entry.getValue().getSnapshot();
+            String unit = snapshot.getUnit();
+            text.append(String.format("%n%-17s %7d %9s %9s %9s", entry.getKey(), snapshot.getCount(),
+                                      format(snapshot.getP50(), unit), format(snapshot.getP99(), unit),
+                                      format(snapshot.getMax(), unit)));
+        }
+        for (Map.Entry<String, Counter> entry : Metrics.getCounters().entrySet()) {
+            text.append(String.format("%n%-17s %7d", entry.getKey(), entry.getValue().get()));
+        }
+        setText(text.toString());
+    }
+
+    private static String format(long value, String unit) {
+        if (Metrics.NANOS.equals(unit)) {
+            return value >= 1_000_000 ? String.format("%.1f ms", value / 1e6)
+                : String.format("%.1f us", value / 1e3);
+        }
+        if (Metrics.BYTES.equals(unit)) {
+            return value >= 1 << 20 ? String.format("%.1f MB", value / (double) (1 << 20))
+                : String.format("%.1f KB", value / 1024.0);
+        }
+        return Long.toString(value);
+    }
+}
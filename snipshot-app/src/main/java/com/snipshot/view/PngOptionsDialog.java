@@ -0,0 +1,58 @@
+package com.snipshot.view;
+
+import com.snipshot.raster.PngEncoder;
+import javafx.geometry.Insets;
+import javafx.scene.control.*;
+import javafx.scene.layout.GridPane;
+import javafx.stage.Stage;
+
+public class PngOptionsDialog extends Dialog<PngOptionsDialog.PngOptions> {
+    public static class PngOptions {
+        public final int compressionLevel;
+        public final PngEncoder.Filter filter;
+
+        public PngOptions(int compressionLevel, PngEncoder.Filter filter) {
+            this.compressionLevel = compressionLevel;
+            this.filter = filter;
+        }
+    }
+
+    public PngOptionsDialog(Stage owner, PngOptions defaults) {
+        setTitle("PNG Options");
+        setHeaderText("Higher levels give smaller files but take longer");
+        initOwner(owner);
+
+        ButtonType saveButtonType = new ButtonType("Save", ButtonBar.ButtonData.OK_DONE);
+        getDialogPane().getButtonTypes().addAll(saveButtonType, ButtonType.CANCEL);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(20, 150, 10, 10));
+
+        Slider levelSlider = new Slider(0, 9, defaults.compressionLevel);
+        levelSlider.setMajorTickUnit(1);
+        levelSlider.setMinorTickCount(0);
+        levelSlider.setSnapToTicks(true);
+        levelSlider.setShowTickLabels(true);
+        levelSlider.setShowTickMarks(true);
+
+        ComboBox<PngEncoder.Filter> filterBox = new ComboBox<>();
+        filterBox.getItems().addAll(PngEncoder.Filter.values());
+        filterBox.setValue(defaults.filter);
+
+        grid.add(new Label("Compression:"), 0, 0);
+        grid.add(levelSlider, 1, 0);
+        grid.add(new Label("Row filter:"), 0, 1);
+        grid.add(filterBox, 1, 1);
+
+        getDialogPane().setContent(grid);
+
+        setResultConverter(dialogButton -> {
+            if (dialogButton == saveButtonType) {
+                return new PngOptions((int) Math.round(levelSlider.getValue()), filterBox.getValue());
+            }
+            return null;
+        });
+    }
+}
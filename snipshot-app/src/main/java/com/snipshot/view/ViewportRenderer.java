@@ -0,0 +1,366 @@
+package com.snipshot.view;
+
+import com.snipshot.controller.JobScheduler;
+import com.snipshot.metrics.Histogram;
+import com.snipshot.metrics.Metrics;
+import com.snipshot.raster.Compositor;
+import com.snipshot.raster.MipPyramid;
+import com.snipshot.raster.PixelStore;
+import com.snipshot.raster.Rect;
+import com.snipshot.raster.TileData;
+import com.snipshot.raster.TiledPixelStore;
+import javafx.animation.AnimationTimer;
+import javafx.concurrent.Task;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.Pane;
+import javafx.scene.transform.Scale;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Draws the flattened document at any zoom through a canvas the size of the
+ * visible viewport. Zoomed out it draws from a {@link MipPyramid} level no
+ * more than twice the screen resolution, and every level is drawn as cached
+ * tile images, so panning only costs the draw calls for the visible tiles.
+ * Edits invalidate the affected tiles of each level, which are redone on the
+ * next pulse if they are in view.
+ *
+ * The content pane sits on top in document coordinates, scaled by the zoom,
+ * so tools and overlays placed in it need no conversion. Tiles whose layers
+ * are still being loaded are drawn from the preview image, if there is one,
+ * and fetched on a background thread.
+ */
+public class ViewportRenderer extends Pane {
+    public static final double MIN_ZOOM = 1.0 / 64;
+    public static final double MAX_ZOOM = 32;
+    private static final int MAX_TILE_IMAGES = 512;
+    private static final long FRAME_BUDGET_NANOS = 8_000_000; // tile building per pulse, the rest follows
+    private static final long MAX_RESULT_BYTES = 256L << 20; // flattened tiles kept off screen
+    private static final int MAX_EVICTABLE_TILES = 512; // unmodified tiles a loading layer keeps off screen
+    private static final Histogram FRAME_TIME = Metrics.histogram("frame", Metrics.NANOS);
+    private static final Histogram FRAME_ALLOCATED = Metrics.histogram("frame.allocated", Metrics.BYTES);
+    private static final Histogram PULSE_INTERVAL = Metrics.histogram("fx.pulse", Metrics.NANOS);
+    private static final String TILE_LANE = "tiles"; // in request order, so a loader's decoded band is reused
+
+    private final Pane content;
+    private final Canvas canvas = new Canvas();
+    private final Scale scale = new Scale(1, 1, 0, 0);
+    private final Map<Long, WritableImage> tileImages = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, WritableImage> eldest) {
+            return size() > MAX_TILE_IMAGES;
+        }
+    };
+    private final Set<List<Object>> requested = new HashSet<>(); // layer tiles queued on the loader thread
+    private final Consumer<Rect> invalidationListener = this::invalidated;
+    private Compositor compositor;
+    private MipPyramid pyramid;
+    private Rect damage; // changed since the last render, in document pixels
+    private Rect viewport = new Rect(0, 0, 0, 0); // visible part of this pane, in screen pixels
+    private volatile Rect wanted = new Rect(0, 0, 0, 0); // document pixels the visible tiles are built from
+    private double zoom = 1;
+    private Image preview;
+    private boolean needsRender;
+    private Runnable onPulse;
+
+    public ViewportRenderer(Pane content) {
+        this.content = content;
+        content.getTransforms().add(scale);
+        canvas.setMouseTransparent(true);
+        getChildren().addAll(canvas, content);
+        // Layer settings are compared once per pulse, edits are drawn once per pulse
+        new AnimationTimer() {
+            private long lastPulse;
+
+            @Override
+            public void handle(long now) {
+                if (lastPulse != 0) {
+                    PULSE_INTERVAL.record(now - lastPulse);
+                }
+                lastPulse = now;
+                long start = System.nanoTime();
+                long allocated = Metrics.allocatedBytes();
+                if (onPulse != null) {
+                    onPulse.run();
+                }
+                if (compositor != null) {
+                    compositor.updateSignature();
+                }
+                // Only pulses that draw count as frames, idle ones would hide the slow ones
+                if (needsRender) {
+                    render();
+                    FRAME_TIME.recordSince(start);
+                    Metrics.recordAllocatedSince(FRAME_ALLOCATED, allocated);
+                }
+            }
+        }.start();
+    }
+
+    public void setCompositor(Compositor compositor) {
+        if (this.compositor != null) {
+            this.compositor.removeInvalidationListener(invalidationListener);
+        }
+        this.compositor = compositor;
+        pyramid = compositor == null ? null : new MipPyramid(compositor.getResult());
+        if (compositor != null) {
+            compositor.addInvalidationListener(invalidationListener);
+        }
+        tileImages.clear();
+        damage = null;
+        preview = null;
+        requestLayout();
+        needsRender = true;
+    }
+
+    // Runs at the start of every pulse, so edits it makes show in the same frame
+    public void setOnPulse(Runnable onPulse) {
+        this.onPulse = onPulse;
+    }
+
+    // Stands in for tiles that are still loading, and for the whole image while it is this small
+    public void setPreview(Image preview) {
+        this.preview = preview;
+        needsRender = true;
+    }
+
+    // Part of this pane that is visible, in screen pixels
+    public void setViewport(Rect viewport) {
+        this.viewport = viewport;
+        needsRender = true;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public void setZoom(double zoom) {
+        this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+        scale.setX(this.zoom);
+        scale.setY(this.zoom);
+        requestLayout();
+        needsRender = true;
+    }
+
+    public double getDocumentWidth() {
+        return compositor == null ? 0 : compositor.getResult().getWidth();
+    }
+
+    public double getDocumentHeight() {
+        return compositor == null ? 0 : compositor.getResult().getHeight();
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        return getDocumentWidth() * zoom;
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        return getDocumentHeight() * zoom;
+    }
+
+    @Override
+    protected double computeMinWidth(double height) {
+        return computePrefWidth(height);
+    }
+
+    @Override
+    protected double computeMinHeight(double width) {
+        return computePrefHeight(width);
+    }
+
+    @Override
+    protected void layoutChildren() {
+        content.autosize();
+        content.relocate(0, 0);
+    }
+
+    private void render() {
+        needsRender = false;
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        if (compositor == null) {
+            g.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            return;
+        }
+        if (damage != null) {
+            pyramid.invalidate(damage);
+            dropTileImages(damage);
+            damage = null;
+        }
+        Rect view = viewport.intersect(Rect.covering(0, 0, getDocumentWidth() * zoom, getDocumentHeight() * zoom));
+        if (canvas.getWidth() != view.width || canvas.getHeight() != view.height) {
+            canvas.setWidth(view.width);
+            canvas.setHeight(view.height);
+        }
+        canvas.relocate(view.x, view.y);
+        g.clearRect(0, 0, view.width, view.height);
+
+        // Smallest level that still has at least one pixel per screen pixel
+        int level = 0;
+        while (level + 1 < pyramid.getLevelCount() && zoom * (1 << (level + 1)) <= 1) {
+            level++;
+        }
+        double levelScale = zoom * (1 << level);
+        PixelStore store = pyramid.getLevel(level);
+        g.setImageSmoothing(levelScale < 1);
+        boolean previewOnly = preview != null && zoom <= preview.getWidth() / getDocumentWidth();
+        Rect levelView = Rect.covering(view.x / levelScale, view.y / levelScale,
+                                       view.getMaxX() / levelScale, view.getMaxY() / levelScale)
+            .intersect(store.getBounds());
+        int size = TiledPixelStore.TILE_SIZE;
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        Rect visibleTiles = Rect.covering(Math.floor(levelView.x / (double) size) * size,
+                                          Math.floor(levelView.y / (double) size) * size,
+                                          Math.ceil(levelView.getMaxX() / (double) size) * size,
+                                          Math.ceil(levelView.getMaxY() / (double) size) * size);
+        wanted = pyramid.getBaseRegion(level, visibleTiles);
+        for (int ty = levelView.y / size; ty * size < levelView.getMaxY(); ty++) {
+            for (int tx = levelView.x / size; tx * size < levelView.getMaxX(); tx++) {
+                Rect tile = new Rect(tx * size, ty * size, size, size).intersect(store.getBounds());
+                // Snapped to whole screen pixels so neighbouring tiles leave no seams
+                double x0 = Math.floor(tile.x * levelScale) - view.x;
+                double y0 = Math.floor(tile.y * levelScale) - view.y;
+                double x1 = Math.floor(tile.getMaxX() * levelScale) - view.x;
+                double y1 = Math.floor(tile.getMaxY() * levelScale) - view.y;
+                Image image = previewOnly ? null : tileImage(level, tx, ty, tile, deadline);
+                if (image != null) {
+                    g.drawImage(image, x0, y0, x1 - x0, y1 - y0);
+                } else if (!previewOnly && drawCoarser(g, level, tile, x0, y0, x1 - x0, y1 - y0)) {
+                    continue;
+                } else if (preview != null) {
+                    Rect base = pyramid.getBaseRegion(level, tile);
+                    double sx = preview.getWidth() / getDocumentWidth();
+                    double sy = preview.getHeight() / getDocumentHeight();
+                    g.drawImage(preview, base.x * sx, base.y * sy, base.width * sx, base.height * sy,
+                                x0, y0, x1 - x0, y1 - y0);
+                }
+            }
+        }
+
+        // Flattened tiles only the pyramid was built from can go, and so can layer tiles out of view
+        if (compositor.getResult().getAllocatedBytes() > MAX_RESULT_BYTES) {
+            compositor.discard(level == 0 ? wanted : new Rect(0, 0, 0, 0));
+        }
+        compositor.evictSourceTiles(wanted, MAX_EVICTABLE_TILES);
+    }
+
+    /**
+     * Null while the layers under the tile are still loading, or if the
+     * pulse is out of time; the tile is then tried again on the next one.
+     */
+    private Image tileImage(int level, int tileX, int tileY, Rect tile, long deadline) {
+        long key = tileKey(level, tileX, tileY);
+        WritableImage image = tileImages.get(key);
+        if (image != null) {
+            return image;
+        }
+        if (System.nanoTime() > deadline) {
+            needsRender = true;
+            return null;
+        }
+        Rect base = pyramid.getBaseRegion(level, tile);
+        if (level == 0 ? compositor.isDirty(tile) : pyramid.isDirty(level, tile)) {
+            if (!isLoaded(base)) {
+                return null;
+            }
+            compositor.composite(base);
+            pyramid.update(level, tile);
+        }
+        int[] pixels = new int[tile.width * tile.height];
+        pyramid.getLevel(level).readPixels(tile.x, tile.y, tile.width, tile.height, pixels, 0, tile.width);
+        image = new WritableImage(tile.width, tile.height);
+        image.getPixelWriter().setPixels(0, 0, tile.width, tile.height,
+            PixelFormat.getIntArgbPreInstance(), pixels, 0, tile.width);
+        tileImages.put(key, image);
+        return image;
+    }
+
+    // Stretches the matching part of a cached tile from a smaller level over the tile
+    private boolean drawCoarser(GraphicsContext g, int level, Rect tile, double x, double y, double w, double h) {
+        int size = TiledPixelStore.TILE_SIZE;
+        for (int coarser = level + 1; coarser < pyramid.getLevelCount(); coarser++) {
+            double factor = 1 << (coarser - level);
+            int tileX = (int) (tile.x / factor) / size;
+            int tileY = (int) (tile.y / factor) / size;
+            WritableImage image = tileImages.get(tileKey(coarser, tileX, tileY));
+            if (image != null) {
+                g.drawImage(image, tile.x / factor - tileX * size, tile.y / factor - tileY * size,
+                            tile.width / factor, tile.height / factor, x, y, w, h);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long tileKey(int level, int tileX, int tileY) {
+        return ((long) level << 48) | ((long) tileY << 24) | tileX;
+    }
+
+    // Queues the layer tiles under region that are not loaded yet
+    private boolean isLoaded(Rect region) {
+        int size = TiledPixelStore.TILE_SIZE;
+        boolean loaded = true;
+        for (int ty = region.y / size; ty * size < region.getMaxY(); ty++) {
+            for (int tx = region.x / size; tx * size < region.getMaxX(); tx++) {
+                for (TiledPixelStore store : compositor.getUnloaded(tx, ty)) {
+                    request(store, tx, ty);
+                    loaded = false;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    // Decodes a layer tile off the FX thread, unless it scrolled out of view before its turn
+    private void request(TiledPixelStore store, int tileX, int tileY) {
+        List<Object> key = List.of(store, tileX, tileY);
+        if (!requested.add(key)) {
+            return;
+        }
+        Task<TileData> load = new Task<>() {
+            @Override
+            protected TileData call() {
+                return store.getTileBounds(tileX, tileY).intersects(wanted) ? store.fetchTile(tileX, tileY) : null;
+            }
+        };
+        load.setOnSucceeded(e -> {
+            requested.remove(key);
+            if (load.getValue() != null) {
+                store.supplyTile(tileX, tileY, load.getValue());
+            } else {
+                needsRender = true;
+            }
+        });
+        JobScheduler.getDefault().submitSerial(JobScheduler.Priority.INTERACTIVE, TILE_LANE, load);
+    }
+
+    private void invalidated(Rect region) {
+        damage = Rect.union(damage, region);
+        needsRender = true;
+    }
+
+    private void dropTileImages(Rect region) {
+        int size = TiledPixelStore.TILE_SIZE;
+        Iterator<Long> keys = tileImages.keySet().iterator();
+        while (keys.hasNext()) {
+            long key = keys.next();
+            int level = (int) (key >>> 48);
+            int tileY = (int) ((key >>> 24) & 0xFFFFFF);
+            int tileX = (int) (key & 0xFFFFFF);
+            Rect tile = new Rect(tileX * size, tileY * size, size, size);
+            if (pyramid.getBaseRegion(level, tile).intersects(region)) {
+                keys.remove();
+            }
+        }
+    }
+}
@@ -1,14 +1,16 @@
 module com.snipshot {
+    requires transitive com.snipshot.core;
     requires javafx.controls;
     requires javafx.fxml;
-    requires java.desktop;
     requires javafx.swing;
+    requires jdk.jfr;
 
     exports com.snipshot;
     exports com.snipshot.controller;
+    exports com.snipshot.events;
     exports com.snipshot.model;
     exports com.snipshot.view;
     
     opens com.snipshot to javafx.fxml;
     opens com.snipshot.view to javafx.fxml;
-} 
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package com.snipshot.view;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The main window's keyboard shortcuts, pressed on a headless toolkit (see
+ * the surefire configuration): each must reach an item of a menu that is
+ * actually part of the window. The window is styled but never shown, as
+ * laying out text needs native font libraries a build machine may lack.
+ */
+class MainViewTest {
+    private static Scene scene;
+
+    @BeforeAll
+    static void showWindow() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        scene = onFx(() -> {
+            Scene created = new MainView().getStage().getScene();
+            // Styling creates the skins, which is when menu buttons hand their shortcuts to the scene
+            created.getRoot().applyCss();
+            return created;
+        });
+    }
+
+    @Test
+    void zoomShortcutsChangeTheZoom() throws Exception {
+        ViewportRenderer renderer = onFx(() -> find(scene.getRoot(), ViewportRenderer.class));
+        double zoom = onFx(renderer::getZoom);
+
+        assertEquals(zoom * 1.25, onFx(() -> press(KeyCode.EQUALS, renderer::getZoom)), 1e-9);
+        assertEquals(zoom, onFx(() -> press(KeyCode.MINUS, renderer::getZoom)), 1e-9);
+    }
+
+    @Test
+    void f3TogglesThePerformanceHud() throws Exception {
+        MetricsHud hud = onFx(() -> find(scene.getRoot(), MetricsHud.class));
+        assertFalse(onFx(hud::isVisible));
+
+        assertTrue(onFx(() -> press(KeyCode.F3, hud::isVisible)));
+        assertFalse(onFx(() -> press(KeyCode.F3, hud::isVisible)));
+    }
+
+    // Presses Shortcut+code, or code alone for function keys, and reads the result
+    private static <T> T press(KeyCode code, Callable<T> result) throws Exception {
+        boolean shortcut = !code.isFunctionKey();
+        Event.fireEvent(scene.getRoot(), new KeyEvent(KeyEvent.KEY_PRESSED, "", "", code,
+                                                      false, shortcut, false, false));
+        return result.call();
+    }
+
+    private static <T extends Node> T find(Node node, Class<T> type) {
+        if (type.isInstance(node)) {
+            return type.cast(node);
+        }
+        if (node instanceof Parent) {
+            for (Node child : ((Parent) node).getChildrenUnmodifiable()) {
+                T found = find(child, type);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <T> T onFx(Callable<T> action) throws Exception {
+        FutureTask<T> task = new FutureTask<>(action);
+        Platform.runLater(task);
+        return task.get(10, TimeUnit.SECONDS);
+    }
+}
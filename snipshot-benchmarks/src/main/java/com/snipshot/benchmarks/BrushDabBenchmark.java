@@ -0,0 +1,91 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.paint.BrushEngine;
+import com.snipshot.paint.BrushShape;
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.Rect;
+import com.snipshot.raster.TiledPixelStore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dab throughput of the brush engine's cached masks against building and
+ * rasterizing the shape for every dab, which is how brushes were drawn
+ * before. Both draw the same row of dabs at fractional positions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrushDabBenchmark {
+    private static final int DABS = 200;
+
+    @Param({"CIRCLE", "DIAMOND"})
+    public BrushShape shape;
+
+    @Param({"4", "25"})
+    public double radius;
+
+    private TiledPixelStore pixels;
+    private RasterGraphics g;
+    private BrushEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pixels = new TiledPixelStore(2048, 512);
+        g = new RasterGraphics(pixels);
+        g.setColor(0xCC336699);
+        engine = new BrushEngine();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DABS)
+    public Rect shapePerDab() {
+        Rect last = null;
+        for (int i = 0; i < DABS; i++) {
+            double x = 64 + i * 9.37;
+            double y = 256 + (i % 7) * 0.3;
+            if (shape == BrushShape.CIRCLE) {
+                last = g.fillOval(x - radius, y - radius, radius * 2, radius * 2);
+            } else {
+                last = g.fillPolygon(new double[] { x, x + radius, x, x - radius },
+                                     new double[] { y - radius, y, y + radius, y }, 4);
+            }
+        }
+        return last;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DABS)
+    public Rect stampedHard() {
+        return stamp(1.0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DABS)
+    public Rect stampedSoft() {
+        return stamp(0.3);
+    }
+
+    private Rect stamp(double hardness) {
+        Rect last = null;
+        for (int i = 0; i < DABS; i++) {
+            last = engine.dab(g, shape, radius, hardness, 64 + i * 9.37, 256 + (i % 7) * 0.3);
+        }
+        return last;
+    }
+}
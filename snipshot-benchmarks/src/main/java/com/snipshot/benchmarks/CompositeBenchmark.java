@@ -0,0 +1,127 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.raster.BlendOp;
+import com.snipshot.raster.Compositor;
+import com.snipshot.raster.PixelStore;
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.TiledPixelStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Flattening a layer stack from scratch, which is what the snapshot based
+ * export did on every save, against the incremental compositor after one
+ * brush stroke.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositeBenchmark {
+
+    /** A layer as the compositor sees it, without JavaFX. */
+    static class BenchLayer implements Compositor.Source {
+        final TiledPixelStore pixels;
+
+        BenchLayer(int width, int height) {
+            pixels = new TiledPixelStore(width, height);
+        }
+
+        @Override
+        public PixelStore getPixels() {
+            return pixels;
+        }
+
+        @Override
+        public double getOpacity() {
+            return 0.9;
+        }
+
+        @Override
+        public boolean isVisible() {
+            return true;
+        }
+
+        @Override
+        public BlendOp getBlendOp() {
+            return BlendOp.SRC_OVER;
+        }
+    }
+
+    @Param({"3840x2160", "7680x4320"})
+    public String size;
+
+    @Param({"10"})
+    public int layers;
+
+    private int width;
+    private int height;
+    private List<BenchLayer> stack;
+    private Compositor compositor;
+    private RasterGraphics top;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        random = new Random(7);
+        stack = new ArrayList<>();
+        BenchLayer background = new BenchLayer(width, height);
+        background.pixels.fill(0, 0, width, height, 0xFFFFFFFF);
+        stack.add(background);
+        for (int i = 1; i < layers; i++) {
+            BenchLayer layer = new BenchLayer(width, height);
+            RasterGraphics g = new RasterGraphics(layer.pixels);
+            g.setColor(0xFF000000 | random.nextInt(0xFFFFFF));
+            for (int s = 0; s < 20; s++) {
+                stroke(g);
+            }
+            stack.add(layer);
+        }
+        compositor = new Compositor(width, height);
+        compositor.setSources(stack);
+        compositor.composite();
+        top = new RasterGraphics(stack.get(stack.size() - 1).pixels);
+    }
+
+    @Benchmark
+    public PixelStore fullFlatten() {
+        Compositor fresh = new Compositor(width, height);
+        fresh.setSources(stack);
+        PixelStore result = fresh.composite();
+        fresh.dispose();
+        return result;
+    }
+
+    @Benchmark
+    public PixelStore incrementalAfterStroke() {
+        stroke(top);
+        return compositor.composite();
+    }
+
+    private void stroke(RasterGraphics g) {
+        double x = random.nextDouble() * width;
+        double y = random.nextDouble() * height;
+        for (int i = 0; i < 30; i++) {
+            g.fillOval(x + i * 4 - 8, y - 8, 16, 16);
+        }
+    }
+}
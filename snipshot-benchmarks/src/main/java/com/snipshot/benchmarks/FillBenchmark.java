@@ -0,0 +1,63 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.paint.PaintEngine;
+import com.snipshot.raster.Surface;
+import com.snipshot.raster.TiledPixelStore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rectangle tool fills through the paint engine. Opaque fills on whole pixels take
+ * the tile fill path; translucent or fractional ones are rasterized and
+ * blended, which is what the alpha and offset parameters switch between.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FillBenchmark {
+    private static final int SIZE = 4096;
+
+    @Param({"64", "1024", "4000"})
+    public int size;
+
+    @Param({"1.0", "0.5"})
+    public double alpha;
+
+    @Param({"0", "0.5"})
+    public double offset;
+
+    private PaintEngine paint;
+    private Surface surface;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        paint = new PaintEngine();
+        paint.setColor((int) Math.round(alpha * 255) << 24 | 0xC83C1E);
+        surface = Surface.of(new TiledPixelStore(SIZE, SIZE));
+        surface.getPixels().fill(0, 0, SIZE, SIZE, 0xFFFFFFFF);
+    }
+
+    @Benchmark
+    public void filled() {
+        paint.drawRectangle(surface, 40 + offset, 40 + offset, size, size, true);
+    }
+
+    @Benchmark
+    public void outline() {
+        paint.drawRectangle(surface, 40 + offset, 40 + offset, size, size, false);
+    }
+}
@@ -0,0 +1,81 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.raster.ImageTileLoader;
+import com.snipshot.raster.RasterImages;
+import com.snipshot.raster.TiledPixelStore;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening an image file: decoding all of it into tiles, as small images
+ * are opened, against the streamed path for large ones, which reads a
+ * subsampled preview and only the tiles of the first screenful.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageOpenBenchmark {
+    private static final int PREVIEW_SIZE = 2048;
+    private static final int VIEW_WIDTH = 1920;
+    private static final int VIEW_HEIGHT = 1080;
+
+    @Param({"png", "jpg"})
+    public String format;
+
+    @Param({"3840x2160", "7680x4320"})
+    public String size;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] parts = size.split("x");
+        TiledPixelStore image = PngEncodeBenchmark.screenshot(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        file = File.createTempFile("snipshot-open", "." + format);
+        ImageIO.write(RasterImages.toBufferedImage(image, format.equals("jpg")), format, file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public TiledPixelStore decoded() throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        return RasterImages.toPixelStore(image);
+    }
+
+    @Benchmark
+    public int streamed() throws IOException {
+        try (ImageTileLoader loader = ImageTileLoader.open(file)) {
+            BufferedImage preview = loader.readPreview(PREVIEW_SIZE);
+            TiledPixelStore store = loader.createStore();
+            int width = Math.min(VIEW_WIDTH, store.getWidth());
+            int height = Math.min(VIEW_HEIGHT, store.getHeight());
+            int[] view = new int[width * height];
+            store.readPixels(0, 0, width, height, view, 0, width);
+            store.release();
+            return preview.getWidth() + view[view.length - 1];
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.raster.RasterImages;
+import com.snipshot.raster.TiledPixelStore;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JPEG export the way the save task does it: the flattened store is put on
+ * white in a BufferedImage and handed to ImageIO. Both steps are measured
+ * together and the conversion on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JpegEncodeBenchmark {
+
+    @Param({"3840x2160", "7680x4320"})
+    public String size;
+
+    private TiledPixelStore image;
+    private ByteArrayOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        image = PngEncodeBenchmark.screenshot(width, height);
+        out = new ByteArrayOutputStream(width * height / 4);
+    }
+
+    @Benchmark
+    public int export() throws IOException {
+        out.reset();
+        ImageIO.write(RasterImages.toBufferedImage(image, true), "jpg", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public Object convert() {
+        return RasterImages.toBufferedImage(image, true);
+    }
+}
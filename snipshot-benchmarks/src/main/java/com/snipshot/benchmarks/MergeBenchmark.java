@@ -0,0 +1,84 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.benchmarks.CompositeBenchmark.BenchLayer;
+import com.snipshot.raster.Compositor;
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.Rect;
+import com.snipshot.raster.TiledPixelStore;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merge Down: one layer composited into the layer below it. The lower layer
+ * is a fresh snapshot each time, so its shared tiles are copied as they are
+ * written, as they are when the history keeps the old ones. A sparse upper
+ * layer only touches the tiles it has paint in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+    private static final int WIDTH = 3840;
+    private static final int HEIGHT = 2160;
+
+    @Param({"sparse", "full"})
+    public String upper;
+
+    private TiledPixelStore lower;
+    private BenchLayer layer;
+    private TiledPixelStore target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lower = new TiledPixelStore(WIDTH, HEIGHT);
+        lower.fill(0, 0, WIDTH, HEIGHT, 0xFFFFFFFF);
+        layer = new BenchLayer(WIDTH, HEIGHT);
+        Random random = new Random(5);
+        if (upper.equals("full")) {
+            int[] row = new int[WIDTH];
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    row[x] = 0x80000000 | (random.nextInt(0x80) << 16) | (random.nextInt(0x80) << 8);
+                }
+                layer.pixels.writePixels(0, y, WIDTH, 1, row, 0, WIDTH);
+            }
+        } else {
+            RasterGraphics g = new RasterGraphics(layer.pixels);
+            for (int i = 0; i < 20; i++) {
+                g.setColor(0xFF000000 | random.nextInt(0xFFFFFF));
+                g.fillOval(random.nextInt(WIDTH - 200), random.nextInt(HEIGHT - 200), 180, 180);
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void snapshot() {
+        target = lower.snapshot();
+    }
+
+    @TearDown(Level.Invocation)
+    public void release() {
+        target.release();
+    }
+
+    @Benchmark
+    public Rect mergeDown() {
+        return Compositor.compositeInto(target, layer);
+    }
+}
@@ -0,0 +1,114 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.raster.PngEncoder;
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.RasterImages;
+import com.snipshot.raster.TiledPixelStore;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PNG export of a screenshot-like image through ImageIO against the parallel
+ * strip encoder. The encoded size is printed once per trial so compression
+ * can be compared too; run with -p level=... -p filter=... to try settings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngEncodeBenchmark {
+
+    @Param({"3840x2160", "7680x4320"})
+    public String size;
+
+    @Param({"6"})
+    public int level;
+
+    @Param({"NONE"})
+    public String filter;
+
+    private TiledPixelStore image;
+    private BufferedImage bufferedImage;
+    private PngEncoder encoder;
+    private ByteArrayOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        image = screenshot(width, height);
+        bufferedImage = RasterImages.toBufferedImage(image, false);
+        encoder = new PngEncoder();
+        encoder.setCompressionLevel(level);
+        encoder.setFilter(PngEncoder.Filter.valueOf(filter));
+        out = new ByteArrayOutputStream(width * height);
+
+        imageIO();
+        int imageIOSize = out.size();
+        parallel();
+        System.out.printf("%n%s: ImageIO %d bytes, parallel %d bytes%n", size, imageIOSize, out.size());
+    }
+
+    @Benchmark
+    public int imageIO() throws IOException {
+        out.reset();
+        ImageIO.write(bufferedImage, "png", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int parallel() throws IOException {
+        out.reset();
+        encoder.write(image, out);
+        return out.size();
+    }
+
+    // Window chrome, panels and text on a flat background
+    static TiledPixelStore screenshot(int width, int height) {
+        TiledPixelStore store = new TiledPixelStore(width, height);
+        RasterGraphics g = new RasterGraphics(store);
+        Random random = new Random(11);
+        g.setColor(0xFFECEFF1);
+        g.fillRect(0, 0, width, height);
+        g.setColor(0xFF263238);
+        g.fillRect(0, 0, width, 48);
+        Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 16);
+        for (int i = 0; i < 40; i++) {
+            int x = random.nextInt(width - 400);
+            int y = 60 + random.nextInt(height - 360);
+            int w = 200 + random.nextInt(600);
+            int h = 100 + random.nextInt(300);
+            g.setColor(0xFFFFFFFF);
+            g.fillRect(x, y, w, h);
+            g.setColor(0xFF90A4AE);
+            g.strokeRect(x, y, w, h, 1);
+            g.setColor(0xFF000000 | random.nextInt(0xFFFFFF));
+            g.fillRect(x, y, w, 24);
+            g.setColor(0xFF37474F);
+            for (int line = 48; line < h - 8; line += 22) {
+                g.fillText("Lorem ipsum dolor sit amet " + random.nextInt(100000), font, x + 8, y + line);
+            }
+        }
+        return store;
+    }
+}
@@ -0,0 +1,94 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.raster.PixelStore;
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.TiledPixelStore;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds sparse multi-layer documents on the tiled pixel store and reports how
+ * much memory they actually hold compared to one dense buffer per layer.
+ *
+ * Usage: SparseLayerMemoryBenchmark [width] [height] [layers] [strokesPerLayer]
+ */
+public class SparseLayerMemoryBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 6000;
+        int layers = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int strokes = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+        long start = System.nanoTime();
+
+        List<PixelStore> document = new ArrayList<>();
+        Random random = new Random(42);
+
+        // Opaque background, stored as uniform tiles
+        TiledPixelStore background = new TiledPixelStore(width, height);
+        background.fill(0, 0, width, height, 0xFFFFFFFF);
+        document.add(background);
+
+        for (int i = 1; i < layers; i++) {
+            TiledPixelStore layer = new TiledPixelStore(width, height);
+            RasterGraphics g = new RasterGraphics(layer);
+            g.setColor(0xFF000000 | random.nextInt(0xFFFFFF));
+            for (int s = 0; s < strokes; s++) {
+                paintStroke(g, random, width, height);
+            }
+            document.add(layer);
+        }
+
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        long storeBytes = document.stream().mapToLong(PixelStore::getAllocatedBytes).sum();
+        long denseBytes = (long) width * height * 4 * layers;
+
+        System.out.printf("Document          %d x %d, %d layers, %d strokes per layer%n",
+            width, height, layers, strokes);
+        System.out.printf("Build time        %d ms%n", elapsedMs);
+        System.out.printf("Tile memory       %s%n", format(storeBytes));
+        System.out.printf("Direct buffers    %s%n", format(usedDirect() - directBefore));
+        System.out.printf("Heap growth       %s%n", format(Math.max(0, usedHeap() - heapBefore)));
+        System.out.printf("Dense equivalent  %s (%.1fx more)%n",
+            format(denseBytes), denseBytes / (double) Math.max(1, storeBytes));
+    }
+
+    // A short brush-like stroke: overlapping dabs along a random segment
+    private static void paintStroke(RasterGraphics g, Random random, int width, int height) {
+        double x = random.nextDouble() * width;
+        double y = random.nextDouble() * height;
+        double angle = random.nextDouble() * Math.PI * 2;
+        double length = 100 + random.nextDouble() * 400;
+        double radius = 4 + random.nextDouble() * 12;
+        for (double d = 0; d < length; d += radius / 2) {
+            double cx = x + Math.cos(angle) * d;
+            double cy = y + Math.sin(angle) * d;
+            g.fillOval(cx - radius, cy - radius, radius * 2, radius * 2);
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private static String format(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
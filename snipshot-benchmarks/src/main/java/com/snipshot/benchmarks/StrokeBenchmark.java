@@ -0,0 +1,78 @@
+package com.snipshot.benchmarks;
+
+import com.snipshot.paint.PaintEngine;
+import com.snipshot.paint.StrokeTool;
+import com.snipshot.raster.Surface;
+import com.snipshot.raster.TiledPixelStore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One whole pencil, brush or eraser stroke through the paint engine, the
+ * way the view drives it: pointer samples queued as they come and drawn once per
+ * frame. The layer starts out white each time so the eraser always has
+ * something to take away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeBenchmark {
+    private static final int SIZE = 2048;
+    private static final int SAMPLES = 240;
+    private static final int SAMPLES_PER_FRAME = 4; // a fast drag at 60 Hz
+
+    @Param({"PENCIL", "BRUSH", "ERASER"})
+    public StrokeTool tool;
+
+    @Param({"2", "10", "40"})
+    public double radius;
+
+    @Param({"1.0", "0.5"})
+    public double hardness; // brush only, soft brushes are stamped dab by dab
+
+    private PaintEngine paint;
+    private Surface surface;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        paint = new PaintEngine();
+        paint.setColor(0xCC285AA0); // rgb(40, 90, 160) at 80%
+        paint.setBrushRadius(radius);
+        paint.setBrushHardness(hardness);
+        paint.setEraserRadius(radius);
+        surface = Surface.of(new TiledPixelStore(SIZE, SIZE));
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        surface.getPixels().fill(0, 0, SIZE, SIZE, 0xFFFFFFFF);
+    }
+
+    @Benchmark
+    public boolean stroke() {
+        paint.beginStroke(surface, tool, 100, SIZE / 2.0);
+        for (int i = 1; i < SAMPLES; i++) {
+            double x = 100 + i * 7.5;
+            double y = SIZE / 2.0 + Math.sin(i * 0.05) * 400;
+            paint.continueStroke(x, y);
+            if (i % SAMPLES_PER_FRAME == 0) {
+                paint.flushStroke();
+            }
+        }
+        return paint.endStroke();
+    }
+}
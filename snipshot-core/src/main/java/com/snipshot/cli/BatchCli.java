@@ -0,0 +1,140 @@
+package com.snipshot.cli;
+
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.RasterImages;
+import com.snipshot.raster.TiledPixelStore;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * Applies a {@link BatchScript} to every image of a directory without starting
+ * the JavaFX toolkit.
+ *
+ * <pre>
+ * java -cp snipshot-core.jar com.snipshot.cli.BatchCli script.txt input-dir output-dir [--threads N] [--format png|jpg]
+ * </pre>
+ *
+ * Images are processed by a fixed pool with a bounded queue, so only a few
+ * images are ever in memory however large the directory is.
+ */
+public class BatchCli {
+    private static final String USAGE =
+        "Usage: BatchCli <script> <input-dir> <output-dir> [--threads N] [--format png|jpg]";
+
+    private final BatchScript script;
+    private final Path outputDir;
+    private final String format;
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public BatchCli(BatchScript script, Path outputDir, String format) {
+        this.script = script;
+        this.outputDir = outputDir;
+        this.format = format;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 3) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        String format = null;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--format") && i + 1 < args.length) {
+                format = args[++i].toLowerCase(Locale.ROOT);
+            } else {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+        }
+
+        BatchScript script = BatchScript.load(Paths.get(args[0]));
+        Path outputDir = Files.createDirectories(Paths.get(args[2]));
+        BatchCli cli = new BatchCli(script, outputDir, format);
+
+        long start = System.nanoTime();
+        cli.run(Paths.get(args[1]), threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(Locale.ROOT, "%d images in %.2f s (%.1f images/s, %d threads), %d failed%n",
+            cli.processed.get(), seconds, cli.processed.get() / Math.max(seconds, 1e-9),
+            threads, cli.failed.get());
+        System.exit(cli.failed.get() == 0 ? 0 : 1);
+    }
+
+    public void run(Path inputDir, int threads) throws IOException, InterruptedException {
+        // The queue holds two images per worker; when it is full the reader thread
+        // processes the image itself, which throttles directory listing
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inputDir, BatchCli::isImage)) {
+            for (Path file : files) {
+                pool.execute(() -> process(file));
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+    }
+
+    private void process(Path file) {
+        try {
+            BufferedImage input = ImageIO.read(file.toFile());
+            if (input == null) {
+                throw new IOException("Unsupported image");
+            }
+            TiledPixelStore pixels = RasterImages.toPixelStore(input);
+            input = null;
+            try {
+                script.apply(new RasterGraphics(pixels));
+
+                String name = file.getFileName().toString();
+                String outputFormat = format != null ? format : extension(name);
+                File output = outputDir.resolve(baseName(name) + "." + outputFormat).toFile();
+                BufferedImage result = RasterImages.toBufferedImage(pixels, outputFormat.equals("jpg"));
+                if (!ImageIO.write(result, outputFormat, output)) {
+                    throw new IOException("No writer for " + outputFormat);
+                }
+            } finally {
+                // Frees the off-heap tiles now rather than whenever the GC gets to them
+                pixels.release();
+            }
+            processed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.err.println(file + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean isImage(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return Files.isRegularFile(path)
+            && (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")
+                || name.endsWith(".gif") || name.endsWith(".bmp"));
+    }
+
+    private static String extension(String name) {
+        String ext = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        return ext.equals("png") ? "png" : "jpg";
+    }
+
+    private static String baseName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+}
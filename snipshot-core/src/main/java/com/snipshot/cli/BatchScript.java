@@ -0,0 +1,150 @@
+package com.snipshot.cli;
+
+import com.snipshot.raster.RasterGraphics;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Sequence of annotation operations applied to every image of a batch run.
+ * One operation per line, '#' starts a comment:
+ *
+ * <pre>
+ * color #RRGGBB[AA]
+ * rect x y width height [fill|outline]
+ * text x y size family text...
+ * paste image-file x y
+ * </pre>
+ *
+ * Coordinates are the top-left corner, like the rectangle, text and paste
+ * tools in the editor. Text uses '\n' for line breaks.
+ */
+public class BatchScript {
+
+    /** One step of the script, applied to an image's pixels. */
+    public interface Operation {
+        void apply(RasterGraphics g);
+    }
+
+    private final List<Operation> operations;
+
+    private BatchScript(List<Operation> operations) {
+        this.operations = Collections.unmodifiableList(operations);
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    // Operations are immutable, so one script is shared by all workers
+    public void apply(RasterGraphics g) {
+        for (Operation operation : operations) {
+            operation.apply(g);
+        }
+    }
+
+    public static BatchScript load(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Path base = file.toAbsolutePath().getParent();
+        List<Operation> operations = new ArrayList<>();
+        int color = 0xFF000000;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            try {
+                switch (parts[0]) {
+                    case "color":
+                        color = parseColor(parts[1]);
+                        break;
+                    case "rect":
+                        operations.add(rectangle(color, parts));
+                        break;
+                    case "text":
+                        operations.add(text(color, line.split("\\s+", 6)));
+                        break;
+                    case "paste":
+                        operations.add(paste(base.resolve(parts[1]).toFile(),
+                            Integer.parseInt(parts[2]), Integer.parseInt(parts[3])));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown operation '" + parts[0] + "'");
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(file + ":" + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return new BatchScript(operations);
+    }
+
+    // Same drawing as MainModel.drawRectangle: optional fill plus a one pixel outline
+    private static Operation rectangle(int color, String[] parts) {
+        double x = Double.parseDouble(parts[1]);
+        double y = Double.parseDouble(parts[2]);
+        double width = Double.parseDouble(parts[3]);
+        double height = Double.parseDouble(parts[4]);
+        boolean filled = parts.length < 6 || !parts[5].equals("outline");
+        return g -> {
+            g.setColor(color);
+            if (filled) {
+                g.fillRect(x, y, width, height);
+            }
+            g.strokeRect(x, y, width, height, 1);
+        };
+    }
+
+    // Everything after the family is the text, spacing preserved
+    private static Operation text(int color, String[] parts) {
+        double x = Double.parseDouble(parts[1]);
+        double y = Double.parseDouble(parts[2]);
+        int size = Integer.parseInt(parts[3]);
+        String text = parts[5].replace("\\n", "\n");
+        Font font = new Font(parts[4], Font.PLAIN, size);
+        return g -> {
+            g.setColor(color);
+            g.fillText(text, font, x, y + size);
+        };
+    }
+
+    private static Operation paste(File file, int x, int y) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(file);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + file, e);
+        }
+        if (image == null) {
+            throw new IllegalArgumentException("Unsupported image " + file);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage converted = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        converted.createGraphics().drawImage(image, 0, 0, null);
+        int[] pixels = ((DataBufferInt) converted.getRaster().getDataBuffer()).getData();
+        return g -> g.drawImage(pixels, width, height, x, y);
+    }
+
+    private static int parseColor(String value) {
+        String hex = value.startsWith("#") ? value.substring(1) : value;
+        if (hex.length() == 6) {
+            return 0xFF000000 | Integer.parseInt(hex, 16);
+        }
+        if (hex.length() == 8) {
+            // RRGGBBAA, like JavaFX web colors
+            long rgba = Long.parseLong(hex, 16);
+            return (int) (((rgba & 0xFF) << 24) | (rgba >>> 8));
+        }
+        throw new IllegalArgumentException("Invalid color '" + value + "'");
+    }
+}
@@ -0,0 +1,29 @@
+package com.snipshot.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A running total, cheap to bump from any number of threads.
+ */
+public final class Counter {
+    private final LongAdder total = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        total.increment();
+    }
+
+    public void add(long amount) {
+        total.add(amount);
+    }
+
+    public long get() {
+        return total.sum();
+    }
+
+    void reset() {
+        total.reset();
+    }
+}
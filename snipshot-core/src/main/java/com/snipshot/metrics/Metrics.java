@@ -0,0 +1,111 @@
+package com.snipshot.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named counters and histograms for the hot paths. Callers look theirs up
+ * once and keep it in a static field; recording is then a few atomic adds,
+ * cheap enough to leave on. Everything is readable over JMX once
+ * {@link #registerMBean()} was called.
+ */
+public final class Metrics {
+    public static final String OBJECT_NAME = "com.snipshot:type=Metrics";
+    public static final String NANOS = "ns";
+    public static final String BYTES = "bytes";
+
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public static Histogram histogram(String name, String unit) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(unit));
+    }
+
+    // By name, in name order
+    public static Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    public static Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    public static void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * Bytes the calling thread has allocated on the heap so far, or -1 where
+     * the JVM does not count them. The difference of two calls is what the
+     * code in between allocated.
+     */
+    public static long allocatedBytes() {
+        return threads == null ? -1 : threads.getCurrentThreadAllocatedBytes();
+    }
+
+    // Records what the calling thread allocated since start, an allocatedBytes() value
+    public static void recordAllocatedSince(Histogram histogram, long start) {
+        if (start >= 0) {
+            histogram.record(allocatedBytes() - start);
+        }
+    }
+
+    // Safe to call more than once
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MXBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    private static final class MXBean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> values = new TreeMap<>();
+            counters.forEach((name, counter) -> values.put(name, counter.get()));
+            return values;
+        }
+
+        @Override
+        public Map<String, Histogram.Snapshot> getHistograms() {
+            Map<String, Histogram.Snapshot> values = new TreeMap<>();
+            histograms.forEach((name, histogram) -> values.put(name, histogram.getSnapshot()));
+            return values;
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
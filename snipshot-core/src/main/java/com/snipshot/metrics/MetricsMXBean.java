@@ -0,0 +1,14 @@
+package com.snipshot.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics as seen from JMX, under {@value Metrics#OBJECT_NAME}.
+ */
+public interface MetricsMXBean {
+    Map<String, Long> getCounters();
+
+    Map<String, Histogram.Snapshot> getHistograms();
+
+    void reset();
+}
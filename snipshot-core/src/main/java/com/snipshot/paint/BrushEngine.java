@@ -0,0 +1,86 @@
+package com.snipshot.paint;
+
+import com.snipshot.raster.DabMask;
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.Rect;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brush dabs rendered once per shape, radius and hardness and then stamped
+ * as alpha masks. Dab centres are rounded to a quarter pixel, so one brush
+ * needs at most 16 masks; the least recently used ones go first once the
+ * cache is over its budget.
+ */
+public class BrushEngine {
+    private static final int PHASES = 4; // subpixel positions per axis
+    private static final int HARDNESS_STEPS = 64;
+    private static final long MAX_CACHE_BYTES = 16L << 20;
+
+    private final Map<List<Object>, DabMask> masks = new LinkedHashMap<>(32, 0.75f, true);
+    private long cacheBytes;
+
+    // Stamps one dab centred at (x, y) in the graphics' current color
+    public Rect dab(RasterGraphics gc, BrushShape shape, double radius, double hardness, double x, double y) {
+        int px = (int) Math.floor(x);
+        int py = (int) Math.floor(y);
+        int phaseX = (int) Math.round((x - px) * PHASES);
+        int phaseY = (int) Math.round((y - py) * PHASES);
+        if (phaseX == PHASES) {
+            px++;
+            phaseX = 0;
+        }
+        if (phaseY == PHASES) {
+            py++;
+            phaseY = 0;
+        }
+        return gc.stamp(mask(shape, radius, hardness, phaseX, phaseY), px, py);
+    }
+
+    private DabMask mask(BrushShape shape, double radius, double hardness, int phaseX, int phaseY) {
+        int hardnessStep = (int) Math.round(Math.max(0, Math.min(1, hardness)) * HARDNESS_STEPS);
+        List<Object> key = List.of(shape, radius, hardnessStep, phaseX, phaseY);
+        DabMask mask = masks.get(key);
+        if (mask == null) {
+            double h = hardnessStep / (double) HARDNESS_STEPS;
+            double fx = phaseX / (double) PHASES;
+            double fy = phaseY / (double) PHASES;
+            mask = shape == BrushShape.CIRCLE
+                ? DabMask.circle(radius, h, fx, fy)
+                : DabMask.polygon(cornersX(shape, radius), cornersY(shape, radius), h, fx, fy);
+            masks.put(key, mask);
+            cacheBytes += mask.getByteSize();
+            Iterator<DabMask> eldest = masks.values().iterator();
+            while (cacheBytes > MAX_CACHE_BYTES && masks.size() > 1) {
+                cacheBytes -= eldest.next().getByteSize();
+                eldest.remove();
+            }
+        }
+        return mask;
+    }
+
+    // Corners of a polygonal brush shape around its centre
+    static double[] cornersX(BrushShape shape, double radius) {
+        switch (shape) {
+            case SQUARE:
+                return new double[] { -radius, radius, radius, -radius };
+            case DIAMOND:
+                return new double[] { 0, radius, 0, -radius };
+            default:
+                return new double[] { 0, radius, -radius };
+        }
+    }
+
+    static double[] cornersY(BrushShape shape, double radius) {
+        switch (shape) {
+            case SQUARE:
+                return new double[] { -radius, -radius, radius, radius };
+            case DIAMOND:
+                return new double[] { -radius, 0, radius, 0 };
+            default:
+                return new double[] { -radius, radius, radius };
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.snipshot.paint;
+
+public enum BrushShape {
+    CIRCLE("Circle"),
+    SQUARE("Square"),
+    DIAMOND("Diamond"),
+    TRIANGLE("Triangle");
+
+    private final String displayName;
+
+    BrushShape(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
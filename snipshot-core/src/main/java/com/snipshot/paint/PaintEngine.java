@@ -0,0 +1,274 @@
+package com.snipshot.paint;
+
+import com.snipshot.metrics.Counter;
+import com.snipshot.metrics.Histogram;
+import com.snipshot.metrics.Metrics;
+import com.snipshot.raster.RasterGraphics;
+import com.snipshot.raster.Rect;
+import com.snipshot.raster.SelectionMask;
+import com.snipshot.raster.Surface;
+import com.snipshot.raster.TiledPixelStore;
+import java.awt.Font;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Pencil, brush and eraser strokes and the shape tools, drawn on any
+ * {@link Surface}. Holds the tool settings; it knows nothing of JavaFX, so
+ * the app, batch jobs and benchmarks all paint through the same code.
+ */
+public class PaintEngine {
+    private static final double MIN_DAB_SPACING = 1.0;
+    private static final int MIN_DABS_PER_FLUSH = 64;
+    private static final double MAX_DAB_PIXELS_PER_FLUSH = 4_000_000;
+    private static final Histogram FLUSH_TIME = Metrics.histogram("stroke.flush", Metrics.NANOS);
+    private static final Histogram FLUSH_DABS = Metrics.histogram("stroke.dabs", "dabs");
+    private static final Histogram FLUSH_ALLOCATED = Metrics.histogram("stroke.allocated", Metrics.BYTES);
+    private static final Counter STROKES = Metrics.counter("strokes");
+    private static final Counter DABS = Metrics.counter("dabs");
+
+    private double brushRadius = 5.0;
+    private int color = 0xFF000000; // ARGB, as RasterGraphics takes it
+    private BrushShape currentBrushShape = BrushShape.CIRCLE;
+    private double brushHardness = 1.0;
+    private double brushSpacing = 0.25; // between dabs, as a fraction of the brush size
+    private double eraserRadius = 5.0;
+    private BrushShape currentEraserShape = BrushShape.CIRCLE;
+    private double eraserHardness = 1.0;
+    private final BrushEngine brushEngine = new BrushEngine();
+    private Stroke stroke;
+    private Surface strokeSurface;
+    private StrokeTool strokeTool;
+    private int dabs; // stamped since the last flush was recorded
+    private int strokeSamples;
+    private int strokeDabs;
+
+    /**
+     * Starts a pencil, brush or eraser stroke. Samples added while dragging
+     * are only queued; {@link #flushStroke} draws them as one smoothed path,
+     * so the view can call it once per frame however fast events arrive.
+     */
+    public void beginStroke(Surface surface, StrokeTool tool, double x, double y) {
+        strokeSurface = surface;
+        strokeTool = tool;
+        stroke = new Stroke(x, y);
+        strokeSamples = 1;
+        strokeDabs = 0;
+        STROKES.increment();
+        // A click without a drag still leaves a dab
+        if (tool == StrokeTool.BRUSH) {
+            RasterGraphics gc = surface.getGraphics();
+            gc.setColor(color);
+            drawBrushShape(gc, x, y, brushRadius, currentBrushShape, brushHardness);
+        } else if (tool == StrokeTool.ERASER) {
+            RasterGraphics gc = surface.getGraphics();
+            gc.setColor(0xFF000000);
+            gc.setErasing(true);
+            try {
+                drawBrushShape(gc, x, y, eraserRadius, currentEraserShape, eraserHardness);
+            } finally {
+                gc.setErasing(false);
+            }
+            compactErased(surface, x - eraserRadius, y - eraserRadius, x + eraserRadius, y + eraserRadius);
+        }
+    }
+
+    public void continueStroke(double x, double y) {
+        if (stroke != null) {
+            stroke.add(x, y);
+            strokeSamples++;
+        }
+    }
+
+    // Draws the samples queued since the last flush; false if nothing was drawn
+    public boolean flushStroke() {
+        return drawStroke(false);
+    }
+
+    // Draws what is left of the stroke, including its last segment
+    public boolean endStroke() {
+        boolean drawn = drawStroke(true);
+        stroke = null;
+        strokeSurface = null;
+        return drawn;
+    }
+
+    private boolean drawStroke(boolean end) {
+        if (stroke == null) {
+            return false;
+        }
+        Path2D.Double path = stroke.take(end);
+        if (path == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        RasterGraphics gc = strokeSurface.getGraphics();
+        switch (strokeTool) {
+            case PENCIL:
+                gc.setColor(color);
+                gc.strokeShape(path, 2);
+                break;
+            case BRUSH:
+                gc.setColor(color);
+                drawBrushPath(gc, path, brushRadius, currentBrushShape, brushHardness);
+                break;
+            case ERASER:
+                gc.setColor(0xFF000000);
+                gc.setErasing(true);
+                try {
+                    drawBrushPath(gc, path, eraserRadius, currentEraserShape, eraserHardness);
+                } finally {
+                    gc.setErasing(false);
+                }
+                Rectangle2D bounds = path.getBounds2D();
+                compactErased(strokeSurface, bounds.getMinX() - eraserRadius, bounds.getMinY() - eraserRadius,
+                              bounds.getMaxX() + eraserRadius, bounds.getMaxY() + eraserRadius);
+                break;
+        }
+        FLUSH_TIME.recordSince(start);
+        Metrics.recordAllocatedSince(FLUSH_ALLOCATED, allocated);
+        FLUSH_DABS.record(dabs);
+        DABS.add(dabs);
+        dabs = 0;
+        return true;
+    }
+
+    // Erases the selected pixels of a surface, as the eraser would
+    public void eraseSelection(Surface surface, SelectionMask selection) {
+        RasterGraphics gc = surface.getGraphics();
+        gc.setColor(0xFF000000);
+        gc.setErasing(true);
+        try {
+            gc.fillMask(selection);
+        } finally {
+            gc.setErasing(false);
+        }
+        Rect bounds = selection.getBounds();
+        compactErased(surface, bounds.x, bounds.y, bounds.getMaxX(), bounds.getMaxY());
+    }
+
+    // Tiles the eraser cleared completely go back to being empty, so compositing and saving skip them
+    private static void compactErased(Surface surface, double minX, double minY, double maxX, double maxY) {
+        if (surface.getPixels() instanceof TiledPixelStore) {
+            ((TiledPixelStore) surface.getPixels()).compact(Rect.covering(minX, minY, maxX, maxY));
+        }
+    }
+
+    /**
+     * Soft brushes are stamped as dabs spaced a percentage of their size
+     * apart. Hard brushes, and brushes so small that their dabs would be
+     * less than a pixel apart, fill the area their shape sweeps in one go
+     * instead, which looks the same and costs no more for a fast drag.
+     */
+    private void drawBrushPath(RasterGraphics gc, Path2D.Double path, double radius, BrushShape shape, double hardness) {
+        double spacing = radius * 2 * brushSpacing;
+        if (hardness < 1 && spacing >= MIN_DAB_SPACING) {
+            // However far the pointer moved this frame, stamp a bounded number of pixels
+            double maxDabs = Math.max(MIN_DABS_PER_FLUSH, MAX_DAB_PIXELS_PER_FLUSH / (4 * radius * radius));
+            spacing = Math.max(spacing, Stroke.length(path) / maxDabs);
+            stroke.dabs(path, spacing, (x, y) -> drawBrushShape(gc, x, y, radius, shape, hardness));
+        } else if (shape == BrushShape.CIRCLE) {
+            gc.strokeShape(path, radius * 2);
+        } else {
+            gc.fillShape(Stroke.sweep(path, BrushEngine.cornersX(shape, radius), BrushEngine.cornersY(shape, radius)));
+        }
+    }
+
+    public void drawRectangle(Surface surface, double x, double y, double width, double height, boolean filled) {
+        RasterGraphics gc = surface.getGraphics();
+        gc.setColor(color);
+
+        if (filled) {
+            gc.fillRect(x, y, width, height);
+        }
+        gc.strokeRect(x, y, width, height, 1);
+    }
+
+    public void drawText(Surface surface, String text, Font font, int argb, double x, double y) {
+        RasterGraphics gc = surface.getGraphics();
+        gc.setColor(argb);
+        gc.fillText(text, font, x, y);
+    }
+
+    private void drawBrushShape(RasterGraphics gc, double x, double y, double radius, BrushShape shape, double hardness) {
+        brushEngine.dab(gc, shape, radius, hardness, x, y);
+        dabs++;
+        strokeDabs++;
+    }
+
+    // Pointer samples of the current or last stroke
+    public int getStrokeSamples() {
+        return strokeSamples;
+    }
+
+    // Dabs stamped for the current or last stroke; hard brushes sweep their shape and stamp none
+    public int getStrokeDabs() {
+        return strokeDabs;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public void setColor(int argb) {
+        this.color = argb;
+    }
+
+    public void setBrushRadius(double radius) {
+        this.brushRadius = radius;
+    }
+
+    public double getBrushRadius() {
+        return brushRadius;
+    }
+
+    public double getBrushHardness() {
+        return brushHardness;
+    }
+
+    public void setBrushHardness(double hardness) {
+        this.brushHardness = Math.max(0.0, Math.min(1.0, hardness));
+    }
+
+    public double getBrushSpacing() {
+        return brushSpacing;
+    }
+
+    // Applies to the brush and eraser alike
+    public void setBrushSpacing(double spacing) {
+        this.brushSpacing = Math.max(0.01, Math.min(1.0, spacing));
+    }
+
+    public BrushShape getBrushShape() {
+        return currentBrushShape;
+    }
+
+    public void setBrushShape(BrushShape shape) {
+        this.currentBrushShape = shape;
+    }
+
+    public double getEraserRadius() {
+        return eraserRadius;
+    }
+
+    public void setEraserRadius(double radius) {
+        this.eraserRadius = radius;
+    }
+
+    public BrushShape getEraserShape() {
+        return currentEraserShape;
+    }
+
+    public void setEraserShape(BrushShape shape) {
+        this.currentEraserShape = shape;
+    }
+
+    public double getEraserHardness() {
+        return eraserHardness;
+    }
+
+    public void setEraserHardness(double hardness) {
+        this.eraserHardness = Math.max(0.0, Math.min(1.0, hardness));
+    }
+}
@@ -0,0 +1,190 @@
+package com.snipshot.paint;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * Pointer samples of one stroke, handed out as smooth paths a batch at a
+ * time. Samples are joined by a Catmull-Rom spline, so the segment between
+ * two samples can only be drawn once the sample after them is known.
+ */
+class Stroke {
+    private static final double MIN_SPACING = 0.5; // closer samples add nothing but work
+    private static final double FLATNESS = 0.25;
+
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private int count;
+    private int drawn; // the path has been handed out up to this sample
+    private double nextDab = Double.NaN; // distance along the stroke to the next dab, once dabs started
+
+    Stroke(double x, double y) {
+        xs[0] = x;
+        ys[0] = y;
+        count = 1;
+    }
+
+    void add(double x, double y) {
+        double dx = x - xs[count - 1];
+        double dy = y - ys[count - 1];
+        if (dx * dx + dy * dy < MIN_SPACING * MIN_SPACING) {
+            return;
+        }
+        if (count == xs.length) {
+            xs = Arrays.copyOf(xs, count * 2);
+            ys = Arrays.copyOf(ys, count * 2);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+    }
+
+    /**
+     * Path through the samples added since the last call, or null if there
+     * is nothing new. Until the stroke ends the last segment is held back,
+     * its curve depends on the next sample.
+     */
+    Path2D.Double take(boolean end) {
+        int last = end ? count - 1 : count - 2;
+        if (drawn >= last) {
+            return null;
+        }
+        Path2D.Double path = new Path2D.Double();
+        path.moveTo(xs[drawn], ys[drawn]);
+        for (int i = drawn; i < last; i++) {
+            // Catmull-Rom segment from i to i + 1 as a cubic Bezier; the ends repeat their sample
+            int before = Math.max(i - 1, 0);
+            int after = Math.min(i + 2, count - 1);
+            path.curveTo(xs[i] + (xs[i + 1] - xs[before]) / 6, ys[i] + (ys[i + 1] - ys[before]) / 6,
+                         xs[i + 1] - (xs[after] - xs[i]) / 6, ys[i + 1] - (ys[after] - ys[i]) / 6,
+                         xs[i + 1], ys[i + 1]);
+        }
+        drawn = last;
+        // Only the sample before the next segment is still needed
+        int keep = Math.max(drawn - 1, 0);
+        if (keep > 0) {
+            System.arraycopy(xs, keep, xs, 0, count - keep);
+            System.arraycopy(ys, keep, ys, 0, count - keep);
+            count -= keep;
+            drawn -= keep;
+        }
+        return path;
+    }
+
+    // Receives dab centres along a path
+    interface DabSink {
+        void dab(double x, double y);
+    }
+
+    /**
+     * Dab centres every spacing pixels along a path taken from this stroke.
+     * The distance to the next dab carries over from the previous batch, so
+     * spacing stays even however the samples were split into frames. The
+     * first sample is left out, it gets its dab when the stroke begins.
+     */
+    void dabs(Path2D path, double spacing, DabSink sink) {
+        double[] coords = new double[6];
+        double lastX = 0;
+        double lastY = 0;
+        double next = Double.isNaN(nextDab) ? spacing : Math.min(nextDab, spacing);
+        for (PathIterator it = path.getPathIterator(null, FLATNESS); !it.isDone(); it.next()) {
+            if (it.currentSegment(coords) == PathIterator.SEG_LINETO) {
+                double length = Math.hypot(coords[0] - lastX, coords[1] - lastY);
+                for (; next <= length; next += spacing) {
+                    double t = next / length;
+                    sink.dab(lastX + (coords[0] - lastX) * t, lastY + (coords[1] - lastY) * t);
+                }
+                next -= length;
+            }
+            lastX = coords[0];
+            lastY = coords[1];
+        }
+        nextDab = next;
+    }
+
+    // Length of a path once flattened the way dabs and sweep walk it
+    static double length(Path2D path) {
+        double[] coords = new double[6];
+        double lastX = 0;
+        double lastY = 0;
+        double length = 0;
+        for (PathIterator it = path.getPathIterator(null, FLATNESS); !it.isDone(); it.next()) {
+            if (it.currentSegment(coords) == PathIterator.SEG_LINETO) {
+                length += Math.hypot(coords[0] - lastX, coords[1] - lastY);
+            }
+            lastX = coords[0];
+            lastY = coords[1];
+        }
+        return length;
+    }
+
+    /**
+     * Area covered by moving a convex polygon along a path, given as its
+     * corners relative to the path. Each flattened segment adds the convex
+     * hull of the polygon at both its ends; the hulls all wind the same way,
+     * so filling the result non-zero gives their union.
+     */
+    static Path2D.Double sweep(Path2D path, double[] cornersX, double[] cornersY) {
+        Path2D.Double area = new Path2D.Double(Path2D.WIND_NON_ZERO);
+        int n = cornersX.length;
+        double[] px = new double[n * 2];
+        double[] py = new double[n * 2];
+        double[] hull = new double[n * 4 + 2];
+        double[] coords = new double[6];
+        double lastX = 0;
+        double lastY = 0;
+        for (PathIterator it = path.getPathIterator(null, FLATNESS); !it.isDone(); it.next()) {
+            int type = it.currentSegment(coords);
+            if (type == PathIterator.SEG_LINETO) {
+                for (int i = 0; i < n; i++) {
+                    px[i] = lastX + cornersX[i];
+                    py[i] = lastY + cornersY[i];
+                    px[n + i] = coords[0] + cornersX[i];
+                    py[n + i] = coords[1] + cornersY[i];
+                }
+                int size = hull(px, py, hull);
+                area.moveTo(hull[0], hull[1]);
+                for (int i = 1; i < size; i++) {
+                    area.lineTo(hull[i * 2], hull[i * 2 + 1]);
+                }
+                area.closePath();
+            }
+            lastX = coords[0];
+            lastY = coords[1];
+        }
+        return area;
+    }
+
+    // Monotone chain convex hull, corners written to hull as x, y pairs; returns their count
+    private static int hull(double[] xs, double[] ys, double[] hull) {
+        int n = xs.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> xs[a] != xs[b] ? Double.compare(xs[a], xs[b]) : Double.compare(ys[a], ys[b]));
+        int[] chain = new int[n * 2];
+        int size = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int start = size;
+            for (int k = 0; k < n; k++) {
+                int p = order[pass == 0 ? k : n - 1 - k];
+                while (size >= start + 2 && cross(xs, ys, chain[size - 2], chain[size - 1], p) <= 0) {
+                    size--;
+                }
+                chain[size++] = p;
+            }
+            size--; // the last corner starts the other half
+        }
+        for (int i = 0; i < size; i++) {
+            hull[i * 2] = xs[chain[i]];
+            hull[i * 2 + 1] = ys[chain[i]];
+        }
+        return size;
+    }
+
+    private static double cross(double[] xs, double[] ys, int o, int a, int b) {
+        return (xs[a] - xs[o]) * (ys[b] - ys[o]) - (ys[a] - ys[o]) * (xs[b] - xs[o]);
+    }
+}
@@ -0,0 +1,7 @@
+package com.snipshot.paint;
+
+public enum StrokeTool {
+    PENCIL,
+    BRUSH,
+    ERASER
+}
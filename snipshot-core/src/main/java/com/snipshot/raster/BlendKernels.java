@@ -0,0 +1,318 @@
+package com.snipshot.raster;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless blend kernels for every {@link BlendOp}. Pixels are premultiplied
+ * ARGB ints; {@code src} is the upper layer, {@code dst} the backdrop, and the
+ * result is written back into {@code dst}. The row kernels allocate nothing,
+ * and {@link #blend} splits larger regions across rows on the fork/join pool.
+ */
+public final class BlendKernels {
+    // Pixels per fork/join task before a region is split further
+    private static final int MIN_PIXELS_PER_TASK = 64 * 1024;
+
+    private BlendKernels() {
+    }
+
+    public static int blendPixel(BlendOp op, int src, int dst) {
+        switch (op) {
+            case SRC_OVER:
+                return Pixels.srcOver(src, dst);
+            case SRC_ATOP:
+                return srcAtop(src, dst);
+            case ADD:
+                return add(src, dst);
+            case MULTIPLY:
+                return multiply(src, dst);
+            case SCREEN:
+                return screen(src, dst);
+            case OVERLAY:
+                return hardLight(dst, src, true);
+            case HARD_LIGHT:
+                return hardLight(src, dst, false);
+            case DARKEN:
+                return darken(src, dst, false);
+            case LIGHTEN:
+                return darken(src, dst, true);
+            case DIFFERENCE:
+                return difference(src, dst);
+            case EXCLUSION:
+                return exclusion(src, dst);
+            case RED:
+                return replaceChannel(src, dst, 16);
+            case GREEN:
+                return replaceChannel(src, dst, 8);
+            case BLUE:
+                return replaceChannel(src, dst, 0);
+            default:
+                return nonLinear(op, src, dst);
+        }
+    }
+
+    // One row: dst[i] = op(src[i] * alpha, dst[i]) with alpha in 0..255
+    public static void blendRow(BlendOp op, int[] src, int srcOffset, int[] dst, int dstOffset,
+                                int length, int alpha) {
+        if (alpha <= 0) {
+            return;
+        }
+        if (op == BlendOp.SRC_OVER) {
+            // The common case gets its own loop without the mode dispatch
+            for (int i = 0; i < length; i++) {
+                int s = src[srcOffset + i];
+                if (s != 0) {
+                    dst[dstOffset + i] = Pixels.srcOver(Pixels.scale(s, alpha), dst[dstOffset + i]);
+                }
+            }
+            return;
+        }
+        boolean transparentIsNoOp = op != BlendOp.SRC_ATOP;
+        for (int i = 0; i < length; i++) {
+            int s = src[srcOffset + i];
+            if (s == 0 && transparentIsNoOp) {
+                continue;
+            }
+            dst[dstOffset + i] = blendPixel(op, Pixels.scale(s, alpha), dst[dstOffset + i]);
+        }
+    }
+
+    // Blends a width x height region, in parallel across rows when it is large enough
+    public static void blend(BlendOp op, int[] src, int srcOffset, int srcScan,
+                             int[] dst, int dstOffset, int dstScan,
+                             int width, int height, double opacity) {
+        int alpha = (int) Math.round(Math.max(0, Math.min(1, opacity)) * 255);
+        BlendOp mode = op == null ? BlendOp.SRC_OVER : op;
+        RowTask task = new RowTask(mode, src, srcOffset, srcScan, dst, dstOffset, dstScan,
+                                   width, 0, height, alpha);
+        if ((long) width * height < MIN_PIXELS_PER_TASK * 2L) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    private static class RowTask extends RecursiveAction {
+        private final BlendOp op;
+        private final int[] src;
+        private final int srcOffset;
+        private final int srcScan;
+        private final int[] dst;
+        private final int dstOffset;
+        private final int dstScan;
+        private final int width;
+        private final int firstRow;
+        private final int endRow;
+        private final int alpha;
+
+        RowTask(BlendOp op, int[] src, int srcOffset, int srcScan, int[] dst, int dstOffset,
+                int dstScan, int width, int firstRow, int endRow, int alpha) {
+            this.op = op;
+            this.src = src;
+            this.srcOffset = srcOffset;
+            this.srcScan = srcScan;
+            this.dst = dst;
+            this.dstOffset = dstOffset;
+            this.dstScan = dstScan;
+            this.width = width;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.alpha = alpha;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - firstRow;
+            if (rows > 1 && (long) rows * width > MIN_PIXELS_PER_TASK) {
+                int mid = firstRow + rows / 2;
+                invokeAll(
+                    new RowTask(op, src, srcOffset, srcScan, dst, dstOffset, dstScan, width, firstRow, mid, alpha),
+                    new RowTask(op, src, srcOffset, srcScan, dst, dstOffset, dstScan, width, mid, endRow, alpha));
+                return;
+            }
+            for (int row = firstRow; row < endRow; row++) {
+                blendRow(op, src, srcOffset + row * srcScan, dst, dstOffset + row * dstScan, width, alpha);
+            }
+        }
+    }
+
+    private static int pack(int a, int r, int g, int b) {
+        return (clamp(a) << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : v > 255 ? 255 : v;
+    }
+
+    private static int srcOverAlpha(int sa, int da) {
+        return sa + da - Pixels.mul255(sa, da);
+    }
+
+    private static int srcAtop(int src, int dst) {
+        int da = dst >>> 24;
+        int inv = 255 - (src >>> 24);
+        int r = Pixels.mul255((src >> 16) & 0xFF, da) + Pixels.mul255((dst >> 16) & 0xFF, inv);
+        int g = Pixels.mul255((src >> 8) & 0xFF, da) + Pixels.mul255((dst >> 8) & 0xFF, inv);
+        int b = Pixels.mul255(src & 0xFF, da) + Pixels.mul255(dst & 0xFF, inv);
+        return pack(da, r, g, b);
+    }
+
+    private static int add(int src, int dst) {
+        int a = Math.min(255, (src >>> 24) + (dst >>> 24));
+        int r = Math.min(a, ((src >> 16) & 0xFF) + ((dst >> 16) & 0xFF));
+        int g = Math.min(a, ((src >> 8) & 0xFF) + ((dst >> 8) & 0xFF));
+        int b = Math.min(a, (src & 0xFF) + (dst & 0xFF));
+        return pack(a, r, g, b);
+    }
+
+    // co = cs*cb + cs*(1 - ab) + cb*(1 - as)
+    private static int multiply(int src, int dst) {
+        int sa = src >>> 24;
+        int da = dst >>> 24;
+        int isa = 255 - sa;
+        int ida = 255 - da;
+        int result = srcOverAlpha(sa, da) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int cs = (src >> shift) & 0xFF;
+            int cb = (dst >> shift) & 0xFF;
+            int co = Pixels.mul255(cs, cb) + Pixels.mul255(cs, ida) + Pixels.mul255(cb, isa);
+            result |= clamp(co) << shift;
+        }
+        return result;
+    }
+
+    // co = cs + cb - cs*cb
+    private static int screen(int src, int dst) {
+        int result = srcOverAlpha(src >>> 24, dst >>> 24) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int cs = (src >> shift) & 0xFF;
+            int cb = (dst >> shift) & 0xFF;
+            result |= clamp(cs + cb - Pixels.mul255(cs, cb)) << shift;
+        }
+        return result;
+    }
+
+    // Hard light of top over bottom; overlay is hard light with the inputs swapped
+    private static int hardLight(int top, int bottom, boolean swapped) {
+        int src = swapped ? bottom : top;
+        int dst = swapped ? top : bottom;
+        int sa = src >>> 24;
+        int da = dst >>> 24;
+        int ta = top >>> 24;
+        int ba = bottom >>> 24;
+        int result = srcOverAlpha(sa, da) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int cs = (src >> shift) & 0xFF;
+            int cb = (dst >> shift) & 0xFF;
+            int ct = (top >> shift) & 0xFF;
+            int cl = (bottom >> shift) & 0xFF;
+            int mixed;
+            if (2 * ct <= ta) {
+                mixed = 2 * Pixels.mul255(ct, cl);
+            } else {
+                mixed = Pixels.mul255(ta, ba) - 2 * Pixels.mul255(ba - cl, ta - ct);
+            }
+            int co = mixed + Pixels.mul255(cs, 255 - da) + Pixels.mul255(cb, 255 - sa);
+            result |= clamp(co) << shift;
+        }
+        return result;
+    }
+
+    // co = min(cs*ab, cb*as) + cs*(1 - ab) + cb*(1 - as), max for lighten
+    private static int darken(int src, int dst, boolean lighten) {
+        int sa = src >>> 24;
+        int da = dst >>> 24;
+        int result = srcOverAlpha(sa, da) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int cs = (src >> shift) & 0xFF;
+            int cb = (dst >> shift) & 0xFF;
+            int s = Pixels.mul255(cs, da);
+            int b = Pixels.mul255(cb, sa);
+            int mixed = lighten ? Math.max(s, b) : Math.min(s, b);
+            int co = mixed + Pixels.mul255(cs, 255 - da) + Pixels.mul255(cb, 255 - sa);
+            result |= clamp(co) << shift;
+        }
+        return result;
+    }
+
+    // co = cs + cb - 2*min(cs*ab, cb*as)
+    private static int difference(int src, int dst) {
+        int sa = src >>> 24;
+        int da = dst >>> 24;
+        int result = srcOverAlpha(sa, da) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int cs = (src >> shift) & 0xFF;
+            int cb = (dst >> shift) & 0xFF;
+            int co = cs + cb - 2 * Math.min(Pixels.mul255(cs, da), Pixels.mul255(cb, sa));
+            result |= clamp(co) << shift;
+        }
+        return result;
+    }
+
+    // co = cs + cb - 2*cs*cb
+    private static int exclusion(int src, int dst) {
+        int result = srcOverAlpha(src >>> 24, dst >>> 24) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int cs = (src >> shift) & 0xFF;
+            int cb = (dst >> shift) & 0xFF;
+            result |= clamp(cs + cb - 2 * Pixels.mul255(cs, cb)) << shift;
+        }
+        return result;
+    }
+
+    // The selected channel is composited source-over, the others keep the backdrop
+    private static int replaceChannel(int src, int dst, int shift) {
+        int over = Pixels.srcOver(src, dst);
+        int a = over >>> 24;
+        int result = (dst & ~(0xFF << shift)) & 0x00FFFFFF | (over & (0xFF << shift));
+        int r = Math.min(a, (result >> 16) & 0xFF);
+        int g = Math.min(a, (result >> 8) & 0xFF);
+        int b = Math.min(a, result & 0xFF);
+        return pack(a, r, g, b);
+    }
+
+    // Color dodge, color burn and soft light need division or roots per channel
+    private static int nonLinear(BlendOp op, int src, int dst) {
+        int sa = src >>> 24;
+        int da = dst >>> 24;
+        float as = sa / 255f;
+        float ab = da / 255f;
+        int result = srcOverAlpha(sa, da) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int ics = (src >> shift) & 0xFF;
+            int icb = (dst >> shift) & 0xFF;
+            float mixed = 0;
+            if (sa != 0 && da != 0) {
+                float cs = Math.min(1f, ics / (float) sa);
+                float cb = Math.min(1f, icb / (float) da);
+                mixed = as * ab * mix(op, cb, cs);
+            }
+            int co = Math.round(mixed * 255) + Pixels.mul255(ics, 255 - da) + Pixels.mul255(icb, 255 - sa);
+            result |= clamp(co) << shift;
+        }
+        return result;
+    }
+
+    private static float mix(BlendOp op, float cb, float cs) {
+        switch (op) {
+            case COLOR_DODGE:
+                if (cb == 0) {
+                    return 0;
+                }
+                return cs >= 1 ? 1 : Math.min(1, cb / (1 - cs));
+            case COLOR_BURN:
+                if (cb >= 1) {
+                    return 1;
+                }
+                return cs <= 0 ? 0 : 1 - Math.min(1, (1 - cb) / cs);
+            case SOFT_LIGHT:
+                if (cs <= 0.5f) {
+                    return cb - (1 - 2 * cs) * cb * (1 - cb);
+                }
+                float d = cb <= 0.25f ? ((16 * cb - 12) * cb + 4) * cb : (float) Math.sqrt(cb);
+                return cb + (2 * cs - 1) * (d - cb);
+            default:
+                return cs;
+        }
+    }
+}
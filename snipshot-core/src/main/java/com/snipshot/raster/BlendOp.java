@@ -0,0 +1,30 @@
+package com.snipshot.raster;
+
+/**
+ * Layer blend modes, named after {@code javafx.scene.effect.BlendMode}.
+ * The pixel math lives in {@link BlendKernels}.
+ */
+public enum BlendOp {
+    SRC_OVER,
+    SRC_ATOP,
+    ADD,
+    MULTIPLY,
+    SCREEN,
+    OVERLAY,
+    DARKEN,
+    LIGHTEN,
+    COLOR_DODGE,
+    COLOR_BURN,
+    HARD_LIGHT,
+    SOFT_LIGHT,
+    DIFFERENCE,
+    EXCLUSION,
+    RED,
+    GREEN,
+    BLUE;
+
+    // src is the upper layer, dst what is already below it
+    public int blend(int src, int dst) {
+        return BlendKernels.blendPixel(this, src, dst);
+    }
+}
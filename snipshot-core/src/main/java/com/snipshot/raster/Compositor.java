@@ -0,0 +1,430 @@
+package com.snipshot.raster;
+
+import com.snipshot.metrics.Histogram;
+import com.snipshot.metrics.Metrics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Flattens a stack of layers and keeps the result. It listens to the layer
+ * pixel stores and only recomposites the tiles that changed since the last
+ * call to {@link #composite()}, so exporting after a small edit costs about
+ * as much as the edit itself.
+ *
+ * {@link #fork()} hands the pending work to a copy that composites snapshots
+ * of the layers on another thread; {@link #join} takes its tiles back.
+ *
+ * A viewer can composite just the region it shows with
+ * {@link #composite(Rect)} and hear about changes through an invalidation
+ * listener, which fires when the flattened image is about to change rather
+ * than when the result is written.
+ */
+public class Compositor {
+
+    /**
+     * One input layer of the compositor.
+     */
+    public interface Source {
+        PixelStore getPixels();
+
+        double getOpacity();
+
+        boolean isVisible();
+
+        BlendOp getBlendOp();
+    }
+
+    private static final int TILE_SIZE = TiledPixelStore.TILE_SIZE;
+    private static final Histogram COMPOSITE_TIME = Metrics.histogram("composite", Metrics.NANOS);
+    private static final Histogram MERGE_TIME = Metrics.histogram("merge", Metrics.NANOS);
+
+    private final TiledPixelStore result;
+    private final BitSet dirtyTiles = new BitSet();
+    private final Consumer<Rect> changeListener = this::invalidate;
+    private final List<Consumer<Rect>> invalidationListeners = new CopyOnWriteArrayList<>();
+    private int[] accumulator = new int[0];
+    private int[] layerPixels = new int[0];
+    private List<Source> sources = new ArrayList<>();
+    private List<String> signature = new ArrayList<>();
+    private BitSet forkedTiles; // dirty tiles handed to a fork that has not joined yet
+
+    public Compositor(int width, int height) {
+        this(new TiledPixelStore(width, height));
+        invalidateAll();
+    }
+
+    private Compositor(TiledPixelStore result) {
+        this.result = result;
+    }
+
+    // Layers ordered from the bottom of the stack to the top
+    public void setSources(List<? extends Source> bottomToTop) {
+        if (sameSources(bottomToTop)) {
+            return;
+        }
+        for (Source source : sources) {
+            source.getPixels().removeChangeListener(changeListener);
+        }
+        sources = new ArrayList<>(bottomToTop);
+        for (Source source : sources) {
+            source.getPixels().addChangeListener(changeListener);
+        }
+        invalidateAll();
+    }
+
+    public void invalidate(Rect region) {
+        Rect clipped = region.intersect(result.getBounds());
+        if (clipped.isEmpty()) {
+            return;
+        }
+        int tx1 = (clipped.getMaxX() - 1) / TILE_SIZE;
+        int ty1 = (clipped.getMaxY() - 1) / TILE_SIZE;
+        for (int ty = clipped.y / TILE_SIZE; ty <= ty1; ty++) {
+            int row = ty * result.getTilesX();
+            dirtyTiles.set(row + clipped.x / TILE_SIZE, row + tx1 + 1);
+        }
+        fireInvalidated(clipped);
+    }
+
+    public void invalidateAll() {
+        dirtyTiles.set(0, result.getTilesX() * result.getTilesY());
+        fireInvalidated(result.getBounds());
+    }
+
+    // Notified with every region whose flattened pixels are going to change
+    public void addInvalidationListener(Consumer<Rect> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    public void removeInvalidationListener(Consumer<Rect> listener) {
+        invalidationListeners.remove(listener);
+    }
+
+    public boolean isDirty() {
+        return !dirtyTiles.isEmpty() || !currentSignature().equals(signature);
+    }
+
+    // True if composite(region) would have any tiles to redo, ignoring layer settings
+    public boolean isDirty(Rect region) {
+        Rect clipped = region.intersect(result.getBounds());
+        if (clipped.isEmpty()) {
+            return false;
+        }
+        int tilesX = result.getTilesX();
+        int tx0 = clipped.x / TILE_SIZE;
+        int tx1 = (clipped.getMaxX() - 1) / TILE_SIZE;
+        int ty1 = (clipped.getMaxY() - 1) / TILE_SIZE;
+        for (int tileY = clipped.y / TILE_SIZE; tileY <= ty1; tileY++) {
+            int row = tileY * tilesX;
+            int next = dirtyTiles.nextSetBit(row + tx0);
+            int forked = forkedTiles == null ? -1 : forkedTiles.nextSetBit(row + tx0);
+            if ((next >= 0 && next <= row + tx1) || (forked >= 0 && forked <= row + tx1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Brings the flattened image up to date and returns it
+    public TiledPixelStore composite() {
+        return composite(result.getBounds());
+    }
+
+    // Brings the tiles overlapping region up to date, the rest stay dirty
+    public TiledPixelStore composite(Rect region) {
+        updateSignature();
+        Rect clipped = region.intersect(result.getBounds());
+        if (clipped.isEmpty()) {
+            return result;
+        }
+        long start = System.nanoTime();
+        boolean composited = false;
+        int tilesX = result.getTilesX();
+        int tx0 = clipped.x / TILE_SIZE;
+        int tx1 = (clipped.getMaxX() - 1) / TILE_SIZE;
+        int ty1 = (clipped.getMaxY() - 1) / TILE_SIZE;
+        for (int tileY = clipped.y / TILE_SIZE; tileY <= ty1; tileY++) {
+            int row = tileY * tilesX;
+            if (forkedTiles != null) {
+                // Don't wait for the fork, its tiles are redone here
+                for (int i = forkedTiles.nextSetBit(row + tx0); i >= 0 && i <= row + tx1;
+                        i = forkedTiles.nextSetBit(i + 1)) {
+                    dirtyTiles.set(i);
+                    forkedTiles.clear(i);
+                }
+            }
+            // One strip per row of tiles, spanning the dirty tiles of that row
+            int first = dirtyTiles.nextSetBit(row + tx0);
+            if (first < 0 || first > row + tx1) {
+                continue;
+            }
+            int last = dirtyTiles.previousSetBit(row + tx1);
+            compositeStrip(tileY, first - row, last - row);
+            dirtyTiles.clear(first, last + 1);
+            composited = true;
+        }
+        // Calls that found nothing dirty would only drown out the ones that worked
+        if (composited) {
+            COMPOSITE_TIME.recordSince(start);
+        }
+        return result;
+    }
+
+    /**
+     * Frees result tiles outside keep without telling the invalidation
+     * listeners; they are composited again the next time they are asked for.
+     * Returns the number of tiles freed.
+     */
+    public int discard(Rect keep) {
+        int tilesX = result.getTilesX();
+        int discarded = 0;
+        for (int i = 0; i < tilesX * result.getTilesY(); i++) {
+            int tileX = i % tilesX;
+            int tileY = i / tilesX;
+            if (dirtyTiles.get(i) || (forkedTiles != null && forkedTiles.get(i))
+                    || !result.isTileAllocated(tileX, tileY)
+                    || result.getTileBounds(tileX, tileY).intersects(keep)) {
+                continue;
+            }
+            result.dropTile(tileX, tileY);
+            dirtyTiles.set(i);
+            discarded++;
+        }
+        return discarded;
+    }
+
+    // Has layers that load tiles on demand drop unmodified ones outside keep once they hold more than maxTiles
+    public void evictSourceTiles(Rect keep, int maxTiles) {
+        for (Source source : sources) {
+            PixelStore pixels = source.getPixels();
+            if (pixels instanceof TiledPixelStore && ((TiledPixelStore) pixels).getEvictableTiles() > maxTiles) {
+                ((TiledPixelStore) pixels).evictTiles(keep);
+            }
+        }
+    }
+
+    // Layer stores that still have to load the given tile before it can be composited
+    public List<TiledPixelStore> getUnloaded(int tileX, int tileY) {
+        List<TiledPixelStore> unloaded = new ArrayList<>();
+        for (Source source : sources) {
+            PixelStore pixels = source.getPixels();
+            if (source.isVisible() && pixels instanceof TiledPixelStore
+                    && !((TiledPixelStore) pixels).isTileLoaded(tileX, tileY)) {
+                unloaded.add((TiledPixelStore) pixels);
+            }
+        }
+        return unloaded;
+    }
+
+    public TiledPixelStore getResult() {
+        return result;
+    }
+
+    /**
+     * Copy of this compositor over snapshots of the layers and the current
+     * result, taking over the dirty tiles. Call on the thread that edits the
+     * layers; the fork can then be composited anywhere and must be joined.
+     */
+    public Compositor fork() {
+        if (forkedTiles != null) {
+            throw new IllegalStateException("Compositor is already forked");
+        }
+        updateSignature();
+        Compositor fork = new Compositor(result.snapshot());
+        List<Source> frozen = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            frozen.add(new Snapshot(source));
+        }
+        fork.sources = frozen;
+        fork.signature = signature;
+        fork.dirtyTiles.or(dirtyTiles);
+        forkedTiles = (BitSet) dirtyTiles.clone();
+        dirtyTiles.clear();
+        return fork;
+    }
+
+    /**
+     * Takes back the tiles a fork composited. Tiles changed since the fork
+     * stay dirty. Without {@code completed} the fork's work is discarded.
+     */
+    public void join(Compositor fork, boolean completed) {
+        if (forkedTiles == null) {
+            throw new IllegalStateException("Compositor is not forked");
+        }
+        if (completed) {
+            int tilesX = result.getTilesX();
+            for (int i = forkedTiles.nextSetBit(0); i >= 0; i = forkedTiles.nextSetBit(i + 1)) {
+                if (!dirtyTiles.get(i)) {
+                    result.shareTile(fork.result, i % tilesX, i / tilesX);
+                }
+            }
+        } else {
+            dirtyTiles.or(forkedTiles);
+        }
+        forkedTiles = null;
+        for (Source source : fork.sources) {
+            source.getPixels().release();
+        }
+        fork.result.release();
+    }
+
+    public void dispose() {
+        setSources(new ArrayList<>());
+    }
+
+    /**
+     * Blends one layer into a pixel store, e.g. for merging a layer down.
+     * Rows of tiles where the layer is empty are skipped.
+     */
+    public static Rect compositeInto(PixelStore target, Source source) {
+        long start = System.nanoTime();
+        PixelStore pixels = source.getPixels();
+        Rect bounds = target.getBounds().intersect(pixels.getBounds());
+        Rect changed = null;
+        int[] src = new int[0];
+        int[] dst = new int[0];
+        for (int y = 0; y < bounds.height; y += TILE_SIZE) {
+            int tileY = y / TILE_SIZE;
+            int first = -1;
+            int last = -1;
+            for (int tileX = 0; tileX * TILE_SIZE < bounds.width; tileX++) {
+                if (!isEmptyTile(pixels, tileX, tileY)) {
+                    first = first < 0 ? tileX : first;
+                    last = tileX;
+                }
+            }
+            if (first < 0) {
+                continue;
+            }
+            Rect strip = new Rect(first * TILE_SIZE, y, (last - first + 1) * TILE_SIZE, TILE_SIZE).intersect(bounds);
+            int count = strip.width * strip.height;
+            if (src.length < count) {
+                src = new int[count];
+                dst = new int[count];
+            }
+            pixels.readPixels(strip.x, strip.y, strip.width, strip.height, src, 0, strip.width);
+            target.readPixels(strip.x, strip.y, strip.width, strip.height, dst, 0, strip.width);
+            BlendKernels.blend(source.getBlendOp(), src, 0, strip.width, dst, 0, strip.width,
+                               strip.width, strip.height, source.getOpacity());
+            target.writePixels(strip.x, strip.y, strip.width, strip.height, dst, 0, strip.width);
+            changed = Rect.union(changed, strip);
+        }
+        MERGE_TIME.recordSince(start);
+        return changed;
+    }
+
+    private void compositeStrip(int tileY, int firstTileX, int lastTileX) {
+        Rect strip = new Rect(firstTileX * TILE_SIZE, tileY * TILE_SIZE,
+                              (lastTileX - firstTileX + 1) * TILE_SIZE, TILE_SIZE)
+            .intersect(result.getBounds());
+        int count = strip.width * strip.height;
+        if (accumulator.length < count) {
+            accumulator = new int[count];
+            layerPixels = new int[count];
+        }
+        Arrays.fill(accumulator, 0, count, 0);
+        for (Source source : sources) {
+            PixelStore pixels = source.getPixels();
+            if (!source.isVisible() || toAlpha(source.getOpacity()) == 0
+                    || !pixels.getBounds().contains(strip) || isEmptySpan(pixels, tileY, firstTileX, lastTileX)) {
+                continue;
+            }
+            pixels.readPixels(strip.x, strip.y, strip.width, strip.height, layerPixels, 0, strip.width);
+            BlendKernels.blend(source.getBlendOp(), layerPixels, 0, strip.width, accumulator, 0, strip.width,
+                               strip.width, strip.height, source.getOpacity());
+        }
+        result.writePixels(strip.x, strip.y, strip.width, strip.height, accumulator, 0, strip.width);
+    }
+
+    private void fireInvalidated(Rect region) {
+        for (Consumer<Rect> listener : invalidationListeners) {
+            listener.accept(region);
+        }
+    }
+
+    private static boolean isEmptySpan(PixelStore pixels, int tileY, int firstTileX, int lastTileX) {
+        for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+            if (!isEmptyTile(pixels, tileX, tileY)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmptyTile(PixelStore pixels, int tileX, int tileY) {
+        return pixels instanceof TiledPixelStore && ((TiledPixelStore) pixels).isTileEmpty(tileX, tileY);
+    }
+
+    private static int toAlpha(double opacity) {
+        return (int) Math.round(Math.max(0, Math.min(1, opacity)) * 255);
+    }
+
+    private boolean sameSources(List<? extends Source> other) {
+        if (other.size() != sources.size()) {
+            return false;
+        }
+        for (int i = 0; i < other.size(); i++) {
+            if (other.get(i) != sources.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Invalidates everything if a layer was hidden, shown or re-blended since the last call
+    public void updateSignature() {
+        List<String> current = currentSignature();
+        if (!current.equals(signature)) {
+            signature = current;
+            invalidateAll();
+        }
+    }
+
+    // Layer settings that affect every pixel; a change invalidates everything
+    private List<String> currentSignature() {
+        List<String> current = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            current.add(source.isVisible() + ":" + toAlpha(source.getOpacity()) + ":" + source.getBlendOp());
+        }
+        return current;
+    }
+
+    // A layer as it was when the compositor was forked
+    private static final class Snapshot implements Source {
+        private final PixelStore pixels;
+        private final double opacity;
+        private final boolean visible;
+        private final BlendOp blendOp;
+
+        Snapshot(Source source) {
+            this.pixels = source.getPixels().snapshot();
+            this.opacity = source.getOpacity();
+            this.visible = source.isVisible();
+            this.blendOp = source.getBlendOp();
+        }
+
+        @Override
+        public PixelStore getPixels() {
+            return pixels;
+        }
+
+        @Override
+        public double getOpacity() {
+            return opacity;
+        }
+
+        @Override
+        public boolean isVisible() {
+            return visible;
+        }
+
+        @Override
+        public BlendOp getBlendOp() {
+            return blendOp;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.snipshot.raster;
+
+/**
+ * One brush dab rendered ahead of time as 8-bit coverage, for stamping with
+ * {@link RasterGraphics#stamp}. Coverage is 1 inside the hard core of the
+ * shape and eases to 0 at its edge; a hardness of 1 leaves only the
+ * anti-aliased edge. The dab centre sits at a fraction of a pixel from the
+ * pixel it is stamped at, so one shape needs a mask per subpixel phase.
+ */
+public final class DabMask {
+    private static final int SAMPLES = 4; // per axis and pixel, for anti-aliasing
+
+    private final byte[] alpha;
+    private final int width;
+    private final int height;
+    private final int originX; // top left, relative to the pixel the dab is stamped at
+    private final int originY;
+
+    private DabMask(byte[] alpha, int width, int height, int originX, int originY) {
+        this.alpha = alpha;
+        this.width = width;
+        this.height = height;
+        this.originX = originX;
+        this.originY = originY;
+    }
+
+    public static DabMask circle(double radius, double hardness, double phaseX, double phaseY) {
+        return render(radius, hardness, phaseX, phaseY, (dx, dy) -> Math.sqrt(dx * dx + dy * dy) / radius);
+    }
+
+    /**
+     * Convex polygon around the dab centre, which must lie inside it. The
+     * falloff follows the polygon's own outline, shrunk towards the centre.
+     */
+    public static DabMask polygon(double[] cornersX, double[] cornersY, double hardness, double phaseX, double phaseY) {
+        int n = cornersX.length;
+        double extent = 0;
+        // Each edge as a normal scaled so the edge itself is at distance 1
+        double[] nx = new double[n];
+        double[] ny = new double[n];
+        double area = 0;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            area += cornersX[i] * cornersY[j] - cornersX[j] * cornersY[i];
+            extent = Math.max(extent, Math.max(Math.abs(cornersX[i]), Math.abs(cornersY[i])));
+        }
+        double sign = Math.signum(area);
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            double ex = cornersY[j] - cornersY[i];
+            double ey = cornersX[i] - cornersX[j];
+            double d = (ex * cornersX[i] + ey * cornersY[i]) * sign;
+            nx[i] = ex * sign / d;
+            ny[i] = ey * sign / d;
+        }
+        return render(extent, hardness, phaseX, phaseY, (dx, dy) -> {
+            double gauge = 0;
+            for (int i = 0; i < n; i++) {
+                gauge = Math.max(gauge, nx[i] * dx + ny[i] * dy);
+            }
+            return gauge;
+        });
+    }
+
+    // Gauge of a point relative to the centre: below 1 inside the shape, 1 on its edge
+    private interface Gauge {
+        double at(double dx, double dy);
+    }
+
+    private static DabMask render(double extent, double hardness, double phaseX, double phaseY, Gauge gauge) {
+        int left = (int) Math.floor(phaseX - extent);
+        int top = (int) Math.floor(phaseY - extent);
+        int width = (int) Math.ceil(phaseX + extent) - left;
+        int height = (int) Math.ceil(phaseY + extent) - top;
+        double hard = Math.max(0, Math.min(1, hardness));
+        byte[] alpha = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double sum = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    double dy = top + y + (sy + 0.5) / SAMPLES - phaseY;
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        double dx = left + x + (sx + 0.5) / SAMPLES - phaseX;
+                        sum += falloff(gauge.at(dx, dy), hard);
+                    }
+                }
+                alpha[y * width + x] = (byte) Math.round(sum * 255 / (SAMPLES * SAMPLES));
+            }
+        }
+        return new DabMask(alpha, width, height, left, top);
+    }
+
+    private static double falloff(double gauge, double hardness) {
+        if (gauge >= 1) {
+            return 0;
+        }
+        if (gauge <= hardness) {
+            return 1;
+        }
+        double t = (1 - gauge) / (1 - hardness);
+        return t * t * (3 - 2 * t);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginY() {
+        return originY;
+    }
+
+    // Coverage row by row, width bytes per row
+    byte[] getAlpha() {
+        return alpha;
+    }
+
+    public long getByteSize() {
+        return alpha.length;
+    }
+}
@@ -0,0 +1,147 @@
+package com.snipshot.raster;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * Decodes an image file one band of tiles at a time through ImageIO source
+ * regions, so a {@link TiledPixelStore} over it only holds what was looked
+ * at. Formats that can seek, like JPEG, skip straight to a band; PNG still
+ * inflates the rows above it, but never keeps them.
+ */
+public class ImageTileLoader implements TiledPixelStore.TileLoader, Closeable {
+    private static final long MAX_BAND_BYTES = 32L << 20;
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int bandTiles; // tile columns decoded together
+    private int bandRow = -1;
+    private int bandColumn = -1;
+    private TileData[] band;
+    private boolean closed;
+
+    private ImageTileLoader(ImageInputStream input, ImageReader reader) throws IOException {
+        this.input = input;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.tilesX = (width + TiledPixelStore.TILE_SIZE - 1) / TiledPixelStore.TILE_SIZE;
+        long tileBytes = (long) TiledPixelStore.TILE_SIZE * TiledPixelStore.TILE_SIZE * Integer.BYTES;
+        this.bandTiles = (int) Math.max(1, Math.min(tilesX, MAX_BAND_BYTES / tileBytes));
+    }
+
+    // Reads only the header; fails if ImageIO has no reader for the file
+    public static ImageTileLoader open(File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No reader for " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input);
+        try {
+            return new ImageTileLoader(input, reader);
+        } catch (IOException | RuntimeException e) {
+            reader.dispose();
+            input.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Store that decodes its tiles from this file on first use
+    public TiledPixelStore createStore() {
+        return new TiledPixelStore(width, height, this);
+    }
+
+    // Whole image read with subsampling, at most maxSize pixels on its longer side
+    public synchronized BufferedImage readPreview(int maxSize) throws IOException {
+        checkOpen();
+        int step = Math.max(1, (Math.max(width, height) + maxSize - 1) / maxSize);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        return reader.read(0, param);
+    }
+
+    @Override
+    public synchronized TileData load(int tileX, int tileY) {
+        int column = tileX / bandTiles * bandTiles;
+        if (tileY != bandRow || column != bandColumn) {
+            try {
+                checkOpen();
+                band = readBand(column, tileY);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            bandRow = tileY;
+            bandColumn = column;
+        }
+        return band[tileX - column];
+    }
+
+    private TileData[] readBand(int column, int tileY) throws IOException {
+        int size = TiledPixelStore.TILE_SIZE;
+        int x = column * size;
+        int y = tileY * size;
+        int w = Math.min(bandTiles * size, width - x);
+        int h = Math.min(size, height - y);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y, w, h));
+        BufferedImage image = reader.read(0, param);
+
+        int[] row = new int[w];
+        TileData[] tiles = new TileData[(w + size - 1) / size];
+        int[][] pixels = new int[tiles.length][size * size];
+        for (int py = 0; py < h; py++) {
+            image.getRGB(0, py, w, 1, row, 0, w);
+            for (int px = 0; px < w; px++) {
+                pixels[px / size][py * size + px % size] = Pixels.premultiply(row[px]);
+            }
+        }
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = TileData.ofPixels(pixels[i]);
+        }
+        return tiles;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Image file is closed");
+        }
+    }
+
+    // Once the document is replaced; stores created by this loader can't load tiles afterwards
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        band = null;
+        reader.dispose();
+        input.close();
+    }
+}
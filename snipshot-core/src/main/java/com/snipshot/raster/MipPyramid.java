@@ -0,0 +1,151 @@
+package com.snipshot.raster;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Successively halved copies of a pixel store for drawing it zoomed out.
+ * Level 0 is the store itself, level n is 2^n times smaller. Levels are
+ * built lazily a tile at a time and only the tiles above an invalidated
+ * region are rebuilt, each from the four tiles below it.
+ */
+public class MipPyramid {
+    private static final int TILE_SIZE = TiledPixelStore.TILE_SIZE;
+
+    private final PixelStore base;
+    private final List<TiledPixelStore> levels = new ArrayList<>(); // level n at index n - 1
+    private final List<BitSet> dirty = new ArrayList<>();
+    private int[] source = new int[0];
+    private int[] target = new int[0];
+
+    public MipPyramid(PixelStore base) {
+        this.base = base;
+        int width = base.getWidth();
+        int height = base.getHeight();
+        // Down to the level that fits in a single tile
+        while (width > TILE_SIZE || height > TILE_SIZE) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            TiledPixelStore level = new TiledPixelStore(width, height);
+            BitSet all = new BitSet();
+            all.set(0, level.getTilesX() * level.getTilesY());
+            levels.add(level);
+            dirty.add(all);
+        }
+    }
+
+    public int getLevelCount() {
+        return levels.size() + 1;
+    }
+
+    public PixelStore getLevel(int level) {
+        return level == 0 ? base : levels.get(level - 1);
+    }
+
+    // Marks the levels above a changed region of the base as out of date
+    public void invalidate(Rect region) {
+        for (int level = 1; level < getLevelCount(); level++) {
+            TiledPixelStore store = levels.get(level - 1);
+            Rect scaled = Rect.covering(region.x / (double) (1 << level), region.y / (double) (1 << level),
+                region.getMaxX() / (double) (1 << level), region.getMaxY() / (double) (1 << level))
+                .intersect(store.getBounds());
+            if (scaled.isEmpty()) {
+                return;
+            }
+            BitSet bits = dirty.get(level - 1);
+            int tx1 = (scaled.getMaxX() - 1) / TILE_SIZE;
+            int ty1 = (scaled.getMaxY() - 1) / TILE_SIZE;
+            for (int ty = scaled.y / TILE_SIZE; ty <= ty1; ty++) {
+                int row = ty * store.getTilesX();
+                bits.set(row + scaled.x / TILE_SIZE, row + tx1 + 1);
+            }
+        }
+    }
+
+    // True if update would have to rebuild any of region, in the level's own pixels
+    public boolean isDirty(int level, Rect region) {
+        if (level == 0) {
+            return false;
+        }
+        TiledPixelStore store = levels.get(level - 1);
+        Rect clipped = region.intersect(store.getBounds());
+        BitSet bits = dirty.get(level - 1);
+        for (int ty = clipped.y / TILE_SIZE; ty * TILE_SIZE < clipped.getMaxY(); ty++) {
+            for (int tx = clipped.x / TILE_SIZE; tx * TILE_SIZE < clipped.getMaxX(); tx++) {
+                if (bits.get(ty * store.getTilesX() + tx)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the out of date tiles of a level that overlap region, given
+     * in the level's own pixels. The base must already be up to date under
+     * it, see {@link #getBaseRegion}.
+     */
+    public void update(int level, Rect region) {
+        if (level == 0) {
+            return;
+        }
+        TiledPixelStore store = levels.get(level - 1);
+        Rect clipped = region.intersect(store.getBounds());
+        if (clipped.isEmpty() || !isDirty(level, clipped)) {
+            return;
+        }
+        PixelStore below = getLevel(level - 1);
+        update(level - 1, new Rect(clipped.x * 2, clipped.y * 2, clipped.width * 2, clipped.height * 2));
+        BitSet bits = dirty.get(level - 1);
+        for (int ty = clipped.y / TILE_SIZE; ty * TILE_SIZE < clipped.getMaxY(); ty++) {
+            for (int tx = clipped.x / TILE_SIZE; tx * TILE_SIZE < clipped.getMaxX(); tx++) {
+                int index = ty * store.getTilesX() + tx;
+                if (bits.get(index)) {
+                    downsample(below, store, store.getTileBounds(tx, ty));
+                    bits.clear(index);
+                }
+            }
+        }
+    }
+
+    // Part of the base a region of a level is built from
+    public Rect getBaseRegion(int level, Rect region) {
+        return new Rect(region.x << level, region.y << level, region.width << level, region.height << level)
+            .intersect(base.getBounds());
+    }
+
+    // Averages 2x2 blocks of premultiplied pixels; odd edges repeat their last pixel
+    private void downsample(PixelStore below, PixelStore store, Rect tile) {
+        Rect from = new Rect(tile.x * 2, tile.y * 2, tile.width * 2, tile.height * 2).intersect(below.getBounds());
+        if (source.length < from.width * from.height) {
+            source = new int[from.width * from.height];
+        }
+        if (target.length < tile.width * tile.height) {
+            target = new int[tile.width * tile.height];
+        }
+        below.readPixels(from.x, from.y, from.width, from.height, source, 0, from.width);
+        for (int y = 0; y < tile.height; y++) {
+            int row0 = Math.min(y * 2, from.height - 1) * from.width;
+            int row1 = Math.min(y * 2 + 1, from.height - 1) * from.width;
+            for (int x = 0; x < tile.width; x++) {
+                int x0 = Math.min(x * 2, from.width - 1);
+                int x1 = Math.min(x * 2 + 1, from.width - 1);
+                target[y * tile.width + x] = average(source[row0 + x0], source[row0 + x1],
+                                                     source[row1 + x0], source[row1 + x1]);
+            }
+        }
+        store.writePixels(tile.x, tile.y, tile.width, tile.height, target, 0, tile.width);
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        if (a == b && b == c && c == d) {
+            return a;
+        }
+        int alpha = ((a >>> 24) + (b >>> 24) + (c >>> 24) + (d >>> 24) + 2) >> 2;
+        int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+        int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+        int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+}
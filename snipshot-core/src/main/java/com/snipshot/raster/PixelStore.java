@@ -0,0 +1,45 @@
+package com.snipshot.raster;
+
+import java.util.function.Consumer;
+
+/**
+ * Backing store for the pixels of a layer. Pixels are premultiplied ARGB ints,
+ * the same layout as {@code PixelFormat.getIntArgbPreInstance()}.
+ */
+public interface PixelStore {
+    int getWidth();
+
+    int getHeight();
+
+    int getPixel(int x, int y);
+
+    void setPixel(int x, int y, int argb);
+
+    void readPixels(int x, int y, int width, int height, int[] dst, int offset, int scanlineStride);
+
+    void writePixels(int x, int y, int width, int height, int[] src, int offset, int scanlineStride);
+
+    void fill(int x, int y, int width, int height, int argb);
+
+    // Bytes of pixel memory currently held by the store
+    long getAllocatedBytes();
+
+    PixelStore copy();
+
+    // Copy that is safe to read from another thread while this store changes
+    default PixelStore snapshot() {
+        return copy();
+    }
+
+    // Called when a store is no longer needed
+    default void release() {
+    }
+
+    void addChangeListener(Consumer<Rect> listener);
+
+    void removeChangeListener(Consumer<Rect> listener);
+
+    default Rect getBounds() {
+        return new Rect(0, 0, getWidth(), getHeight());
+    }
+}
@@ -0,0 +1,72 @@
+package com.snipshot.raster;
+
+/**
+ * Helpers for packed ARGB ints.
+ */
+public final class Pixels {
+    private Pixels() {
+    }
+
+    // a * b / 255 with correct rounding for 0..255 inputs
+    public static int mul255(int a, int b) {
+        int t = a * b + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+
+    public static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            return argb;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        int r = mul255((argb >> 16) & 0xFF, a);
+        int g = mul255((argb >> 8) & 0xFF, a);
+        int b = mul255(argb & 0xFF, a);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    public static int unpremultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255 || a == 0) {
+            return a == 0 ? 0 : argb;
+        }
+        int r = Math.min(255, (((argb >> 16) & 0xFF) * 255 + a / 2) / a);
+        int g = Math.min(255, (((argb >> 8) & 0xFF) * 255 + a / 2) / a);
+        int b = Math.min(255, ((argb & 0xFF) * 255 + a / 2) / a);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // Scales every channel of a premultiplied pixel by coverage 0..255
+    public static int scale(int argb, int coverage) {
+        if (coverage == 255) {
+            return argb;
+        }
+        if (coverage == 0) {
+            return 0;
+        }
+        int a = mul255(argb >>> 24, coverage);
+        int r = mul255((argb >> 16) & 0xFF, coverage);
+        int g = mul255((argb >> 8) & 0xFF, coverage);
+        int b = mul255(argb & 0xFF, coverage);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // Porter-Duff source-over for premultiplied pixels
+    public static int srcOver(int src, int dst) {
+        int sa = src >>> 24;
+        if (sa == 255) {
+            return src;
+        }
+        if (sa == 0) {
+            return dst;
+        }
+        int inv = 255 - sa;
+        int a = sa + mul255(dst >>> 24, inv);
+        int r = ((src >> 16) & 0xFF) + mul255((dst >> 16) & 0xFF, inv);
+        int g = ((src >> 8) & 0xFF) + mul255((dst >> 8) & 0xFF, inv);
+        int b = (src & 0xFF) + mul255(dst & 0xFF, inv);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,337 @@
+package com.snipshot.raster;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a pixel store as an 8-bit RGBA PNG, deflating strips of rows in
+ * parallel. Each strip is primed with the last 32 KB of the strip before it
+ * and ends with a sync flush, so the strips join into the single zlib stream
+ * PNG requires while compressing almost as well as one sequential pass.
+ */
+public class PngEncoder {
+
+    /**
+     * Row filter applied before deflating. ADAPTIVE picks the filter with
+     * the smallest sum of absolute differences for every row, which suits
+     * photos; flat screenshots compress best with NONE.
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int STRIP_BYTES = 1 << 18;
+    private static final int WINDOW = 32 * 1024;
+
+    private int compressionLevel = 6;
+    private Filter filter = Filter.NONE;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private DoubleConsumer progressListener;
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be 0-9: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Called with the fraction of rows written, from the writing thread
+    public void setProgressListener(DoubleConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Encodes the store to out. Interrupting the calling thread stops the
+     * encoder with an {@link InterruptedIOException}.
+     */
+    public void write(PixelStore store, OutputStream out) throws IOException {
+        int width = store.getWidth();
+        int height = store.getHeight();
+        int rowsPerStrip = Math.max(1, STRIP_BYTES / (width * 4 + 1));
+        int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 6; // RGBA
+        writeChunk(data, "IHDR", header, 0, header.length);
+        writeChunk(data, "IDAT", zlibHeader(), 0, 2);
+
+        // Strips filter independently; deflating one needs the strip before it as dictionary
+        Deque<CompletableFuture<Strip>> pending = new ArrayDeque<>();
+        int maxPending = pool.getParallelism() * 2 + 1;
+        CompletableFuture<byte[]> previous = CompletableFuture.completedFuture(null);
+        long adler = 1;
+        int next = 0;
+        for (int written = 0; written < strips; written++) {
+            while (next < strips && pending.size() < maxPending) {
+                int y = next * rowsPerStrip;
+                int rows = Math.min(rowsPerStrip, height - y);
+                boolean last = next == strips - 1;
+                CompletableFuture<byte[]> filtered = CompletableFuture.supplyAsync(
+                    () -> filterRows(store, y, rows), pool);
+                pending.add(filtered.thenCombineAsync(previous,
+                    (raw, dictionary) -> deflate(raw, dictionary, last), pool));
+                previous = filtered;
+                next++;
+            }
+            Strip strip = await(pending.poll());
+            writeChunk(data, "IDAT", strip.compressed, 0, strip.length);
+            adler = combineAdler32(adler, strip.adler, strip.rawLength);
+            if (progressListener != null) {
+                progressListener.accept((double) (written + 1) / strips);
+            }
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(data, "IDAT", trailer, 0, 4);
+        writeChunk(data, "IEND", new byte[0], 0, 0);
+        data.flush();
+    }
+
+    private Strip await(CompletableFuture<Strip> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PNG encoding interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("PNG encoding failed", cause);
+        }
+    }
+
+    // Filter type byte followed by the filtered RGBA bytes, for every row
+    private byte[] filterRows(PixelStore store, int y, int rows) {
+        int width = store.getWidth();
+        int stride = width * 4;
+        int[] argb = new int[width];
+        byte[] prior = new byte[stride];
+        byte[] current = new byte[stride];
+        if (y > 0) {
+            toRgba(store, y - 1, argb, prior);
+        }
+        byte[] out = new byte[rows * (stride + 1)];
+        byte[][] candidates = filter == Filter.ADAPTIVE ? new byte[5][stride] : null;
+        for (int row = 0; row < rows; row++) {
+            toRgba(store, y + row, argb, current);
+            int offset = row * (stride + 1);
+            if (candidates == null) {
+                out[offset] = (byte) filter.ordinal();
+                applyFilter(filter.ordinal(), current, prior, out, offset + 1);
+            } else {
+                int best = 0;
+                long bestSum = Long.MAX_VALUE;
+                for (int type = 0; type < 5; type++) {
+                    applyFilter(type, current, prior, candidates[type], 0);
+                    long sum = absoluteSum(candidates[type], bestSum);
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        best = type;
+                    }
+                }
+                out[offset] = (byte) best;
+                System.arraycopy(candidates[best], 0, out, offset + 1, stride);
+            }
+            byte[] swap = prior;
+            prior = current;
+            current = swap;
+        }
+        return out;
+    }
+
+    private static void toRgba(PixelStore store, int y, int[] argb, byte[] rgba) {
+        store.readPixels(0, y, argb.length, 1, argb, 0, argb.length);
+        for (int x = 0, i = 0; x < argb.length; x++, i += 4) {
+            int pixel = Pixels.unpremultiply(argb[x]);
+            rgba[i] = (byte) (pixel >> 16);
+            rgba[i + 1] = (byte) (pixel >> 8);
+            rgba[i + 2] = (byte) pixel;
+            rgba[i + 3] = (byte) (pixel >>> 24);
+        }
+    }
+
+    private static void applyFilter(int type, byte[] row, byte[] prior, byte[] out, int offset) {
+        int stride = row.length;
+        for (int i = 0; i < stride; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= 4 ? row[i - 4] & 0xFF : 0;
+            int b = prior[i] & 0xFF;
+            int c = i >= 4 ? prior[i - 4] & 0xFF : 0;
+            int predicted;
+            switch (type) {
+                case 1:
+                    predicted = a;
+                    break;
+                case 2:
+                    predicted = b;
+                    break;
+                case 3:
+                    predicted = (a + b) >> 1;
+                    break;
+                case 4:
+                    predicted = paeth(a, b, c);
+                    break;
+                default:
+                    predicted = 0;
+                    break;
+            }
+            out[offset + i] = (byte) (x - predicted);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    // Bytes taken as signed, the usual heuristic; stops once past limit
+    private static long absoluteSum(byte[] filtered, long limit) {
+        long sum = 0;
+        for (int i = 0; i < filtered.length && sum < limit; i++) {
+            sum += Math.abs(filtered[i]);
+        }
+        return sum;
+    }
+
+    private Strip deflate(byte[] raw, byte[] previous, boolean last) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            if (previous != null) {
+                int length = Math.min(WINDOW, previous.length);
+                deflater.setDictionary(previous, previous.length - length, length);
+            }
+            deflater.setInput(raw);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] out = new byte[raw.length / 2 + 1024];
+            int length = 0;
+            while (true) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int count = deflater.deflate(out, length, out.length - length,
+                                             last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                length += count;
+                // Done once a flush leaves room in the buffer, or the stream is finished
+                if (last ? deflater.finished() : length < out.length) {
+                    break;
+                }
+            }
+            Adler32 adler = new Adler32();
+            adler.update(raw);
+            return new Strip(out, length, adler.getValue(), raw.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] zlibHeader() {
+        int level = compressionLevel <= 1 ? 0 : compressionLevel <= 5 ? 1 : compressionLevel == 6 ? 2 : 3;
+        int cmf = 0x78;
+        int flg = level << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        return new byte[] {(byte) cmf, (byte) flg};
+    }
+
+    // adler32 of two concatenated blocks, as zlib's adler32_combine
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return (sum2 << 16) | sum1;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static final class Strip {
+        final byte[] compressed;
+        final int length;
+        final long adler;
+        final int rawLength;
+
+        Strip(byte[] compressed, int length, long adler, int rawLength) {
+            this.compressed = compressed;
+            this.length = length;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.snipshot.raster;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+
+/**
+ * Draws shapes, text and images into a {@link PixelStore} without needing the
+ * JavaFX toolkit. Shapes are turned into an anti-aliased coverage mask with
+ * Java2D and then blended into the store, touching only their bounds.
+ * Every draw call returns the region it changed, or null if nothing changed.
+ */
+public class RasterGraphics {
+    private static final FontRenderContext FONT_CONTEXT = new FontRenderContext(null, true, true);
+    private static final int MASK_BAND_PIXELS = 1 << 20; // filled selections are blended this much at a time
+    private static final int RESAMPLE_BLOCK_PIXELS = 1 << 20; // source pixels a transformed image is read in
+
+    private final PixelStore target;
+    private int color = 0xFF000000;
+    private boolean erasing;
+    private BufferedImage mask;
+    private byte[] maskData;
+    private int[] buffer = new int[0];
+
+    public RasterGraphics(PixelStore target) {
+        this.target = target;
+    }
+
+    public PixelStore getTarget() {
+        return target;
+    }
+
+    // Straight (non-premultiplied) ARGB
+    public void setColor(int argb) {
+        this.color = argb;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    /**
+     * While erasing, shapes and dabs take alpha away from the target
+     * instead of painting, as much as the current color's alpha.
+     */
+    public void setErasing(boolean erasing) {
+        this.erasing = erasing;
+    }
+
+    public boolean isErasing() {
+        return erasing;
+    }
+
+    public Rect fillRect(double x, double y, double width, double height) {
+        boolean aligned = x == Math.rint(x) && y == Math.rint(y)
+            && width == Math.rint(width) && height == Math.rint(height);
+        if (aligned && (color >>> 24) == 255) {
+            Rect region = clip(new Rect((int) x, (int) y, (int) width, (int) height));
+            if (region.isEmpty()) {
+                return null;
+            }
+            target.fill(region.x, region.y, region.width, region.height, erasing ? 0 : color);
+            return region;
+        }
+        return fillShape(new Rectangle2D.Double(x, y, width, height));
+    }
+
+    public Rect fillOval(double x, double y, double width, double height) {
+        return fillShape(new Ellipse2D.Double(x, y, width, height));
+    }
+
+    public Rect fillPolygon(double[] xPoints, double[] yPoints, int count) {
+        Path2D.Double path = new Path2D.Double();
+        path.moveTo(xPoints[0], yPoints[0]);
+        for (int i = 1; i < count; i++) {
+            path.lineTo(xPoints[i], yPoints[i]);
+        }
+        path.closePath();
+        return fillShape(path);
+    }
+
+    public Rect strokeLine(double x1, double y1, double x2, double y2, double lineWidth) {
+        BasicStroke stroke = new BasicStroke((float) lineWidth, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER);
+        return fillShape(stroke.createStrokedShape(new Line2D.Double(x1, y1, x2, y2)));
+    }
+
+    // Outline of any path with round caps and joins, as a drawn line
+    public Rect strokeShape(Shape shape, double lineWidth) {
+        BasicStroke stroke = new BasicStroke((float) lineWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        return fillShape(stroke.createStrokedShape(shape));
+    }
+
+    public Rect strokeRect(double x, double y, double width, double height, double lineWidth) {
+        BasicStroke stroke = new BasicStroke((float) lineWidth, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER);
+        return fillShape(stroke.createStrokedShape(new Rectangle2D.Double(x, y, width, height)));
+    }
+
+    // Draws text with its first baseline at y, one line per '\n'
+    public Rect fillText(String text, Font font, double x, double y) {
+        double lineHeight = font.getLineMetrics("Ag", FONT_CONTEXT).getHeight();
+        Path2D.Double outline = new Path2D.Double();
+        String[] lines = text.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            if (!lines[i].isEmpty()) {
+                outline.append(font.createGlyphVector(FONT_CONTEXT, lines[i])
+                    .getOutline((float) x, (float) (y + i * lineHeight)), false);
+            }
+        }
+        return fillShape(outline);
+    }
+
+    public Rect fillShape(Shape shape) {
+        Rectangle bounds = shape.getBounds();
+        Rect region = clip(new Rect(bounds.x, bounds.y, bounds.width + 1, bounds.height + 1));
+        if (region.isEmpty() || (color >>> 24) == 0) {
+            return null;
+        }
+        int scan = rasterize(shape, region);
+        return blendCoverage(region, maskData, 0, scan, Pixels.premultiply(color));
+    }
+
+    // Blends a prepared dab in the current color, its centre in pixel (x, y)
+    public Rect stamp(DabMask dab, int x, int y) {
+        int left = x + dab.getOriginX();
+        int top = y + dab.getOriginY();
+        Rect region = clip(new Rect(left, top, dab.getWidth(), dab.getHeight()));
+        if (region.isEmpty() || (color >>> 24) == 0) {
+            return null;
+        }
+        int offset = (region.y - top) * dab.getWidth() + (region.x - left);
+        return blendCoverage(region, dab.getAlpha(), offset, dab.getWidth(), Pixels.premultiply(color));
+    }
+
+    /**
+     * Fills the selected pixels in the current color, or takes them away
+     * while erasing. Large selections are done a band of rows at a time, so
+     * scratch memory stays bounded.
+     */
+    public Rect fillMask(SelectionMask selection) {
+        Rect region = clip(selection.getBounds());
+        if (region.isEmpty() || (color >>> 24) == 0) {
+            return null;
+        }
+        if (selection.isRectangular()) {
+            return fillRect(region.x, region.y, region.width, region.height);
+        }
+        int band = Math.max(1, Math.min(region.height, MASK_BAND_PIXELS / region.width));
+        byte[] coverage = new byte[region.width * band];
+        for (int y = region.y; y < region.getMaxY(); y += band) {
+            Rect part = new Rect(region.x, y, region.width, Math.min(band, region.getMaxY() - y));
+            Arrays.fill(coverage, (byte) 0);
+            for (int row = 0; row < part.height; row++) {
+                int[] runs = selection.getRuns(y + row);
+                for (int i = 0; i < runs.length; i += 2) {
+                    int start = Math.max(runs[i], region.x) - region.x;
+                    int end = Math.min(runs[i + 1], region.getMaxX()) - region.x;
+                    if (start < end) {
+                        Arrays.fill(coverage, row * region.width + start, row * region.width + end, (byte) 255);
+                    }
+                }
+            }
+            blendCoverage(part, coverage, 0, region.width, Pixels.premultiply(color));
+        }
+        return region;
+    }
+
+    // Source-over of premultiplied ARGB pixels at (dx, dy)
+    public Rect drawImage(int[] pixels, int srcWidth, int srcHeight, int dx, int dy) {
+        return drawImage(pixels, srcWidth, srcHeight, dx, dy, 1.0);
+    }
+
+    public Rect drawImage(int[] pixels, int srcWidth, int srcHeight, int dx, int dy, double opacity) {
+        Rect region = clip(new Rect(dx, dy, srcWidth, srcHeight));
+        if (region.isEmpty()) {
+            return null;
+        }
+        int alpha = (int) Math.round(Math.max(0, Math.min(1, opacity)) * 255);
+        int w = region.width;
+        int h = region.height;
+        int[] dst = buffer(w * h);
+        target.readPixels(region.x, region.y, w, h, dst, 0, w);
+        for (int row = 0; row < h; row++) {
+            int si = (region.y - dy + row) * srcWidth + (region.x - dx);
+            int di = row * w;
+            for (int col = 0; col < w; col++) {
+                dst[di + col] = Pixels.srcOver(Pixels.scale(pixels[si + col], alpha), dst[di + col]);
+            }
+        }
+        target.writePixels(region.x, region.y, w, h, dst, 0, w);
+        return region;
+    }
+
+    /**
+     * Source-over of a tiled store at (dx, dy), one tile at a time. If the
+     * offset is a whole number of tiles, a tile landing on an empty target
+     * tile, or covering it with opaque pixels, is shared instead of copied.
+     */
+    public Rect drawImage(TiledPixelStore source, int dx, int dy) {
+        Rect region = clip(new Rect(dx, dy, source.getWidth(), source.getHeight()));
+        if (region.isEmpty()) {
+            return null;
+        }
+        int size = TiledPixelStore.TILE_SIZE;
+        TiledPixelStore tiled = target instanceof TiledPixelStore ? (TiledPixelStore) target : null;
+        boolean aligned = tiled != null && dx % size == 0 && dy % size == 0;
+        int[] tile = new int[size * size];
+        for (int ty = 0; ty < source.getTilesY(); ty++) {
+            for (int tx = 0; tx < source.getTilesX(); tx++) {
+                Rect bounds = source.getTileBounds(tx, ty);
+                if (source.isTileEmpty(tx, ty) || clip(bounds.translate(dx, dy)).isEmpty()) {
+                    continue;
+                }
+                int targetX = tx + dx / size;
+                int targetY = ty + dy / size;
+                if (aligned && tiled.isTileEmpty(targetX, targetY)) {
+                    tiled.shareTile(source, tx, ty, targetX, targetY);
+                    continue;
+                }
+                source.readPixels(bounds.x, bounds.y, bounds.width, bounds.height, tile, 0, bounds.width);
+                if (aligned && bounds.width == size && bounds.height == size && isOpaque(tile)) {
+                    tiled.shareTile(source, tx, ty, targetX, targetY);
+                } else {
+                    drawImage(tile, bounds.width, bounds.height, bounds.x + dx, bounds.y + dy);
+                }
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Source-over of a tiled store placed by an affine transform. Whole-pixel
+     * moves go tile by tile as above; anything else is resampled with filter
+     * and blended a block at a time, reading only the source under it.
+     */
+    public Rect drawImage(TiledPixelStore source, AffineTransform transform, Resampler.Filter filter) {
+        if (transform.getType() == AffineTransform.TYPE_IDENTITY
+                || (transform.getType() == AffineTransform.TYPE_TRANSLATION
+                    && transform.getTranslateX() == Math.rint(transform.getTranslateX())
+                    && transform.getTranslateY() == Math.rint(transform.getTranslateY()))) {
+            return drawImage(source, (int) transform.getTranslateX(), (int) transform.getTranslateY());
+        }
+        Rect region = clip(Resampler.getBounds(source.getWidth(), source.getHeight(), transform));
+        if (region.isEmpty()) {
+            return null;
+        }
+        boolean drawn = Resampler.resample(source, transform, region, filter, RESAMPLE_BLOCK_PIXELS,
+            (block, resampled) -> drawImage(resampled, block.width, block.height, block.x, block.y));
+        return drawn ? region : null;
+    }
+
+    private static boolean isOpaque(int[] pixels) {
+        for (int p : pixels) {
+            if ((p >>> 24) != 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Rect blendCoverage(Rect region, byte[] coverage, int offset, int scan, int premultiplied) {
+        int w = region.width;
+        int h = region.height;
+        int[] dst = buffer(w * h);
+        target.readPixels(region.x, region.y, w, h, dst, 0, w);
+        if (erasing) {
+            // Destination-out: what is left is scaled by the inverse of the eraser's coverage
+            int alpha = premultiplied >>> 24;
+            for (int row = 0; row < h; row++) {
+                int mi = offset + row * scan;
+                int di = row * w;
+                for (int col = 0; col < w; col++) {
+                    int c = coverage[mi + col] & 0xFF;
+                    if (c != 0 && dst[di + col] != 0) {
+                        dst[di + col] = Pixels.scale(dst[di + col], 255 - (c * alpha + 127) / 255);
+                    }
+                }
+            }
+            target.writePixels(region.x, region.y, w, h, dst, 0, w);
+            return region;
+        }
+        for (int row = 0; row < h; row++) {
+            int mi = offset + row * scan;
+            int di = row * w;
+            for (int col = 0; col < w; col++) {
+                int c = coverage[mi + col] & 0xFF;
+                if (c != 0) {
+                    dst[di + col] = Pixels.srcOver(Pixels.scale(premultiplied, c), dst[di + col]);
+                }
+            }
+        }
+        target.writePixels(region.x, region.y, w, h, dst, 0, w);
+        return region;
+    }
+
+    // Renders the shape's coverage into the scratch mask, returns the mask stride
+    private int rasterize(Shape shape, Rect region) {
+        if (mask == null || mask.getWidth() < region.width || mask.getHeight() < region.height) {
+            int w = Math.max(region.width, mask == null ? 0 : mask.getWidth());
+            int h = Math.max(region.height, mask == null ? 0 : mask.getHeight());
+            mask = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+            maskData = ((DataBufferByte) mask.getRaster().getDataBuffer()).getData();
+        }
+        Graphics2D g = mask.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, region.width, region.height);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.setColor(Color.WHITE);
+            g.translate(-region.x, -region.y);
+            g.fill(shape);
+        } finally {
+            g.dispose();
+        }
+        return mask.getWidth();
+    }
+
+    private Rect clip(Rect region) {
+        return region.intersect(target.getBounds());
+    }
+
+    private int[] buffer(int size) {
+        if (buffer.length < size) {
+            buffer = new int[size];
+        }
+        return buffer;
+    }
+}
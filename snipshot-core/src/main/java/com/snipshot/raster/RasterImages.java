@@ -0,0 +1,46 @@
+package com.snipshot.raster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Conversions between pixel stores and {@link BufferedImage}s for ImageIO.
+ */
+public final class RasterImages {
+    private static final int STRIP = TiledPixelStore.TILE_SIZE;
+
+    private RasterImages() {
+    }
+
+    // Opaque images are flattened onto white, e.g. for JPEG
+    public static BufferedImage toBufferedImage(PixelStore store, boolean opaque) {
+        int width = store.getWidth();
+        int height = store.getHeight();
+        BufferedImage image = new BufferedImage(width, height,
+            opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        store.readPixels(0, 0, width, height, data, 0, width);
+        if (opaque) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = Pixels.srcOver(data[i], 0xFFFFFFFF) & 0x00FFFFFF;
+            }
+        }
+        return image;
+    }
+
+    public static TiledPixelStore toPixelStore(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        TiledPixelStore store = new TiledPixelStore(width, height);
+        int[] row = new int[width * Math.min(STRIP, Math.max(1, height))];
+        for (int y = 0; y < height; y += STRIP) {
+            int h = Math.min(STRIP, height - y);
+            image.getRGB(0, y, width, h, row, 0, width);
+            for (int i = 0; i < width * h; i++) {
+                row[i] = Pixels.premultiply(row[i]);
+            }
+            store.writePixels(0, y, width, h, row, 0, width);
+        }
+        return store;
+    }
+}
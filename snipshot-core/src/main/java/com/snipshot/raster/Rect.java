@@ -0,0 +1,101 @@
+package com.snipshot.raster;
+
+/**
+ * Integer pixel rectangle used for dirty regions and tile bounds.
+ */
+public final class Rect {
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+
+    public Rect(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = Math.max(0, width);
+        this.height = Math.max(0, height);
+    }
+
+    // Smallest integer rectangle covering the given double bounds
+    public static Rect covering(double minX, double minY, double maxX, double maxY) {
+        int x0 = (int) Math.floor(minX);
+        int y0 = (int) Math.floor(minY);
+        int x1 = (int) Math.ceil(maxX);
+        int y1 = (int) Math.ceil(maxY);
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    public int getMaxX() {
+        return x + width;
+    }
+
+    public int getMaxY() {
+        return y + height;
+    }
+
+    public boolean isEmpty() {
+        return width == 0 || height == 0;
+    }
+
+    public boolean contains(Rect other) {
+        return other.x >= x && other.y >= y
+            && other.getMaxX() <= getMaxX() && other.getMaxY() <= getMaxY();
+    }
+
+    public boolean intersects(Rect other) {
+        return !intersect(other).isEmpty();
+    }
+
+    public Rect intersect(Rect other) {
+        int x0 = Math.max(x, other.x);
+        int y0 = Math.max(y, other.y);
+        int x1 = Math.min(getMaxX(), other.getMaxX());
+        int y1 = Math.min(getMaxY(), other.getMaxY());
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    public Rect translate(int dx, int dy) {
+        return new Rect(x + dx, y + dy, width, height);
+    }
+
+    public Rect union(Rect other) {
+        if (other == null || other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        int x0 = Math.min(x, other.x);
+        int y0 = Math.min(y, other.y);
+        int x1 = Math.max(getMaxX(), other.getMaxX());
+        int y1 = Math.max(getMaxY(), other.getMaxY());
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    // Null-tolerant union for accumulating dirty regions
+    public static Rect union(Rect a, Rect b) {
+        if (a == null || a.isEmpty()) {
+            return b;
+        }
+        return a.union(b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Rect)) {
+            return false;
+        }
+        Rect r = (Rect) o;
+        return x == r.x && y == r.y && width == r.width && height == r.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((x * 31 + y) * 31 + width) * 31 + height;
+    }
+
+    @Override
+    public String toString() {
+        return "Rect[" + x + ", " + y + ", " + width + "x" + height + "]";
+    }
+}
@@ -0,0 +1,329 @@
+package com.snipshot.raster;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+/**
+ * Draws premultiplied images through an affine transform in plain Java, in
+ * parallel across rows. Each target pixel maps back to the source and is
+ * filtered there; pixels outside the source count as transparent, so edges
+ * come out anti-aliased. When shrinking by 2x or more the source is first
+ * halved with a box filter, which keeps the filter cheap and free of
+ * aliasing however small the result is.
+ */
+public final class Resampler {
+    private static final int MIN_PIXELS_PER_TASK = 16 * 1024;
+    private static final int LANCZOS_LOBES = 3;
+
+    public enum Filter {
+        BILINEAR("Bilinear", 1),
+        LANCZOS("Lanczos", LANCZOS_LOBES);
+
+        private static final int TABLE_STEPS = 1024; // weights per source pixel of distance
+
+        private final String displayName;
+        private final int radius; // support in source pixels at 1:1
+        private final float[] weights; // tabulated, so no trigonometry per tap
+
+        Filter(String displayName, int radius) {
+            this.displayName = displayName;
+            this.radius = radius;
+            weights = new float[radius * TABLE_STEPS + 1];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = (float) evaluate(i / (double) TABLE_STEPS);
+            }
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        double weight(double x) {
+            int i = (int) (Math.abs(x) * TABLE_STEPS + 0.5);
+            return i < weights.length ? weights[i] : 0;
+        }
+
+        private double evaluate(double x) {
+            if (radius == 1) {
+                return 1 - x;
+            }
+            if (x < 1e-9) {
+                return 1;
+            }
+            double px = Math.PI * x;
+            return LANCZOS_LOBES * Math.sin(px) * Math.sin(px / LANCZOS_LOBES) / (px * px);
+        }
+    }
+
+    private Resampler() {
+    }
+
+    // Part of the target plane the transformed source lands on
+    public static Rect getBounds(int srcWidth, int srcHeight, AffineTransform transform) {
+        Rectangle2D bounds = transform.createTransformedShape(new Rectangle2D.Double(0, 0, srcWidth, srcHeight))
+            .getBounds2D();
+        return Rect.covering(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+    }
+
+    /**
+     * Resamples a store, placed by transform, into the pixels of region and
+     * hands them to sink a block at a time. Each block reads only the part
+     * of the source its filter reaches, about blockPixels source pixels at
+     * most, so neither the source nor the result is ever held in one array.
+     * Returns false if the transform cannot be inverted.
+     */
+    public static boolean resample(PixelStore source, AffineTransform transform, Rect region, Filter filter,
+                                   int blockPixels, BiConsumer<Rect, int[]> sink) {
+        AffineTransform toSource;
+        try {
+            toSource = transform.createInverse();
+        } catch (NoninvertibleTransformException e) {
+            return false;
+        }
+        double scale = Math.max(1, footprint(toSource));
+        // Halve the source while each target pixel covers two or more source pixels
+        int levels = 0;
+        int srcWidth = source.getWidth();
+        int srcHeight = source.getHeight();
+        while (footprint(toSource) >= 2 && srcWidth > 1 && srcHeight > 1) {
+            srcWidth = (srcWidth + 1) / 2;
+            srcHeight = (srcHeight + 1) / 2;
+            toSource.preConcatenate(AffineTransform.getScaleInstance(0.5, 0.5)); // odd edges repeat their last pixel
+            levels++;
+        }
+        // The more source pixels a target pixel spans, the smaller the blocks; the filter reaches past them
+        int filterReach = (filter.radius + 2) * 2 << levels;
+        int side = (int) Math.max(1, (Math.sqrt(blockPixels) - filterReach) / scale);
+        for (int y = region.y; y < region.getMaxY(); y += side) {
+            for (int x = region.x; x < region.getMaxX(); x += side) {
+                Rect block = new Rect(x, y, Math.min(side, region.getMaxX() - x),
+                                      Math.min(side, region.getMaxY() - y));
+                int[] dst = resampleBlock(source, levels, srcWidth, srcHeight, toSource, block, filter);
+                if (dst != null) {
+                    sink.accept(block, dst);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One block of the above, or null if no source pixel reaches it. The
+     * source is read from whole pixels of the halved size, so halving just
+     * that part gives the same pixels as halving the whole source would.
+     */
+    private static int[] resampleBlock(PixelStore source, int levels, int srcWidth, int srcHeight,
+                                       AffineTransform toSource, Rect block, Filter filter) {
+        Rectangle2D reach = toSource.createTransformedShape(
+            new Rectangle2D.Double(block.x, block.y, block.width, block.height)).getBounds2D();
+        int margin = filter.radius + 1;
+        int left = Math.max(0, (int) Math.floor(reach.getMinX()) - margin);
+        int top = Math.max(0, (int) Math.floor(reach.getMinY()) - margin);
+        int right = Math.min(srcWidth, (int) Math.ceil(reach.getMaxX()) + margin);
+        int bottom = Math.min(srcHeight, (int) Math.ceil(reach.getMaxY()) + margin);
+        if (left >= right || top >= bottom) {
+            return null;
+        }
+        int width = Math.min(source.getWidth(), right << levels) - (left << levels);
+        int height = Math.min(source.getHeight(), bottom << levels) - (top << levels);
+        int[] src = new int[width * height];
+        source.readPixels(left << levels, top << levels, width, height, src, 0, width);
+        for (int i = 0; i < levels; i++) {
+            int halfWidth = (width + 1) / 2;
+            int halfHeight = (height + 1) / 2;
+            src = halve(src, width, height, halfWidth, halfHeight);
+            width = halfWidth;
+            height = halfHeight;
+        }
+        int[] dst = new int[block.width * block.height];
+        RowTask task = new RowTask(src, left, top, width, srcWidth, srcHeight, toSource, block, filter, dst,
+                                   0, block.height);
+        if ((long) block.width * block.height < MIN_PIXELS_PER_TASK * 2L) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+        return dst;
+    }
+
+    /**
+     * Box-filtered copy of a store scaled down to width x height, read a band
+     * of rows at a time so the source never has to be in one array.
+     */
+    public static int[] shrink(PixelStore source, int width, int height) {
+        int srcWidth = source.getWidth();
+        int srcHeight = source.getHeight();
+        int[] result = new int[width * height];
+        int[] band = new int[0];
+        for (int y = 0; y < height; y++) {
+            int top = (int) ((long) y * srcHeight / height);
+            int rows = Math.max(1, (int) ((long) (y + 1) * srcHeight / height) - top);
+            if (band.length < rows * srcWidth) {
+                band = new int[rows * srcWidth];
+            }
+            source.readPixels(0, top, srcWidth, rows, band, 0, srcWidth);
+            for (int x = 0; x < width; x++) {
+                int left = (int) ((long) x * srcWidth / width);
+                int cols = Math.max(1, (int) ((long) (x + 1) * srcWidth / width) - left);
+                long a = 0, r = 0, g = 0, b = 0;
+                for (int row = 0; row < rows; row++) {
+                    for (int i = row * srcWidth + left, end = i + cols; i < end; i++) {
+                        int p = band[i];
+                        a += p >>> 24;
+                        r += (p >> 16) & 0xFF;
+                        g += (p >> 8) & 0xFF;
+                        b += p & 0xFF;
+                    }
+                }
+                long count = (long) rows * cols;
+                long half = count / 2;
+                result[y * width + x] = (int) ((a + half) / count) << 24 | (int) ((r + half) / count) << 16
+                    | (int) ((g + half) / count) << 8 | (int) ((b + half) / count);
+            }
+        }
+        return result;
+    }
+
+    // Source pixels one target pixel spans, along the wider axis
+    private static double footprint(AffineTransform toSource) {
+        double sx = Math.hypot(toSource.getScaleX(), toSource.getShearY());
+        double sy = Math.hypot(toSource.getShearX(), toSource.getScaleY());
+        return Math.max(sx, sy);
+    }
+
+    private static int[] halve(int[] src, int width, int height, int halfWidth, int halfHeight) {
+        int[] half = new int[halfWidth * halfHeight];
+        for (int y = 0; y < halfHeight; y++) {
+            int row0 = Math.min(y * 2, height - 1) * width;
+            int row1 = Math.min(y * 2 + 1, height - 1) * width;
+            for (int x = 0; x < halfWidth; x++) {
+                int x0 = Math.min(x * 2, width - 1);
+                int x1 = Math.min(x * 2 + 1, width - 1);
+                int a = src[row0 + x0], b = src[row0 + x1], c = src[row1 + x0], d = src[row1 + x1];
+                half[y * halfWidth + x] =
+                    (((a >>> 24) + (b >>> 24) + (c >>> 24) + (d >>> 24) + 2) >> 2) << 24
+                    | ((((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2) << 16
+                    | ((((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2) << 8
+                    | (((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2);
+            }
+        }
+        return half;
+    }
+
+    private static class RowTask extends RecursiveAction {
+        private final int[] src; // the part of the source at (srcX, srcY), scan pixels wide
+        private final int srcX;
+        private final int srcY;
+        private final int scan;
+        private final int srcWidth;
+        private final int srcHeight;
+        private final AffineTransform toSource;
+        private final Rect region;
+        private final Filter filter;
+        private final int[] dst;
+        private final int firstRow;
+        private final int endRow;
+
+        RowTask(int[] src, int srcX, int srcY, int scan, int srcWidth, int srcHeight, AffineTransform toSource,
+                Rect region, Filter filter, int[] dst, int firstRow, int endRow) {
+            this.src = src;
+            this.srcX = srcX;
+            this.srcY = srcY;
+            this.scan = scan;
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.toSource = toSource;
+            this.region = region;
+            this.filter = filter;
+            this.dst = dst;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - firstRow;
+            if (rows > 1 && (long) rows * region.width > MIN_PIXELS_PER_TASK) {
+                int mid = firstRow + rows / 2;
+                invokeAll(
+                    new RowTask(src, srcX, srcY, scan, srcWidth, srcHeight, toSource, region, filter, dst,
+                                firstRow, mid),
+                    new RowTask(src, srcX, srcY, scan, srcWidth, srcHeight, toSource, region, filter, dst,
+                                mid, endRow));
+                return;
+            }
+            int radius = filter.radius;
+            double[] weightsX = new double[radius * 2];
+            double[] weightsY = new double[radius * 2];
+            Point2D.Double point = new Point2D.Double();
+            for (int row = firstRow; row < endRow; row++) {
+                for (int col = 0; col < region.width; col++) {
+                    point.setLocation(region.x + col + 0.5, region.y + row + 0.5);
+                    toSource.transform(point, point);
+                    // Pixel centres are at half coordinates
+                    double u = point.x - 0.5;
+                    double v = point.y - 0.5;
+                    if (u <= -radius || v <= -radius || u >= srcWidth - 1 + radius || v >= srcHeight - 1 + radius) {
+                        continue;
+                    }
+                    int x0 = (int) Math.floor(u) - radius + 1;
+                    int y0 = (int) Math.floor(v) - radius + 1;
+                    for (int i = 0; i < radius * 2; i++) {
+                        weightsX[i] = filter.weight(u - (x0 + i));
+                        weightsY[i] = filter.weight(v - (y0 + i));
+                    }
+                    dst[row * region.width + col] = filterAt(x0, y0, weightsX, weightsY, radius * 2);
+                }
+            }
+        }
+
+        // Weighted sum of the taps, normalised over the whole kernel so that outside pixels fade edges
+        private int filterAt(int x0, int y0, double[] weightsX, double[] weightsY, int taps) {
+            double sumX = 0;
+            for (int i = 0; i < taps; i++) {
+                sumX += weightsX[i];
+            }
+            int first = Math.max(0, -x0);
+            int end = Math.min(taps, srcWidth - x0);
+            double a = 0, r = 0, g = 0, b = 0, total = 0;
+            for (int j = 0; j < taps; j++) {
+                double wy = weightsY[j];
+                total += wy * sumX;
+                int y = y0 + j;
+                if (wy == 0 || y < 0 || y >= srcHeight) {
+                    continue;
+                }
+                // Sum the row first, then weight it once
+                double rowA = 0, rowR = 0, rowG = 0, rowB = 0;
+                int offset = (y - srcY) * scan + x0 - srcX;
+                for (int i = first; i < end; i++) {
+                    double w = weightsX[i];
+                    int p = src[offset + i];
+                    rowA += w * (p >>> 24);
+                    rowR += w * ((p >> 16) & 0xFF);
+                    rowG += w * ((p >> 8) & 0xFF);
+                    rowB += w * (p & 0xFF);
+                }
+                a += wy * rowA;
+                r += wy * rowR;
+                g += wy * rowG;
+                b += wy * rowB;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            int alpha = clamp(a / total, 255);
+            // Lanczos rings; premultiplied colour can never exceed its alpha
+            return alpha << 24 | clamp(r / total, alpha) << 16 | clamp(g / total, alpha) << 8 | clamp(b / total, alpha);
+        }
+
+        private static int clamp(double value, int max) {
+            return (int) Math.max(0, Math.min(max, Math.round(value)));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.snipshot.raster;
+
+import java.util.Arrays;
+
+/**
+ * Pixels inside a selection, stored as runs: for each row of the bounds
+ * the start and end x of every selected span, in order. A rectangle costs
+ * one run per row and a lasso a few, however large the document.
+ */
+public final class SelectionMask {
+    private static final int[] NO_RUNS = new int[0];
+
+    private final Rect bounds;
+    private final int[][] runs; // row y - bounds.y: start, end, start, end...
+    private final boolean rectangular;
+
+    private SelectionMask(Rect bounds, int[][] runs, boolean rectangular) {
+        this.bounds = bounds;
+        this.runs = runs;
+        this.rectangular = rectangular;
+    }
+
+    public static SelectionMask rectangle(Rect rect, Rect clip) {
+        Rect bounds = rect.intersect(clip);
+        int[][] runs = new int[Math.max(bounds.height, 0)][];
+        if (!bounds.isEmpty()) {
+            int[] row = { bounds.x, bounds.getMaxX() };
+            Arrays.fill(runs, row);
+        }
+        return new SelectionMask(bounds, runs, true);
+    }
+
+    /**
+     * Pixels whose centres lie inside a closed polygon, by the even-odd
+     * rule, so a lasso that crosses itself leaves the overlap out.
+     */
+    public static SelectionMask polygon(double[] xs, double[] ys, int count, Rect clip) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        Rect area = count < 3 ? new Rect(0, 0, 0, 0) : Rect.covering(minX, minY, maxX, maxY).intersect(clip);
+        int[][] runs = new int[Math.max(area.height, 0)][];
+        double[] crossings = new double[count];
+        int left = area.getMaxX();
+        int right = area.x;
+        int top = -1;
+        int bottom = -1;
+        for (int row = 0; row < runs.length; row++) {
+            double cy = area.y + row + 0.5;
+            int n = 0;
+            for (int i = 0, j = count - 1; i < count; j = i++) {
+                if ((ys[i] > cy) != (ys[j] > cy)) {
+                    crossings[n++] = xs[i] + (cy - ys[i]) / (ys[j] - ys[i]) * (xs[j] - xs[i]);
+                }
+            }
+            Arrays.sort(crossings, 0, n);
+            int[] spans = new int[n];
+            int size = 0;
+            for (int k = 0; k + 1 < n; k += 2) {
+                // Pixels from the first centre at or after one crossing to the last before the next
+                int start = Math.max(area.x, (int) Math.ceil(crossings[k] - 0.5));
+                int end = Math.min(area.getMaxX(), (int) Math.ceil(crossings[k + 1] - 0.5));
+                if (start < end) {
+                    spans[size++] = start;
+                    spans[size++] = end;
+                }
+            }
+            runs[row] = size == 0 ? NO_RUNS : Arrays.copyOf(spans, size);
+            if (size > 0) {
+                left = Math.min(left, runs[row][0]);
+                right = Math.max(right, runs[row][size - 1]);
+                top = top < 0 ? row : top;
+                bottom = row + 1;
+            }
+        }
+        if (top < 0) {
+            return new SelectionMask(new Rect(0, 0, 0, 0), new int[0][], false);
+        }
+        // Trim to the rows and columns that ended up selected
+        return new SelectionMask(new Rect(left, area.y + top, right - left, bottom - top),
+                                 Arrays.copyOfRange(runs, top, bottom), false);
+    }
+
+    public Rect getBounds() {
+        return bounds;
+    }
+
+    public boolean isEmpty() {
+        return bounds.isEmpty();
+    }
+
+    public boolean isRectangular() {
+        return rectangular;
+    }
+
+    // Start and end x of the selected spans in document row y, empty outside the bounds
+    public int[] getRuns(int y) {
+        if (y < bounds.y || y >= bounds.getMaxY()) {
+            return NO_RUNS;
+        }
+        return runs[y - bounds.y];
+    }
+
+    public boolean contains(int x, int y) {
+        int[] row = getRuns(y);
+        for (int i = 0; i < row.length; i += 2) {
+            if (x >= row[i] && x < row[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Selected pixels of a store, premultiplied, in a buffer the size of
+     * the bounds; everything outside the selection is transparent. Only the
+     * tiles under the bounds are read.
+     */
+    public int[] read(PixelStore pixels) {
+        int w = bounds.width;
+        int[] result = new int[w * bounds.height];
+        pixels.readPixels(bounds.x, bounds.y, w, bounds.height, result, 0, w);
+        if (!rectangular) {
+            for (int row = 0; row < bounds.height; row++) {
+                int[] spans = runs[row];
+                int offset = row * w - bounds.x;
+                int x = bounds.x;
+                for (int i = 0; i <= spans.length; i += 2) {
+                    int end = i < spans.length ? spans[i] : bounds.getMaxX();
+                    Arrays.fill(result, offset + x, offset + end, 0);
+                    if (i < spans.length) {
+                        x = spans[i + 1];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,27 @@
+package com.snipshot.raster;
+
+/**
+ * Something the painting engines draw on: a pixel store and the graphics
+ * that draw into it. Layers are surfaces; {@link #of} makes one of a bare
+ * store, e.g. for batch jobs and benchmarks.
+ */
+public interface Surface {
+    PixelStore getPixels();
+
+    RasterGraphics getGraphics();
+
+    static Surface of(PixelStore pixels) {
+        RasterGraphics graphics = new RasterGraphics(pixels);
+        return new Surface() {
+            @Override
+            public PixelStore getPixels() {
+                return pixels;
+            }
+
+            @Override
+            public RasterGraphics getGraphics() {
+                return graphics;
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+package com.snipshot.raster;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One 256x256 block of a {@link TiledPixelStore}. A tile is either a single
+ * color or an off-heap buffer of premultiplied ARGB pixels. Stores can share
+ * a tile; a shared tile is never modified, writers copy it first.
+ */
+final class Tile {
+    static final int SHIFT = 8;
+    static final int SIZE = 1 << SHIFT;
+    static final int MASK = SIZE - 1;
+    static final int PIXELS = SIZE * SIZE;
+    static final int BYTES = PIXELS * Integer.BYTES;
+
+    private ByteBuffer bytes;
+    private IntBuffer pixels; // null while the tile is uniform
+    private int color;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    Tile(int color) {
+        this.color = color;
+    }
+
+    boolean isUniform() {
+        return pixels == null;
+    }
+
+    int getColor() {
+        return color;
+    }
+
+    int get(int index) {
+        return pixels == null ? color : pixels.get(index);
+    }
+
+    // Returns the pixel buffer, expanding a uniform tile on first write
+    IntBuffer pixels() {
+        if (pixels == null) {
+            bytes = ByteBuffer.allocateDirect(BYTES).order(ByteOrder.nativeOrder());
+            pixels = bytes.asIntBuffer();
+            if (color != 0) {
+                fillBuffer(pixels, color);
+            }
+        }
+        return pixels;
+    }
+
+    // Raw pixel bytes in native order, null while the tile is uniform
+    ByteBuffer bytes() {
+        return pixels == null ? null : bytes.duplicate().clear();
+    }
+
+    void setUniform(int color) {
+        this.bytes = null;
+        this.pixels = null;
+        this.color = color;
+    }
+
+    // Drops the buffer again if every pixel ended up the same color
+    boolean collapse() {
+        if (pixels == null) {
+            return false;
+        }
+        int first = pixels.get(0);
+        for (int i = 1; i < PIXELS; i++) {
+            if (pixels.get(i) != first) {
+                return false;
+            }
+        }
+        setUniform(first);
+        return true;
+    }
+
+    Tile copy() {
+        Tile copy = new Tile(color);
+        if (pixels != null) {
+            IntBuffer dst = copy.pixels();
+            dst.put(0, pixels, 0, PIXELS);
+        }
+        return copy;
+    }
+
+    Tile retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    void release() {
+        references.decrementAndGet();
+    }
+
+    boolean isShared() {
+        return references.get() > 1;
+    }
+
+    long getAllocatedBytes() {
+        return pixels == null ? 0 : BYTES;
+    }
+
+    private static void fillBuffer(IntBuffer buffer, int color) {
+        int[] row = new int[SIZE];
+        java.util.Arrays.fill(row, color);
+        for (int y = 0; y < SIZE; y++) {
+            buffer.put(y << SHIFT, row, 0, SIZE);
+        }
+    }
+}
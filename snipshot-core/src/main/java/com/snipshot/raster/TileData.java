@@ -0,0 +1,135 @@
+package com.snipshot.raster;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable, compressed copy of one tile's contents. Uniform tiles are kept
+ * as their color, everything else as deflated pixel bytes. Tiles handed over
+ * by a decoder stay as plain pixels until they are written out.
+ */
+public final class TileData {
+    private static final TileData EMPTY = new TileData(0, null);
+
+    private final int color;
+    private final byte[] compressed; // null for uniform tiles
+    private final int[] raw; // uncompressed pixels, see ofPixels
+
+    private TileData(int color, byte[] compressed) {
+        this(color, compressed, null);
+    }
+
+    private TileData(int color, byte[] compressed, int[] raw) {
+        this.color = color;
+        this.compressed = compressed;
+        this.raw = raw;
+    }
+
+    public static TileData uniform(int color) {
+        return color == 0 ? EMPTY : new TileData(color, null);
+    }
+
+    // Takes over a full tile of premultiplied pixels without compressing it
+    public static TileData ofPixels(int[] argb) {
+        if (argb.length != Tile.PIXELS) {
+            throw new IllegalArgumentException("Expected " + Tile.PIXELS + " pixels, got " + argb.length);
+        }
+        int first = argb[0];
+        for (int i = 1; i < argb.length; i++) {
+            if (argb[i] != first) {
+                return new TileData(0, null, argb);
+            }
+        }
+        return uniform(first);
+    }
+
+    static TileData of(Tile tile) {
+        if (tile == null) {
+            return EMPTY;
+        }
+        if (tile.isUniform()) {
+            return tile.getColor() == 0 ? EMPTY : new TileData(tile.getColor(), null);
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(tile.bytes());
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Tile.BYTES / 8);
+            byte[] chunk = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+            return new TileData(0, out.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    void restoreInto(Tile tile) {
+        if (raw != null) {
+            tile.pixels().put(0, raw);
+            return;
+        }
+        if (compressed == null) {
+            tile.setUniform(color);
+            return;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            tile.pixels();
+            ByteBuffer target = tile.bytes();
+            inflater.setInput(compressed);
+            while (target.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(target) == 0 && inflater.needsInput()) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt tile data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public boolean isUniform() {
+        return compressed == null && raw == null;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public int getSizeInBytes() {
+        if (raw != null) {
+            return raw.length * Integer.BYTES;
+        }
+        return compressed == null ? Integer.BYTES : compressed.length;
+    }
+
+    public byte[] toBytes() {
+        if (raw != null) {
+            Tile tile = new Tile(0);
+            restoreInto(tile);
+            return of(tile).toBytes();
+        }
+        if (compressed == null) {
+            return ByteBuffer.allocate(5).put((byte) 0).putInt(color).array();
+        }
+        return ByteBuffer.allocate(1 + compressed.length).put((byte) 1).put(compressed).array();
+    }
+
+    public static TileData fromBytes(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.get() == 0) {
+            int color = buffer.getInt();
+            return color == 0 ? EMPTY : new TileData(color, null);
+        }
+        byte[] compressed = new byte[buffer.remaining()];
+        buffer.get(compressed);
+        return new TileData(0, compressed);
+    }
+}
@@ -0,0 +1,554 @@
+package com.snipshot.raster;
+
+import com.snipshot.metrics.Histogram;
+import com.snipshot.metrics.Metrics;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Pixel store that keeps a layer in 256x256 off-heap tiles. Tiles nobody has
+ * painted into are never allocated and tiles holding a single color are kept
+ * as that color, so memory grows with the painted area instead of the
+ * document size.
+ *
+ * {@link #snapshot()} shares the tiles instead of copying them; whichever
+ * store writes to a shared tile first gets its own copy. A snapshot may be
+ * read from another thread while this store keeps being edited.
+ *
+ * A store created with a {@link TileLoader} fetches each tile the first time
+ * it is used, e.g. from a project file, so untouched tiles are never decoded.
+ * Loaded tiles that were not modified can be evicted again to bound memory.
+ */
+public class TiledPixelStore implements PixelStore {
+    public static final int TILE_SIZE = Tile.SIZE;
+    private static final Histogram SNAPSHOT_TIME = Metrics.histogram("snapshot", Metrics.NANOS);
+
+    /**
+     * Notified right before a tile's contents are modified, so callers can
+     * keep a copy of what the tile looked like.
+     */
+    public interface TileListener {
+        void tileChanging(TiledPixelStore store, int tileX, int tileY);
+    }
+
+    /**
+     * Supplies the contents of tiles that are loaded on first use. Snapshots
+     * share the loader, so it may be called from several threads.
+     */
+    public interface TileLoader {
+        TileData load(int tileX, int tileY);
+    }
+
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tilesY;
+    private final Tile[] tiles;
+    private final List<Consumer<Rect>> changeListeners = new CopyOnWriteArrayList<>();
+    private final List<TileListener> tileListeners = new CopyOnWriteArrayList<>();
+    private final BitSet changedTiles = new BitSet(); // modified since takeChangedTiles
+    private final BitSet clean = new BitSet(); // supplied by the loader and unmodified since
+    private TileLoader loader;
+    private volatile BitSet pending; // tiles the loader still has to supply, null once all are loaded
+
+    public TiledPixelStore(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + Tile.MASK) >> Tile.SHIFT;
+        this.tilesY = (height + Tile.MASK) >> Tile.SHIFT;
+        this.tiles = new Tile[tilesX * tilesY];
+    }
+
+    public TiledPixelStore(int width, int height, TileLoader loader) {
+        this(width, height);
+        if (tiles.length > 0) {
+            BitSet all = new BitSet(tiles.length);
+            all.set(0, tiles.length);
+            this.loader = loader;
+            this.pending = all;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    @Override
+    public int getPixel(int x, int y) {
+        checkRegion(x, y, 1, 1);
+        Tile tile = tile((y >> Tile.SHIFT) * tilesX + (x >> Tile.SHIFT));
+        return tile == null ? 0 : tile.get(((y & Tile.MASK) << Tile.SHIFT) + (x & Tile.MASK));
+    }
+
+    @Override
+    public void setPixel(int x, int y, int argb) {
+        writePixels(x, y, 1, 1, new int[] { argb }, 0, 1);
+    }
+
+    @Override
+    public void readPixels(int x, int y, int w, int h, int[] dst, int offset, int scanlineStride) {
+        checkRegion(x, y, w, h);
+        int endX = x + w;
+        for (int row = 0; row < h; row++) {
+            int py = y + row;
+            int tileRow = (py >> Tile.SHIFT) * tilesX;
+            int localY = (py & Tile.MASK) << Tile.SHIFT;
+            int di = offset + row * scanlineStride;
+            int px = x;
+            while (px < endX) {
+                int localX = px & Tile.MASK;
+                int len = Math.min(endX - px, Tile.SIZE - localX);
+                Tile tile = tile(tileRow + (px >> Tile.SHIFT));
+                if (tile == null) {
+                    Arrays.fill(dst, di, di + len, 0);
+                } else if (tile.isUniform()) {
+                    Arrays.fill(dst, di, di + len, tile.getColor());
+                } else {
+                    tile.pixels().get(localY + localX, dst, di, len);
+                }
+                px += len;
+                di += len;
+            }
+        }
+    }
+
+    @Override
+    public void writePixels(int x, int y, int w, int h, int[] src, int offset, int scanlineStride) {
+        checkRegion(x, y, w, h);
+        if (w == 0 || h == 0) {
+            return;
+        }
+        int endX = x + w;
+        for (int row = 0; row < h; row++) {
+            int py = y + row;
+            int tileRow = (py >> Tile.SHIFT) * tilesX;
+            int localY = (py & Tile.MASK) << Tile.SHIFT;
+            int si = offset + row * scanlineStride;
+            int px = x;
+            while (px < endX) {
+                int localX = px & Tile.MASK;
+                int len = Math.min(endX - px, Tile.SIZE - localX);
+                int index = tileRow + (px >> Tile.SHIFT);
+                Tile tile = tile(index);
+                // Writing a uniform tile's own color back must not allocate it
+                int uniform = tile == null ? 0 : tile.getColor();
+                if ((tile == null || tile.isUniform()) && isRun(src, si, len, uniform)) {
+                    px += len;
+                    si += len;
+                    continue;
+                }
+                fireTileChanging(index);
+                writableTile(index).pixels().put(localY + localX, src, si, len);
+                px += len;
+                si += len;
+            }
+        }
+        fireChanged(new Rect(x, y, w, h));
+    }
+
+    @Override
+    public void fill(int x, int y, int w, int h, int argb) {
+        checkRegion(x, y, w, h);
+        if (w == 0 || h == 0) {
+            return;
+        }
+        int[] row = null;
+        int tx0 = x >> Tile.SHIFT;
+        int ty0 = y >> Tile.SHIFT;
+        int tx1 = (x + w - 1) >> Tile.SHIFT;
+        int ty1 = (y + h - 1) >> Tile.SHIFT;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Rect tileBounds = getTileBounds(tx, ty);
+                Rect part = tileBounds.intersect(new Rect(x, y, w, h));
+                int index = ty * tilesX + tx;
+                Tile tile = tile(index);
+                if (part.equals(tileBounds)) {
+                    if (tile != null && tile.isUniform() && tile.getColor() == argb) {
+                        continue;
+                    }
+                    fireTileChanging(index);
+                    changedTiles.set(index);
+                    clean.clear(index);
+                    if (tile == null || tile.isShared()) {
+                        if (tile != null) {
+                            tile.release();
+                        }
+                        tiles[index] = new Tile(argb);
+                    } else {
+                        tile.setUniform(argb);
+                    }
+                    continue;
+                }
+                if ((tile == null && argb == 0)
+                        || (tile != null && tile.isUniform() && tile.getColor() == argb)) {
+                    continue;
+                }
+                fireTileChanging(index);
+                tile = writableTile(index);
+                if (row == null) {
+                    row = new int[Tile.SIZE];
+                    Arrays.fill(row, argb);
+                }
+                for (int py = part.y; py < part.getMaxY(); py++) {
+                    int start = ((py & Tile.MASK) << Tile.SHIFT) + (part.x & Tile.MASK);
+                    tile.pixels().put(start, row, 0, part.width);
+                }
+            }
+        }
+        fireChanged(new Rect(x, y, w, h));
+    }
+
+    // Bounds of a tile clipped to the store
+    public Rect getTileBounds(int tileX, int tileY) {
+        int x = tileX << Tile.SHIFT;
+        int y = tileY << Tile.SHIFT;
+        return new Rect(x, y, Math.min(Tile.SIZE, width - x), Math.min(Tile.SIZE, height - y));
+    }
+
+    // True while the tile has never been painted or is fully transparent
+    public boolean isTileEmpty(int tileX, int tileY) {
+        Tile tile = tile(tileY * tilesX + tileX);
+        return tile == null || (tile.isUniform() && tile.getColor() == 0);
+    }
+
+    public boolean isTileAllocated(int tileX, int tileY) {
+        Tile tile = tile(tileY * tilesX + tileX);
+        return tile != null && !tile.isUniform();
+    }
+
+    // Compressed copy of a tile, cheap for tiles that were never painted
+    public TileData captureTile(int tileX, int tileY) {
+        return TileData.of(tile(tileY * tilesX + tileX));
+    }
+
+    // Puts a captured tile back without notifying tile listeners
+    public void restoreTile(int tileX, int tileY, TileData data) {
+        int index = tileY * tilesX + tileX;
+        if (tile(index) == null && data.isUniform() && data.getColor() == 0) {
+            return;
+        }
+        data.restoreInto(writableTile(index));
+        fireChanged(getTileBounds(tileX, tileY));
+    }
+
+    /**
+     * Tiles modified since the last call, e.g. to save only what changed.
+     * The set is cleared; hand it back to {@link #markTilesChanged} if the
+     * changes end up not being stored.
+     */
+    public BitSet takeChangedTiles() {
+        BitSet changed = (BitSet) changedTiles.clone();
+        changedTiles.clear();
+        return changed;
+    }
+
+    public void markTilesChanged(BitSet tiles) {
+        changedTiles.or(tiles);
+    }
+
+    public boolean isTileLoaded(int tileX, int tileY) {
+        BitSet pending = this.pending;
+        return pending == null || !pending.get(tileY * tilesX + tileX);
+    }
+
+    /**
+     * Asks the loader for a tile without installing it, so it can be decoded
+     * on another thread and handed to {@link #supplyTile} afterwards. Returns
+     * null if the tile is already loaded.
+     */
+    public TileData fetchTile(int tileX, int tileY) {
+        TileLoader loader;
+        synchronized (this) {
+            if (isTileLoaded(tileX, tileY)) {
+                return null;
+            }
+            loader = this.loader;
+        }
+        return loader.load(tileX, tileY);
+    }
+
+    // Installs a tile fetched ahead of time, unless it was loaded meanwhile
+    public void supplyTile(int tileX, int tileY, TileData data) {
+        synchronized (this) {
+            if (isTileLoaded(tileX, tileY)) {
+                return;
+            }
+            install(tileY * tilesX + tileX, data);
+        }
+        fireChanged(getTileBounds(tileX, tileY));
+    }
+
+    /**
+     * Drops loaded tiles outside keep that were not modified since, so they
+     * are fetched again on next use. Returns the number of tiles dropped.
+     */
+    public synchronized int evictTiles(Rect keep) {
+        int evicted = 0;
+        for (int i = clean.nextSetBit(0); i >= 0; i = clean.nextSetBit(i + 1)) {
+            if (getTileBounds(i % tilesX, i / tilesX).intersects(keep)) {
+                continue;
+            }
+            if (tiles[i] != null) {
+                tiles[i].release();
+                tiles[i] = null;
+            }
+            if (pending == null) {
+                pending = new BitSet(tiles.length);
+            }
+            pending.set(i);
+            clean.clear(i);
+            evicted++;
+        }
+        return evicted;
+    }
+
+    // Frees a tile without notifying anyone, for stores that are only a cache
+    public synchronized void dropTile(int tileX, int tileY) {
+        int index = tileY * tilesX + tileX;
+        if (tiles[index] != null) {
+            tiles[index].release();
+            tiles[index] = null;
+        }
+        clean.clear(index);
+    }
+
+    // Tiles that evictTiles could drop
+    public synchronized int getEvictableTiles() {
+        return clean.cardinality();
+    }
+
+    // Collapses tiles that turned out to hold a single color, returns the number freed
+    public int compact() {
+        int freed = 0;
+        for (Tile tile : tiles) {
+            if (tile != null && !tile.isShared() && tile.collapse()) {
+                freed++;
+            }
+        }
+        return freed;
+    }
+
+    // Same for the tiles overlapping region, e.g. once an eraser went over them
+    public int compact(Rect region) {
+        Rect clipped = region.intersect(getBounds());
+        int freed = 0;
+        for (int ty = clipped.y >> Tile.SHIFT; ty << Tile.SHIFT < clipped.getMaxY(); ty++) {
+            for (int tx = clipped.x >> Tile.SHIFT; tx << Tile.SHIFT < clipped.getMaxX(); tx++) {
+                Tile tile = tiles[ty * tilesX + tx];
+                if (tile != null && !tile.isShared() && tile.collapse()) {
+                    freed++;
+                }
+            }
+        }
+        return freed;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (Tile tile : tiles) {
+            if (tile != null) {
+                bytes += tile.getAllocatedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public TiledPixelStore copy() {
+        TiledPixelStore copy = new TiledPixelStore(width, height);
+        copy.inheritLoader(this);
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                copy.tiles[i] = tiles[i].copy();
+            }
+        }
+        return copy;
+    }
+
+    // Copy of the current pixels that costs one reference per tile; either side copies a tile before writing it
+    @Override
+    public TiledPixelStore snapshot() {
+        long start = System.nanoTime();
+        TiledPixelStore snapshot = new TiledPixelStore(width, height);
+        snapshot.inheritLoader(this);
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                snapshot.tiles[i] = tiles[i].retain();
+            }
+        }
+        SNAPSHOT_TIME.recordSince(start);
+        return snapshot;
+    }
+
+    // Gives up this store's tiles so stores sharing them can write without copying
+    @Override
+    public synchronized void release() {
+        loader = null;
+        pending = null;
+        clean.clear();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                tiles[i].release();
+                tiles[i] = null;
+            }
+        }
+    }
+
+    // Makes a tile of another store of the same size part of this one, shared
+    public void shareTile(TiledPixelStore source, int tileX, int tileY) {
+        share(tileY * tilesX + tileX, source.tile(tileY * source.tilesX + tileX));
+    }
+
+    /**
+     * Same for a tile of any store placed at another tile of this one, as an
+     * edit: tile listeners are told first, so it can be undone.
+     */
+    public void shareTile(TiledPixelStore source, int sourceTileX, int sourceTileY, int tileX, int tileY) {
+        int index = tileY * tilesX + tileX;
+        fireTileChanging(index);
+        share(index, source.tile(sourceTileY * source.tilesX + sourceTileX));
+    }
+
+    private void share(int index, Tile tile) {
+        if (pending != null) {
+            synchronized (this) {
+                if (pending != null) {
+                    pending.clear(index);
+                    if (pending.isEmpty()) {
+                        pending = null;
+                    }
+                }
+            }
+        }
+        clean.clear(index);
+        Tile shared = tile == null ? null : tile.retain();
+        if (tiles[index] != null) {
+            tiles[index].release();
+        }
+        tiles[index] = shared;
+        changedTiles.set(index);
+        fireChanged(getTileBounds(index % tilesX, index / tilesX));
+    }
+
+    @Override
+    public void addChangeListener(Consumer<Rect> listener) {
+        changeListeners.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(Consumer<Rect> listener) {
+        changeListeners.remove(listener);
+    }
+
+    public void addTileListener(TileListener listener) {
+        tileListeners.add(listener);
+    }
+
+    public void removeTileListener(TileListener listener) {
+        tileListeners.remove(listener);
+    }
+
+    // The tile at index, loading it first if the loader has not supplied it yet
+    private Tile tile(int index) {
+        return pending == null ? tiles[index] : loadTile(index);
+    }
+
+    // Synchronized so a snapshot can be read from several threads while it loads
+    private synchronized Tile loadTile(int index) {
+        BitSet pending = this.pending;
+        if (pending != null && pending.get(index)) {
+            install(index, loader.load(index % tilesX, index / tilesX));
+        }
+        return tiles[index];
+    }
+
+    // The loader is kept once everything is loaded, evicted tiles need it again
+    private void install(int index, TileData data) {
+        if (!data.isUniform() || data.getColor() != 0) {
+            Tile tile = new Tile(0);
+            data.restoreInto(tile);
+            tiles[index] = tile;
+        }
+        clean.set(index);
+        pending.clear(index);
+        if (pending.isEmpty()) {
+            pending = null;
+        }
+    }
+
+    private void inheritLoader(TiledPixelStore source) {
+        synchronized (source) {
+            loader = source.loader;
+            if (source.pending != null) {
+                pending = (BitSet) source.pending.clone();
+            }
+        }
+    }
+
+    // The tile at index, created or unshared so it can be modified
+    private Tile writableTile(int index) {
+        changedTiles.set(index);
+        Tile tile = tile(index);
+        clean.clear(index);
+        if (tile == null) {
+            tile = new Tile(0);
+            tiles[index] = tile;
+        } else if (tile.isShared()) {
+            Tile copy = tile.copy();
+            tile.release();
+            tiles[index] = copy;
+            tile = copy;
+        }
+        return tile;
+    }
+
+    private void fireTileChanging(int index) {
+        for (TileListener listener : tileListeners) {
+            listener.tileChanging(this, index % tilesX, index / tilesX);
+        }
+    }
+
+    protected void fireChanged(Rect region) {
+        for (Consumer<Rect> listener : changeListeners) {
+            listener.accept(region);
+        }
+    }
+
+    private void checkRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException(
+                "Region " + new Rect(x, y, w, h) + " outside " + width + "x" + height);
+        }
+    }
+
+    private static boolean isRun(int[] src, int offset, int len, int value) {
+        for (int i = offset, end = offset + len; i < end; i++) {
+            if (src[i] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,10 @@
+module com.snipshot.core {
+    requires transitive java.desktop;
+    requires java.management;
+    requires jdk.management;
+
+    exports com.snipshot.cli;
+    exports com.snipshot.metrics;
+    exports com.snipshot.paint;
+    exports com.snipshot.raster;
+}
@@ -0,0 +1,194 @@
+package com.snipshot.raster;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Checks every blend mode against the W3C compositing formulas, computed in
+ * floating point on random premultiplied pixels.
+ */
+class BlendKernelsTest {
+    private static final int PAIRS = 200_000;
+    private static final int TOLERANCE = 2; // levels per channel, from rounding the integer kernels
+    private static final double[] OPACITIES = {1.0, 0.5, 0.2};
+
+    @ParameterizedTest
+    @EnumSource(BlendOp.class)
+    void matchesReference(BlendOp op) {
+        Random random = new Random(op.ordinal());
+        for (double opacity : OPACITIES) {
+            int alpha = (int) Math.round(opacity * 255);
+            int[] src = new int[PAIRS];
+            int[] dst = new int[PAIRS];
+            for (int i = 0; i < PAIRS; i++) {
+                src[i] = randomPixel(random);
+                dst[i] = randomPixel(random);
+            }
+            int[] blended = dst.clone();
+            BlendKernels.blendRow(op, src, 0, blended, 0, PAIRS, alpha);
+            for (int i = 0; i < PAIRS; i++) {
+                // Opacity is applied to the source as 8-bit premultiplied pixels, as any layer is
+                // stored; dodge and burn would amplify its rounding far beyond a level or two
+                int scaled = Pixels.scale(src[i], alpha);
+                assertTrue(maxChannelError(reference(BlendOp.SRC_OVER, src[i], 0, alpha / 255.0), scaled) <= 1);
+                int expected = reference(op, scaled, dst[i], 1.0);
+                int error = maxChannelError(expected, blended[i]);
+                int index = i;
+                assertTrue(error <= TOLERANCE, () -> String.format(
+                    "%s at opacity %.1f: src %08x over dst %08x gave %08x, expected %08x",
+                    op, opacity, src[index], dst[index], blended[index], expected));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(BlendOp.class)
+    void parallelBlendMatchesRows(BlendOp op) {
+        // Large enough for blend() to fork, with offsets and strides on both sides
+        int width = 700;
+        int height = 400;
+        int srcScan = width + 13;
+        int dstScan = width + 5;
+        Random random = new Random(op.ordinal());
+        int[] src = new int[7 + srcScan * height];
+        int[] dst = new int[3 + dstScan * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = randomPixel(random);
+        }
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] = randomPixel(random);
+        }
+        int[] serial = dst.clone();
+        for (int row = 0; row < height; row++) {
+            BlendKernels.blendRow(op, src, 7 + row * srcScan, serial, 3 + row * dstScan, width, 153);
+        }
+        BlendKernels.blend(op, src, 7, srcScan, dst, 3, dstScan, width, height, 0.6);
+        assertArrayEquals(serial, dst);
+    }
+
+    @Test
+    void transparentSourceLeavesBackdrop() {
+        int[] dst = {0xFF336699, 0x80402010, 0};
+        for (BlendOp op : BlendOp.values()) {
+            int[] blended = dst.clone();
+            BlendKernels.blendRow(op, new int[3], 0, blended, 0, 3, 255);
+            assertArrayEquals(dst, blended, op.name());
+        }
+    }
+
+    // Premultiplied, with fully transparent and opaque pixels mixed in
+    private static int randomPixel(Random random) {
+        int choice = random.nextInt(8);
+        int a = choice == 0 ? 0 : choice < 3 ? 255 : random.nextInt(256);
+        int r = a == 0 ? 0 : random.nextInt(a + 1);
+        int g = a == 0 ? 0 : random.nextInt(a + 1);
+        int b = a == 0 ? 0 : random.nextInt(a + 1);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int maxChannelError(int expected, int actual) {
+        int error = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            error = Math.max(error, Math.abs(((expected >>> shift) & 0xFF) - ((actual >>> shift) & 0xFF)));
+        }
+        return error;
+    }
+
+    private static int reference(BlendOp op, int src, int dst, double opacity) {
+        double as = (src >>> 24) / 255.0 * opacity;
+        double ab = (dst >>> 24) / 255.0;
+        double[] cs = new double[3];
+        double[] cb = new double[3];
+        for (int c = 0; c < 3; c++) {
+            cs[c] = ((src >> (16 - 8 * c)) & 0xFF) / 255.0 * opacity;
+            cb[c] = ((dst >> (16 - 8 * c)) & 0xFF) / 255.0;
+        }
+        double ao = as + ab * (1 - as);
+        double[] co = new double[3];
+        switch (op) {
+            case SRC_ATOP:
+                ao = ab;
+                for (int c = 0; c < 3; c++) {
+                    co[c] = cs[c] * ab + cb[c] * (1 - as);
+                }
+                break;
+            case ADD:
+                ao = Math.min(1, as + ab);
+                for (int c = 0; c < 3; c++) {
+                    co[c] = Math.min(ao, cs[c] + cb[c]);
+                }
+                break;
+            case RED:
+            case GREEN:
+            case BLUE:
+                int channel = op == BlendOp.RED ? 0 : op == BlendOp.GREEN ? 1 : 2;
+                for (int c = 0; c < 3; c++) {
+                    co[c] = Math.min(ao, c == channel ? cs[c] + cb[c] * (1 - as) : cb[c]);
+                }
+                break;
+            default:
+                // co = cs*(1 - ab) + cb*(1 - as) + as*ab*B(Cb, Cs) on unpremultiplied Cs, Cb
+                for (int c = 0; c < 3; c++) {
+                    double mixed = 0;
+                    if (as > 0 && ab > 0) {
+                        mixed = as * ab * separable(op, Math.min(1, cb[c] / ab), Math.min(1, cs[c] / as));
+                    }
+                    co[c] = cs[c] * (1 - ab) + cb[c] * (1 - as) + mixed;
+                }
+                break;
+        }
+        int result = toByte(ao) << 24;
+        for (int c = 0; c < 3; c++) {
+            result |= toByte(co[c]) << (16 - 8 * c);
+        }
+        return result;
+    }
+
+    private static double separable(BlendOp op, double cb, double cs) {
+        switch (op) {
+            case SRC_OVER:
+                return cs;
+            case MULTIPLY:
+                return cb * cs;
+            case SCREEN:
+                return cb + cs - cb * cs;
+            case OVERLAY:
+                return hardLight(cs, cb);
+            case HARD_LIGHT:
+                return hardLight(cb, cs);
+            case DARKEN:
+                return Math.min(cb, cs);
+            case LIGHTEN:
+                return Math.max(cb, cs);
+            case COLOR_DODGE:
+                return cb == 0 ? 0 : cs >= 1 ? 1 : Math.min(1, cb / (1 - cs));
+            case COLOR_BURN:
+                return cb >= 1 ? 1 : cs <= 0 ? 0 : 1 - Math.min(1, (1 - cb) / cs);
+            case SOFT_LIGHT:
+                if (cs <= 0.5) {
+                    return cb - (1 - 2 * cs) * cb * (1 - cb);
+                }
+                double d = cb <= 0.25 ? ((16 * cb - 12) * cb + 4) * cb : Math.sqrt(cb);
+                return cb + (2 * cs - 1) * (d - cb);
+            case DIFFERENCE:
+                return Math.abs(cb - cs);
+            case EXCLUSION:
+                return cb + cs - 2 * cb * cs;
+            default:
+                throw new IllegalArgumentException(op.name());
+        }
+    }
+
+    private static double hardLight(double cb, double cs) {
+        return cs <= 0.5 ? 2 * cb * cs : 1 - 2 * (1 - cb) * (1 - cs);
+    }
+
+    private static int toByte(double value) {
+        return (int) Math.round(Math.max(0, Math.min(1, value)) * 255);
+    }
+}
@@ -0,0 +1,121 @@
+package com.snipshot.raster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.snipshot.metrics.Metrics;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pasting a tiled image on the tile grid: tiles are shared rather than
+ * copied, and the paste itself needs no more than a tile's worth of heap.
+ */
+class RasterGraphicsTest {
+    private static final int SIZE = TiledPixelStore.TILE_SIZE;
+    // Tile-sized blend buffers and bookkeeping; the source alone is 12 MB
+    private static final long MAX_PASTE_HEAP = 1024 * 1024;
+
+    @BeforeAll
+    static void loadClasses() {
+        // So that class initialisation is not counted as allocated by the first paste
+        TiledPixelStore tile = new TiledPixelStore(SIZE, SIZE);
+        tile.fill(0, 0, SIZE, SIZE, 0x80808080);
+        new RasterGraphics(new TiledPixelStore(SIZE, SIZE)).drawImage(tile, 0, 0);
+    }
+
+    @Test
+    void alignedPasteOntoEmptyLayerSharesEveryTile() {
+        TiledPixelStore source = pasteSource();
+        TiledPixelStore layer = new TiledPixelStore(16 * SIZE, 16 * SIZE);
+
+        Usage usage = measure(() -> new RasterGraphics(layer).drawImage(source, 2 * SIZE, SIZE));
+
+        assertEquals(0, usage.direct, "direct bytes allocated by the paste");
+        assertTrue(usage.heap < MAX_PASTE_HEAP, () -> "heap allocated by the paste: " + usage.heap);
+        assertPasted(source, layer, 2 * SIZE, SIZE, 0);
+        assertCopyOnWrite(source, layer, 2 * SIZE, SIZE);
+    }
+
+    @Test
+    void alignedPasteOntoOpaqueLayerSharesOpaqueTiles() {
+        TiledPixelStore source = pasteSource();
+        TiledPixelStore layer = new TiledPixelStore(16 * SIZE, 16 * SIZE);
+        layer.fill(0, 0, layer.getWidth(), layer.getHeight(), 0xFFFFFFFF);
+
+        Usage usage = measure(() -> new RasterGraphics(layer).drawImage(source, 2 * SIZE, SIZE));
+
+        // Only the translucent half of the source is blended into tiles of the layer's own
+        long translucentTiles = (long) source.getTilesX() * source.getTilesY() / 2;
+        assertTrue(usage.direct <= translucentTiles * Tile.BYTES, () -> "direct bytes allocated: " + usage.direct);
+        assertTrue(usage.heap < MAX_PASTE_HEAP, () -> "heap allocated by the paste: " + usage.heap);
+        assertPasted(source, layer, 2 * SIZE, SIZE, 0xFFFFFFFF);
+        assertCopyOnWrite(source, layer, 2 * SIZE, SIZE);
+    }
+
+    // 8x6 tiles of noise, opaque in the top half and half transparent below
+    private static TiledPixelStore pasteSource() {
+        TiledPixelStore source = new TiledPixelStore(8 * SIZE, 6 * SIZE);
+        Random random = new Random(7);
+        int[] row = new int[source.getWidth()];
+        for (int y = 0; y < source.getHeight(); y++) {
+            int alpha = y < 3 * SIZE ? 255 : 128;
+            for (int x = 0; x < row.length; x++) {
+                row[x] = Pixels.scale(0xFF000000 | random.nextInt(0x1000000), alpha);
+            }
+            source.writePixels(0, y, row.length, 1, row, 0, row.length);
+        }
+        return source;
+    }
+
+    private static void assertPasted(TiledPixelStore source, TiledPixelStore layer, int dx, int dy, int backdrop) {
+        int width = source.getWidth();
+        int[] expected = new int[width];
+        int[] actual = new int[width];
+        for (int y = 0; y < source.getHeight(); y++) {
+            source.readPixels(0, y, width, 1, expected, 0, width);
+            layer.readPixels(dx, y + dy, width, 1, actual, 0, width);
+            for (int x = 0; x < width; x++) {
+                assertEquals(Pixels.srcOver(expected[x], backdrop), actual[x], "pixel " + x + "," + y);
+            }
+        }
+    }
+
+    // Painting over the pasted pixels must leave the clipboard image as it was
+    private static void assertCopyOnWrite(TiledPixelStore source, TiledPixelStore layer, int dx, int dy) {
+        int before = source.getPixel(10, 10);
+        layer.fill(dx, dy, source.getWidth(), source.getHeight(), 0xFF00FF00);
+        assertEquals(before, source.getPixel(10, 10));
+    }
+
+    private static Usage measure(Runnable paste) {
+        long allocated = Metrics.allocatedBytes();
+        assumeTrue(allocated >= 0, "JVM does not count allocated bytes");
+        long direct = directBytes();
+        paste.run();
+        return new Usage(Metrics.allocatedBytes() - allocated, directBytes() - direct);
+    }
+
+    private static long directBytes() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private static final class Usage {
+        final long heap;
+        final long direct;
+
+        Usage(long heap, long direct) {
+            this.heap = heap;
+            this.direct = direct;
+        }
+    }
+}
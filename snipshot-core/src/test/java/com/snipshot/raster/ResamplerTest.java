@@ -0,0 +1,87 @@
+package com.snipshot.raster;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.geom.AffineTransform;
+import java.util.Random;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Resampling straight from a tiled store: the source is read a block at a
+ * time, and the blocks add up to exactly what one pass over all of it gives.
+ */
+class ResamplerTest {
+    private static final int BLOCK_PIXELS = 1 << 14;
+
+    private static final AffineTransform[] TRANSFORMS = {
+        new AffineTransform(0.6, 0.35, -0.35, 0.6, 300.5, 20.25), // rotated and shrunk
+        AffineTransform.getScaleInstance(1.7, 1.3),
+        new AffineTransform(0.05, 0, 0, 0.05, 10.5, 10.5), // halved five times first
+        AffineTransform.getRotateInstance(Math.PI / 4, 515, 351),
+        AffineTransform.getTranslateInstance(-100.5, 200.3),
+    };
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 3, 4})
+    void blocksMatchOnePass(int index) {
+        ReadTracker source = source();
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            int[] blocks = resample(source, TRANSFORMS[index], filter, BLOCK_PIXELS);
+            int[] whole = resample(source, TRANSFORMS[index], filter, Integer.MAX_VALUE);
+            assertArrayEquals(whole, blocks, filter.name());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 3, 4})
+    void readsSourceInBlocks(int index) {
+        ReadTracker source = source();
+        resample(source, TRANSFORMS[index], Resampler.Filter.LANCZOS, BLOCK_PIXELS);
+        // A rotated block reads its bounding box, plus the filter's reach, so allow for a few times the budget
+        assertTrue(source.largestRead <= 4L * BLOCK_PIXELS, () -> "largest read: " + source.largestRead);
+        assertTrue(source.largestRead < source.getWidth() * source.getHeight() / 8);
+    }
+
+    private static int[] resample(PixelStore source, AffineTransform transform, Resampler.Filter filter,
+                                  int blockPixels) {
+        Rect region = Resampler.getBounds(source.getWidth(), source.getHeight(), transform);
+        int[] result = new int[region.width * region.height];
+        Resampler.resample(source, transform, region, filter, blockPixels, (block, pixels) -> {
+            for (int row = 0; row < block.height; row++) {
+                System.arraycopy(pixels, row * block.width, result,
+                                 (block.y - region.y + row) * region.width + block.x - region.x, block.width);
+            }
+        });
+        return result;
+    }
+
+    // Odd-sized, so halving repeats edge pixels, with alpha rising left to right
+    private static ReadTracker source() {
+        ReadTracker source = new ReadTracker(1031, 703);
+        Random random = new Random(3);
+        int[] row = new int[source.getWidth()];
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < row.length; x++) {
+                row[x] = Pixels.scale(0xFF000000 | random.nextInt(0x1000000), x * 255 / row.length);
+            }
+            source.writePixels(0, y, row.length, 1, row, 0, row.length);
+        }
+        return source;
+    }
+
+    private static final class ReadTracker extends TiledPixelStore {
+        long largestRead;
+
+        ReadTracker(int width, int height) {
+            super(width, height);
+        }
+
+        @Override
+        public void readPixels(int x, int y, int w, int h, int[] dst, int offset, int scanlineStride) {
+            largestRead = Math.max(largestRead, (long) w * h);
+            super.readPixels(x, y, w, h, dst, offset, scanlineStride);
+        }
+    }
+}